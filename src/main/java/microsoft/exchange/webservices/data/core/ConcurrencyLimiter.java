@@ -0,0 +1,346 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many requests run at the same time against one mailbox and
+ * against one server, adapting the limits to how the server behaves.
+ * <p>
+ * Each limit grows by about one request per round trip while the latency
+ * stays close to the lowest latency seen, shrinks slightly when the latency
+ * rises, and is halved when a request is throttled with ErrorServerBusy or
+ * HTTP 503. This keeps the number of concurrent requests near what the
+ * server accepts without being throttled. Share one limiter between the
+ * services that talk to the same server.
+ * </p>
+ * <p>
+ * The limits of mailboxes and servers that have had no request for a while
+ * are dropped, and start over when they are used again.
+ * </p>
+ */
+public class ConcurrencyLimiter {
+
+  /**
+   * The default maximum number of concurrent requests per mailbox.
+   */
+  public static final int DefaultMaximumMailboxConcurrency = 10;
+
+  /**
+   * The default maximum number of concurrent requests per server.
+   */
+  public static final int DefaultMaximumEndpointConcurrency = 100;
+
+  // The factor a limit is multiplied with when a request is throttled
+  private static final double ThrottledDecrease = 0.5;
+
+  // The factor a limit is multiplied with when the latency rises
+  private static final double LatencyDecrease = 0.9;
+
+  // The latency, relative to the lowest latency seen, above which a limit shrinks
+  private static final double LatencyTolerance = 2.0;
+
+  // The time in nanoseconds after which the limit of an idle mailbox or server is dropped
+  private static final long DefaultIdleTimeout = TimeUnit.MINUTES.toNanos(5);
+
+  // The number of requests after which idle limits are looked for
+  private static final int EvictionInterval = 1024;
+
+  private final int maximumMailboxConcurrency;
+
+  private final int maximumEndpointConcurrency;
+
+  private final long idleTimeout;
+
+  private final ConcurrentMap<String, Limit> mailboxLimits = new ConcurrentHashMap<String, Limit>();
+
+  private final ConcurrentMap<String, Limit> endpointLimits = new ConcurrentHashMap<String, Limit>();
+
+  private final AtomicInteger acquired = new AtomicInteger();
+
+  /**
+   * Initializes a new instance with the default maximum limits.
+   */
+  public ConcurrencyLimiter() {
+    this(DefaultMaximumMailboxConcurrency, DefaultMaximumEndpointConcurrency);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param maximumMailboxConcurrency  the maximum number of concurrent requests per mailbox
+   * @param maximumEndpointConcurrency the maximum number of concurrent requests per server
+   */
+  public ConcurrencyLimiter(int maximumMailboxConcurrency, int maximumEndpointConcurrency) {
+    this(maximumMailboxConcurrency, maximumEndpointConcurrency, DefaultIdleTimeout);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param maximumMailboxConcurrency  the maximum number of concurrent requests per mailbox
+   * @param maximumEndpointConcurrency the maximum number of concurrent requests per server
+   * @param idleTimeout                the time in nanoseconds after which an idle limit is dropped
+   */
+  ConcurrencyLimiter(int maximumMailboxConcurrency, int maximumEndpointConcurrency, long idleTimeout) {
+    if (maximumMailboxConcurrency < 1 || maximumEndpointConcurrency < 1) {
+      throw new IllegalArgumentException("The maximum concurrency must be 1 or greater");
+    }
+    this.maximumMailboxConcurrency = maximumMailboxConcurrency;
+    this.maximumEndpointConcurrency = maximumEndpointConcurrency;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Waits until a request may be sent for a mailbox to a server.
+   *
+   * @param mailbox  the mailbox
+   * @param endpoint the server
+   * @return the permit, which must be released when the response arrives
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public Permit acquire(String mailbox, String endpoint) throws InterruptedException {
+    if (acquired.incrementAndGet() % EvictionInterval == 0) {
+      evictIdleLimits(mailboxLimits);
+      evictIdleLimits(endpointLimits);
+    }
+
+    // Always acquire the mailbox first, so that two requests cannot wait on each other
+    Limit mailboxLimit = acquireLimit(mailboxLimits, mailbox, maximumMailboxConcurrency);
+    Limit endpointLimit;
+    try {
+      endpointLimit = acquireLimit(endpointLimits, endpoint, maximumEndpointConcurrency);
+    } catch (InterruptedException e) {
+      mailboxLimit.release(0, false);
+      throw e;
+    }
+    return new Permit(mailboxLimit, endpointLimit);
+  }
+
+  /**
+   * Gets the number of mailboxes and servers whose limits are kept.
+   *
+   * @return the number of limits
+   */
+  public int getLimitCount() {
+    return mailboxLimits.size() + endpointLimits.size();
+  }
+
+  private static Limit acquireLimit(ConcurrentMap<String, Limit> limits, String key, int maximum)
+      throws InterruptedException {
+    while (true) {
+      Limit limit = getLimit(limits, key, maximum);
+      if (limit.acquire()) {
+        return limit;
+      }
+      // The limit was dropped while idle; use the one that replaces it
+    }
+  }
+
+  private void evictIdleLimits(ConcurrentMap<String, Limit> limits) {
+    long now = System.nanoTime();
+    for (Map.Entry<String, Limit> entry : limits.entrySet()) {
+      if (entry.getValue().retireIfIdle(now, idleTimeout)) {
+        limits.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Gets the current limit of concurrent requests for a mailbox.
+   *
+   * @param mailbox the mailbox
+   * @return the limit
+   */
+  public int getMailboxLimit(String mailbox) {
+    return getLimit(mailboxLimits, mailbox, maximumMailboxConcurrency).getLimit();
+  }
+
+  /**
+   * Gets the current limit of concurrent requests for a server.
+   *
+   * @param endpoint the server
+   * @return the limit
+   */
+  public int getEndpointLimit(String endpoint) {
+    return getLimit(endpointLimits, endpoint, maximumEndpointConcurrency).getLimit();
+  }
+
+  private static Limit getLimit(ConcurrentMap<String, Limit> limits, String key, int maximum) {
+    Limit limit = limits.get(key);
+    if (limit == null) {
+      Limit newLimit = new Limit(maximum);
+      limit = limits.putIfAbsent(key, newLimit);
+      if (limit == null) {
+        limit = newLimit;
+      }
+    }
+    return limit;
+  }
+
+
+  /**
+   * The right to send one request, obtained from
+   * {@link ConcurrencyLimiter#acquire(String, String)}.
+   */
+  public static final class Permit {
+
+    private final Limit mailboxLimit;
+
+    private final Limit endpointLimit;
+
+    private final long start = System.nanoTime();
+
+    private boolean released;
+
+    private Permit(Limit mailboxLimit, Limit endpointLimit) {
+      this.mailboxLimit = mailboxLimit;
+      this.endpointLimit = endpointLimit;
+    }
+
+    /**
+     * Releases the permit after the server responded successfully.
+     */
+    public void succeeded() {
+      release(System.nanoTime() - start, false);
+    }
+
+    /**
+     * Releases the permit after the server throttled the request.
+     */
+    public void throttled() {
+      release(0, true);
+    }
+
+    /**
+     * Releases the permit after the request failed for another reason, without
+     * changing the limits.
+     */
+    public void failed() {
+      release(0, false);
+    }
+
+    private synchronized void release(long latency, boolean throttled) {
+      if (!released) {
+        released = true;
+        endpointLimit.release(latency, throttled);
+        mailboxLimit.release(latency, throttled);
+      }
+    }
+  }
+
+
+  /**
+   * The adaptive limit of one mailbox or server.
+   */
+  private static final class Limit {
+
+    private final int maximum;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long lowestLatency = Long.MAX_VALUE;
+
+    private long lastUsed = System.nanoTime();
+
+    // Set once the limit has been dropped from its map
+    private boolean retired;
+
+    private Limit(int maximum) {
+      this.maximum = maximum;
+      this.limit = Math.max(1, maximum / 4);
+    }
+
+    private synchronized int getLimit() {
+      return (int) limit;
+    }
+
+    /**
+     * Waits until a request may be sent.
+     *
+     * @return false if the limit was dropped, in which case nothing was acquired
+     */
+    private synchronized boolean acquire() throws InterruptedException {
+      while (!retired && inFlight >= (int) limit) {
+        wait();
+      }
+      if (retired) {
+        return false;
+      }
+      inFlight++;
+      lastUsed = System.nanoTime();
+      return true;
+    }
+
+    /**
+     * Retires the limit if no request has used it for a while. Nobody waits on
+     * a limit without requests in flight, so no request is lost.
+     *
+     * @return true if the limit was retired
+     */
+    private synchronized boolean retireIfIdle(long now, long idleTimeout) {
+      if (!retired && inFlight == 0 && now - lastUsed > idleTimeout) {
+        retired = true;
+      }
+      return retired;
+    }
+
+    /**
+     * Releases a request and adapts the limit.
+     *
+     * @param latency   the latency of a successful request in nanoseconds, or 0
+     *                  if the request failed
+     * @param throttled whether the request was throttled
+     */
+    private synchronized void release(long latency, boolean throttled) {
+      inFlight--;
+      lastUsed = System.nanoTime();
+      if (throttled) {
+        limit = Math.max(1, limit * ThrottledDecrease);
+      } else if (latency > 0) {
+        if (latency < lowestLatency) {
+          lowestLatency = latency;
+        } else {
+          // Let the lowest latency drift up slowly, so that it follows the server
+          lowestLatency += (latency - lowestLatency) / 100;
+        }
+
+        if (latency > lowestLatency * LatencyTolerance) {
+          limit = Math.max(1, limit * LatencyDecrease);
+        } else {
+          limit = Math.min(maximum, limit + 1 / limit);
+        }
+      }
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The context of a single request of a service that runs requests
+ * concurrently. Credentials and authentication state are kept per request.
+ * The cookie store and the user token are shared with the context of the
+ * service, so that all requests see the same cookies and connections that
+ * were authenticated by one request can be reused by the others.
+ */
+final class ConcurrentRequestHttpContext implements HttpContext {
+
+  private final HttpContext serviceContext;
+
+  private final HttpContext requestContext = new BasicHttpContext();
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param serviceContext the context of the service
+   */
+  ConcurrentRequestHttpContext(HttpContext serviceContext) {
+    this.serviceContext = serviceContext;
+  }
+
+  @Override
+  public Object getAttribute(String id) {
+    Object value = requestContext.getAttribute(id);
+    if (value == null && isShared(id)) {
+      value = serviceContext.getAttribute(id);
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(String id, Object obj) {
+    requestContext.setAttribute(id, obj);
+    if (isShared(id)) {
+      serviceContext.setAttribute(id, obj);
+    }
+  }
+
+  @Override
+  public Object removeAttribute(String id) {
+    return requestContext.removeAttribute(id);
+  }
+
+  private static boolean isShared(String id) {
+    return HttpClientContext.COOKIE_STORE.equals(id) || HttpClientContext.USER_TOKEN.equals(id);
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.EWSConstants;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of HTTP connections that can be shared by many services,
+ * e.g. one service per impersonated mailbox, all talking to the same CAS.
+ * <p>
+ * Connections are limited in total and per route, and closed after they
+ * have been idle for a while. All connections are created by one SSL
+ * context, so TLS sessions are resumed instead of doing a full handshake
+ * for every new connection. Cookies and credentials are not shared: they
+ * stay in the HttpClientContext of each service, and connections that were
+ * authenticated with NTLM are only handed out again to the same user.
+ * </p>
+ * <p>
+ * The pool is not closed by the services that use it.
+ * </p>
+ */
+public class EwsConnectionPool implements Closeable {
+
+  /**
+   * The default maximum number of connections.
+   */
+  public static final int DefaultMaximumConnections = 200;
+
+  /**
+   * The default maximum number of connections per route.
+   */
+  public static final int DefaultMaximumConnectionsPerRoute = 20;
+
+  /**
+   * The default time in milliseconds after which idle connections are closed.
+   */
+  public static final long DefaultIdleTimeout = 60000;
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * Initializes a new instance with the default limits.
+   */
+  public EwsConnectionPool() {
+    this(DefaultMaximumConnections, DefaultMaximumConnectionsPerRoute, DefaultIdleTimeout);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param maximumConnections         the maximum number of connections
+   * @param maximumConnectionsPerRoute the default maximum number of connections per route
+   * @param idleTimeout                the time in milliseconds after which idle
+   *                                   connections are closed
+   */
+  public EwsConnectionPool(int maximumConnections, int maximumConnectionsPerRoute, long idleTimeout) {
+    this(ExchangeServiceBase.createDefaultConnectionSocketFactoryRegistry(), maximumConnections,
+        maximumConnectionsPerRoute, idleTimeout);
+  }
+
+  /**
+   * Initializes a new instance with the socket factories of the specified
+   * service, e.g. a service that overrides
+   * {@link ExchangeServiceBase#createConnectionSocketFactoryRegistry()} to use
+   * a custom trust manager.
+   *
+   * @param service                    the service whose socket factories are used
+   * @param maximumConnections         the maximum number of connections
+   * @param maximumConnectionsPerRoute the default maximum number of connections per route
+   * @param idleTimeout                the time in milliseconds after which idle
+   *                                   connections are closed
+   */
+  public EwsConnectionPool(ExchangeServiceBase service, int maximumConnections,
+      int maximumConnectionsPerRoute, long idleTimeout) {
+    this(service.createConnectionSocketFactoryRegistry(), maximumConnections,
+        maximumConnectionsPerRoute, idleTimeout);
+  }
+
+  /**
+   * Initializes a new instance with the specified socket factories, e.g. to
+   * use a custom trust manager.
+   *
+   * @param registry                   the socket factories per scheme
+   * @param maximumConnections         the maximum number of connections
+   * @param maximumConnectionsPerRoute the default maximum number of connections per route
+   * @param idleTimeout                the time in milliseconds after which idle
+   *                                   connections are closed
+   */
+  public EwsConnectionPool(Registry<ConnectionSocketFactory> registry, int maximumConnections,
+      int maximumConnectionsPerRoute, long idleTimeout) {
+    if (maximumConnections < 1) {
+      throw new IllegalArgumentException("maximumConnections must be 1 or greater");
+    }
+    if (maximumConnectionsPerRoute < 1) {
+      throw new IllegalArgumentException("maximumConnectionsPerRoute must be 1 or greater");
+    }
+    if (idleTimeout < 1) {
+      throw new IllegalArgumentException("idleTimeout must be 1 or greater");
+    }
+
+    connectionManager = new PoolingHttpClientConnectionManager(registry);
+    connectionManager.setMaxTotal(maximumConnections);
+    connectionManager.setDefaultMaxPerRoute(maximumConnectionsPerRoute);
+
+    httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setTargetAuthenticationStrategy(new CookieProcessingTargetAuthenticationStrategy())
+        .evictExpiredConnections()
+        .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Sets the maximum number of connections to the host of the specified URL,
+   * overriding the default per route limit.
+   *
+   * @param url                the URL, e.g. the EWS URL of a service
+   * @param maximumConnections the maximum number of connections
+   */
+  public void setMaximumConnectionsPerRoute(URI url, int maximumConnections) {
+    if (maximumConnections < 1) {
+      throw new IllegalArgumentException("maximumConnections must be 1 or greater");
+    }
+    connectionManager.setMaxPerRoute(getRoute(url), maximumConnections);
+  }
+
+  /**
+   * Gets the maximum number of connections to the host of the specified URL.
+   *
+   * @param url the URL
+   * @return the maximum number of connections
+   */
+  public int getMaximumConnectionsPerRoute(URI url) {
+    return connectionManager.getMaxPerRoute(getRoute(url));
+  }
+
+  /**
+   * Gets the number of leased, available and pending connections.
+   *
+   * @return the pool statistics
+   */
+  public PoolStats getTotalStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * Gets the client that executes requests over this pool.
+   *
+   * @return the HTTP client
+   */
+  CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Gets the route that direct connections to the host of the URL take.
+   *
+   * @param url the URL
+   * @return the route
+   */
+  private static HttpRoute getRoute(URI url) {
+    boolean secure = EWSConstants.HTTPS_SCHEME.equalsIgnoreCase(url.getScheme());
+    int port = url.getPort() != -1 ? url.getPort() : secure ? 443 : 80;
+    return new HttpRoute(new HttpHost(url.getHost(), port, url.getScheme()), null, secure);
+  }
+
+  /**
+   * Closes all connections of this pool. Services using the pool can no
+   * longer send requests afterwards.
+   *
+   * @throws IOException on error
+   */
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+}
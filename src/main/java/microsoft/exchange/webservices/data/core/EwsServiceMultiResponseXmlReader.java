@@ -23,6 +23,8 @@
 
 package microsoft.exchange.webservices.data.core;
 
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlReaderMode;
+
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -55,7 +57,8 @@ public class EwsServiceMultiResponseXmlReader extends EwsServiceXmlReader {
    */
   private EwsServiceMultiResponseXmlReader(InputStream stream,
       ExchangeService service) throws Exception {
-    super(stream, service);
+    // Always event based, since the XML reader is created by this class.
+    super(stream, service, XmlReaderMode.Event);
   }
 
   /**
@@ -84,7 +87,7 @@ public class EwsServiceMultiResponseXmlReader extends EwsServiceXmlReader {
     // it will do so. EWS doesn't use DTD references so we want to turn this off. Also, the XmlResolver property is
     // set to an instance of XmlUrlResolver by default. We don't want XmlTextReader to try to resolve this DTD reference
     // so we disable the XmlResolver as well.
-    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    XMLInputFactory inputFactory = EwsXmlFactories.getInputFactory();
     InputStreamReader isr = new InputStreamReader(stream);
     BufferedReader in = new BufferedReader(isr);
     return inputFactory.createXMLEventReader(in);
@@ -26,6 +26,7 @@ package microsoft.exchange.webservices.data.core;
 import microsoft.exchange.webservices.data.core.response.IGetObjectInstanceDelegate;
 import microsoft.exchange.webservices.data.core.service.ServiceObject;
 import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlReaderMode;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.util.DateTimeUtils;
 
@@ -56,7 +57,20 @@ public class EwsServiceXmlReader extends EwsXmlReader {
    */
   public EwsServiceXmlReader(InputStream stream, ExchangeService service)
       throws Exception {
-    super(stream);
+    this(stream, service, service != null ? service.getXmlReaderMode() : XmlReaderMode.Event);
+  }
+
+  /**
+   * Initializes a new instance of the EwsXmlReader class.
+   *
+   * @param stream the stream
+   * @param service the service
+   * @param mode the parsing mode
+   * @throws Exception on error
+   */
+  protected EwsServiceXmlReader(InputStream stream, ExchangeService service, XmlReaderMode mode)
+      throws Exception {
+    super(stream, mode);
     this.service = service;
   }
 
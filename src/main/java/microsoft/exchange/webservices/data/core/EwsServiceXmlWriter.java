@@ -41,14 +41,13 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.ProcessingInstruction;
 import org.w3c.dom.Text;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -79,9 +78,10 @@ public class EwsServiceXmlWriter implements IDisposable {
   private boolean isTimeZoneHeaderEmitted;
 
   /**
-   * The Buffer size.
+   * The number of bytes that are base64-encoded at a time. A multiple of 3, so
+   * that chunks can be encoded independently.
    */
-  private static final int BufferSize = 4096;
+  private static final int Base64ChunkSize = 3 * 1024;
 
   /**
    * The  requireWSSecurityUtilityNamespace *
@@ -98,9 +98,7 @@ public class EwsServiceXmlWriter implements IDisposable {
    */
   public EwsServiceXmlWriter(ExchangeServiceBase service, OutputStream stream) throws XMLStreamException {
     this.service = service;
-    XMLOutputFactory xmlof = XMLOutputFactory.newInstance();
-    xmlWriter = xmlof.createXMLStreamWriter(stream, "utf-8");
-
+    xmlWriter = EwsXmlFactories.getOutputFactory().createXMLStreamWriter(stream, "utf-8");
   }
 
   /**
@@ -496,13 +494,16 @@ public class EwsServiceXmlWriter implements IDisposable {
    */
   public void writeBase64ElementValue(byte[] buffer)
       throws XMLStreamException {
-
-    String strValue = Base64.encodeBase64String(buffer);
-    this.xmlWriter.writeCharacters(strValue);//Base64.encode(buffer));
+    for (int offset = 0; offset < buffer.length; offset += Base64ChunkSize) {
+      int length = Math.min(Base64ChunkSize, buffer.length - offset);
+      this.writeBase64Chunk(buffer, offset, length);
+    }
   }
 
   /**
-   * Writes the base64-encoded element value.
+   * Writes the base64-encoded element value. The stream is read and encoded in
+   * fixed-size chunks, so the memory used does not depend on the length of the
+   * stream.
    *
    * @param stream the stream
    * @throws IOException signals that an I/O exception has occurred
@@ -510,22 +511,34 @@ public class EwsServiceXmlWriter implements IDisposable {
    */
   public void writeBase64ElementValue(InputStream stream) throws IOException,
       XMLStreamException {
-
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    byte[] buf = new byte[BufferSize];
-    try {
-      for (int readNum; (readNum = stream.read(buf)) != -1; ) {
-        bos.write(buf, 0, readNum);
+    byte[] buffer = new byte[Base64ChunkSize];
+    int count = 0;
+    for (int readNum; (readNum = stream.read(buffer, count, buffer.length - count)) != -1; ) {
+      count += readNum;
+      // Only encode complete chunks, so that no padding is emitted in between.
+      if (count == buffer.length) {
+        this.writeBase64Chunk(buffer, 0, count);
+        count = 0;
       }
-    } catch (IOException ex) {
-      LOG.error(ex);
-    } finally {
-      bos.close();
     }
-    byte[] bytes = bos.toByteArray();
-    String strValue = Base64.encodeBase64String(bytes);
-    this.xmlWriter.writeCharacters(strValue);
+    if (count > 0) {
+      this.writeBase64Chunk(buffer, 0, count);
+    }
+  }
 
+  /**
+   * Base64-encodes a chunk of bytes and writes the characters.
+   *
+   * @param data   the data
+   * @param offset the offset of the chunk in the data
+   * @param length the length of the chunk
+   * @throws XMLStreamException the XML stream exception
+   */
+  private void writeBase64Chunk(byte[] data, int offset, int length)
+      throws XMLStreamException {
+    byte[] chunk = (offset == 0 && length == data.length)
+        ? data : Arrays.copyOfRange(data, offset, offset + length);
+    this.xmlWriter.writeCharacters(Base64.encodeBase64String(chunk));
   }
 
   /**
@@ -56,7 +56,6 @@ import org.apache.commons.logging.LogFactory;
 import org.joda.time.Period;
 import org.joda.time.format.ISOPeriodFormat;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -552,8 +551,7 @@ public final class EwsUtilities {
       throws XMLStreamException, IOException {
     String lineSeparator = System.getProperty("line.separator");
     ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-    XMLOutputFactory factory = XMLOutputFactory.newInstance();
-    XMLStreamWriter writer = factory.createXMLStreamWriter(outStream);
+    XMLStreamWriter writer = EwsXmlFactories.getOutputFactory().createXMLStreamWriter(outStream);
     EwsUtilities.writeTraceStartElement(writer, entryKind, false);
     writer.writeCharacters(lineSeparator);
     writer.writeCharacters(logEntry);
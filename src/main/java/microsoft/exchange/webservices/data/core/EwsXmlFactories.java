@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Holds the process-wide StAX factories used to read and write EWS messages.
+ * <p>
+ * Looking up a factory through {@link XMLInputFactory#newInstance()} or
+ * {@link XMLOutputFactory#newInstance()} scans the classpath every time, so the
+ * factories are created once, configured, and shared by all readers and
+ * writers. Configured factories are safe to use from multiple threads.
+ * </p>
+ * <p>
+ * The StAX implementation can be chosen with the standard
+ * {@code javax.xml.stream.XMLInputFactory} and
+ * {@code javax.xml.stream.XMLOutputFactory} system properties, or by passing a
+ * factory instance (e.g. Woodstox or Aalto) to {@link #setInputFactory} and
+ * {@link #setOutputFactory} before the first request is made.
+ * </p>
+ */
+public final class EwsXmlFactories {
+
+  /**
+   * The shared input factory.
+   */
+  private static volatile XMLInputFactory inputFactory;
+
+  /**
+   * The shared output factory.
+   */
+  private static volatile XMLOutputFactory outputFactory;
+
+  private EwsXmlFactories() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Gets the shared XML input factory. DTD processing is disabled on it.
+   *
+   * @return the input factory
+   */
+  public static XMLInputFactory getInputFactory() {
+    XMLInputFactory factory = inputFactory;
+    if (factory == null) {
+      synchronized (EwsXmlFactories.class) {
+        factory = inputFactory;
+        if (factory == null) {
+          factory = configureInputFactory(XMLInputFactory.newInstance());
+          inputFactory = factory;
+        }
+      }
+    }
+    return factory;
+  }
+
+  /**
+   * Sets the shared XML input factory. The factory must not be reconfigured
+   * after it has been set, since it is shared between threads.
+   *
+   * @param factory the input factory, or null to restore the default
+   */
+  public static void setInputFactory(XMLInputFactory factory) {
+    inputFactory = factory != null ? configureInputFactory(factory) : null;
+  }
+
+  /**
+   * Gets the shared XML output factory.
+   *
+   * @return the output factory
+   */
+  public static XMLOutputFactory getOutputFactory() {
+    XMLOutputFactory factory = outputFactory;
+    if (factory == null) {
+      synchronized (EwsXmlFactories.class) {
+        factory = outputFactory;
+        if (factory == null) {
+          factory = XMLOutputFactory.newInstance();
+          outputFactory = factory;
+        }
+      }
+    }
+    return factory;
+  }
+
+  /**
+   * Sets the shared XML output factory. The factory must not be reconfigured
+   * after it has been set, since it is shared between threads.
+   *
+   * @param factory the output factory, or null to restore the default
+   */
+  public static void setOutputFactory(XMLOutputFactory factory) {
+    outputFactory = factory;
+  }
+
+  /**
+   * Applies the settings EWS needs to an input factory.
+   *
+   * @param factory the input factory
+   * @return the input factory
+   */
+  private static XMLInputFactory configureInputFactory(XMLInputFactory factory) {
+    // EWS doesn't use DTD references, so don't process them.
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    return factory;
+  }
+
+}
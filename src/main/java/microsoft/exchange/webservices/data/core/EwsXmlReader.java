@@ -24,10 +24,12 @@
 package microsoft.exchange.webservices.data.core;
 
 import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlReaderMode;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceXmlDeserializationException;
 import microsoft.exchange.webservices.data.misc.OutParam;
 import microsoft.exchange.webservices.data.security.XmlNodeType;
-import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +39,8 @@ import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.EndElement;
@@ -49,6 +53,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -78,6 +83,28 @@ public class EwsXmlReader {
    */
   private XMLEvent prevEvent;
 
+  /**
+   * The cursor based xml reader, used instead of the event reader in
+   * {@link XmlReaderMode#Cursor} mode.
+   */
+  private XMLStreamReader streamReader = null;
+
+  /**
+   * The type of the present node in cursor mode.
+   */
+  private int presentEventType;
+
+  /**
+   * Whether the stream reader has been moved past the present node in cursor
+   * mode. The present start element is then held in the element snapshot.
+   */
+  private boolean isStreamReaderAhead;
+
+  /**
+   * The present start element, captured before the stream reader looks ahead.
+   */
+  private ElementSnapshot elementSnapshot;
+
   /**
    * Initializes a new instance of the EwsXmlReader class.
    *
@@ -85,7 +112,25 @@ public class EwsXmlReader {
    * @throws Exception on error
    */
   public EwsXmlReader(InputStream stream) throws Exception {
-    this.xmlReader = initializeXmlReader(stream);
+    this(stream, XmlReaderMode.Event);
+  }
+
+  /**
+   * Initializes a new instance of the EwsXmlReader class.
+   *
+   * @param stream the stream
+   * @param mode   the StAX API used to parse the stream
+   * @throws Exception on error
+   */
+  public EwsXmlReader(InputStream stream, XmlReaderMode mode) throws Exception {
+    if (mode == XmlReaderMode.Cursor) {
+      this.streamReader = initializeStreamReader(stream);
+      // The stream reader starts on the document start, which is reported by the first read.
+      this.isStreamReaderAhead = true;
+      this.elementSnapshot = new ElementSnapshot();
+    } else {
+      this.xmlReader = initializeXmlReader(stream);
+    }
   }
 
   /**
@@ -96,10 +141,18 @@ public class EwsXmlReader {
    * @throws Exception on error
    */
   protected XMLEventReader initializeXmlReader(InputStream stream) throws Exception {
-    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    return EwsXmlFactories.getInputFactory().createXMLEventReader(stream);
+  }
 
-    return inputFactory.createXMLEventReader(stream);
+  /**
+   * Initializes the cursor based XML reader.
+   *
+   * @param stream the stream
+   * @return An XML stream reader to use.
+   * @throws Exception on error
+   */
+  protected XMLStreamReader initializeStreamReader(InputStream stream) throws Exception {
+    return EwsXmlFactories.getInputFactory().createXMLStreamReader(stream);
   }
 
 
@@ -191,6 +244,14 @@ public class EwsXmlReader {
    */
   private void read(boolean keepWhiteSpace) throws ServiceXmlDeserializationException,
       XMLStreamException {
+    if (this.streamReader != null) {
+      while (this.advanceStreamReader() == XMLStreamConstants.CHARACTERS
+          && !keepWhiteSpace && this.streamReader.isWhiteSpace()) {
+        // skip whitespace
+      }
+      return;
+    }
+
     // The caller to EwsXmlReader.Read expects
     // that there's another node to
     // read. Throw an exception if not true.
@@ -237,6 +298,13 @@ public class EwsXmlReader {
    * @throws Exception thrown if attribute value can not be read
    */
   private String readAttributeValue(QName qName) throws Exception {
+    if (this.streamReader != null) {
+      if (this.isStartElement()) {
+        return this.readStreamReaderAttributeValue(qName.getNamespaceURI(), qName.getLocalPart());
+      }
+      throw new Exception(String.format("Could not fetch attribute %s", qName.toString()));
+    }
+
     if (this.presentEvent.isStartElement()) {
       StartElement startElement = this.presentEvent.asStartElement();
       Attribute attr = startElement.getAttributeByName(qName);
@@ -448,6 +516,10 @@ public class EwsXmlReader {
    */
   public String readValue(boolean keepWhiteSpace) throws XMLStreamException,
       ServiceXmlDeserializationException {
+    if (this.streamReader != null) {
+      return this.readStreamReaderValue(keepWhiteSpace);
+    }
+
     if (this.presentEvent.isStartElement()) {
       // Go to next event and check for Characters event
       this.read(keepWhiteSpace);
@@ -526,7 +598,7 @@ public class EwsXmlReader {
     if (!this.isEmptyElement()) {
       this.read();
 
-      if (this.presentEvent.isCharacters()) {
+      if (this.isCharacters()) {
         value.setParam(this.readValue());
         return true;
       } else {
@@ -560,17 +632,9 @@ public class EwsXmlReader {
   public byte[] readBase64ElementValue()
       throws ServiceXmlDeserializationException, XMLStreamException,
       IOException {
-    this.ensureCurrentNodeIsStartElement();
-
-    byte[] buffer = null;
-
     ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-
-    buffer = Base64.decodeBase64(this.xmlReader.getElementText().toString());
-    byteArrayStream.write(buffer);
-
+    this.readBase64ElementValueToStream(byteArrayStream);
     return byteArrayStream.toByteArray();
-
   }
 
   /**
@@ -581,14 +645,93 @@ public class EwsXmlReader {
    */
   public void readBase64ElementValue(OutputStream outputStream)
       throws Exception {
+    this.readBase64ElementValueToStream(outputStream);
+  }
+
+  /**
+   * Decodes the base64 content of the current element into the output stream.
+   * The character events are decoded as they are read, so the element text is
+   * never held in memory as a whole. After executing this function the present
+   * event will be set on the END ELEMENT.
+   *
+   * @param outputStream the output stream
+   * @throws ServiceXmlDeserializationException the service xml deserialization exception
+   * @throws XMLStreamException the XML stream exception
+   * @throws IOException signals that an I/O exception has occurred
+   */
+  private void readBase64ElementValueToStream(OutputStream outputStream)
+      throws ServiceXmlDeserializationException, XMLStreamException,
+      IOException {
     this.ensureCurrentNodeIsStartElement();
 
-    byte[] buffer = null;
-    buffer = Base64.decodeBase64(this.xmlReader.getElementText().toString());
-    outputStream.write(buffer);
+    // The decoder is closed to decode the last quantum, which must not close
+    // the caller's stream
+    OutputStream decoder = new Base64OutputStream(new CloseShieldOutputStream(outputStream), false);
+    byte[] buffer = new byte[ReadWriteBufferSize];
+    while (true) {
+      int eventType;
+      if (this.streamReader != null) {
+        eventType = this.advanceStreamReader();
+        if (isCharacters(eventType)) {
+          writeBase64Characters(decoder, buffer, this.streamReader.getTextCharacters(),
+              this.streamReader.getTextStart(), this.streamReader.getTextLength());
+        }
+      } else {
+        if (!xmlReader.hasNext()) {
+          throw new ServiceXmlDeserializationException("Unexpected end of XML document.");
+        }
+        XMLEvent event = this.xmlReader.nextEvent();
+        eventType = event.getEventType();
+        if (event.isCharacters()) {
+          char[] data = event.asCharacters().getData().toCharArray();
+          writeBase64Characters(decoder, buffer, data, 0, data.length);
+        } else if (event.isEndElement()) {
+          this.prevEvent = this.presentEvent;
+          this.presentEvent = event;
+        }
+      }
+
+      if (eventType == XMLStreamConstants.END_ELEMENT) {
+        break;
+      } else if (eventType == XMLStreamConstants.START_ELEMENT) {
+        throw new ServiceXmlDeserializationException(
+            "The base64 element value is not expected to contain child elements.");
+      }
+    }
+
+    decoder.close();
     outputStream.flush();
   }
 
+  /**
+   * Writes base64 characters to a decoding stream through a byte buffer.
+   * Characters outside the ASCII range are dropped; the decoder ignores any
+   * character outside the base64 alphabet as well.
+   *
+   * @param decoder the decoding stream
+   * @param buffer  the buffer
+   * @param data    the characters
+   * @param start   the offset of the first character
+   * @param length  the number of characters
+   * @throws IOException signals that an I/O exception has occurred
+   */
+  private static void writeBase64Characters(OutputStream decoder, byte[] buffer,
+      char[] data, int start, int length) throws IOException {
+    int count = 0;
+    for (int i = start; i < start + length; i++) {
+      if (data[i] < 0x80) {
+        buffer[count++] = (byte) data[i];
+        if (count == buffer.length) {
+          decoder.write(buffer, 0, count);
+          count = 0;
+        }
+      }
+    }
+    if (count > 0) {
+      decoder.write(buffer, 0, count);
+    }
+  }
+
   /**
    * Reads the start element.
    *
@@ -667,6 +810,9 @@ public class EwsXmlReader {
    * @return boolean
    */
   public boolean isStartElement() {
+    if (this.streamReader != null) {
+      return this.presentEventType == XMLStreamConstants.START_ELEMENT;
+    }
     return this.presentEvent.isStartElement();
   }
 
@@ -679,11 +825,9 @@ public class EwsXmlReader {
    */
   public boolean isStartElement(String namespacePrefix, String localName) {
     boolean isStart = false;
-    if (this.presentEvent.isStartElement()) {
-      StartElement startElement = this.presentEvent.asStartElement();
-      QName qName = startElement.getName();
-      isStart = qName.getLocalPart().equals(localName)
-          && qName.getPrefix().equals(namespacePrefix);
+    if (this.isStartElement()) {
+      isStart = this.getLocalName().equals(localName)
+          && this.getNamespacePrefix().equals(namespacePrefix);
     }
     return isStart;
   }
@@ -703,6 +847,18 @@ public class EwsXmlReader {
          StringUtils.equals(getNamespaceUri(), EwsUtilities.getNamespaceUri(xmlNamespace)));
   }
 
+  /**
+   * Determines whether current element is a end element.
+   *
+   * @return boolean
+   */
+  private boolean isEndElement() {
+    if (this.streamReader != null) {
+      return this.presentEventType == XMLStreamConstants.END_ELEMENT;
+    }
+    return this.presentEvent.isEndElement();
+  }
+
   /**
    * Determines whether current element is a end element.
    *
@@ -712,11 +868,9 @@ public class EwsXmlReader {
    */
   public boolean isEndElement(String namespacePrefix, String localName) {
     boolean isEndElement = false;
-    if (this.presentEvent.isEndElement()) {
-      EndElement endElement = this.presentEvent.asEndElement();
-      QName qName = endElement.getName();
-      isEndElement = qName.getLocalPart().equals(localName)
-          && qName.getPrefix().equals(namespacePrefix);
+    if (this.isEndElement()) {
+      isEndElement = this.getLocalName().equals(localName)
+          && this.getNamespacePrefix().equals(namespacePrefix);
 
     }
     return isEndElement;
@@ -735,13 +889,11 @@ public class EwsXmlReader {
 		/*
 		 * if(localName.equals("Body")) { return true; } else
 		 */
-    if (this.presentEvent.isEndElement()) {
-      EndElement endElement = this.presentEvent.asEndElement();
-      QName qName = endElement.getName();
-      isEndElement = qName.getLocalPart().equals(localName)
-          && (qName.getPrefix().equals(
+    if (this.isEndElement()) {
+      isEndElement = this.getLocalName().equals(localName)
+          && (this.getNamespacePrefix().equals(
           EwsUtilities.getNamespacePrefix(xmlNamespace)) ||
-          qName.getNamespaceURI().equals(
+          this.getNamespaceUri().equals(
               EwsUtilities.getNamespaceUri(
                   xmlNamespace)));
 
@@ -749,6 +901,18 @@ public class EwsXmlReader {
     return isEndElement;
   }
 
+  /**
+   * Determines whether current node is a character node.
+   *
+   * @return boolean
+   */
+  private boolean isCharacters() {
+    if (this.streamReader != null) {
+      return isCharacters(this.presentEventType);
+    }
+    return this.presentEvent.isCharacters();
+  }
+
   /**
    * Skips the element.
    *
@@ -827,6 +991,15 @@ public class EwsXmlReader {
    */
   public void ensureCurrentNodeIsStartElement()
       throws ServiceXmlDeserializationException {
+    if (this.streamReader != null) {
+      if (!this.isStartElement()) {
+        throw new ServiceXmlDeserializationException(String.format(
+            "The start element was expected, but node of type %s was found.",
+            XmlNodeType.getString(this.presentEventType)));
+      }
+      return;
+    }
+
     XmlNodeType presentNodeType = new XmlNodeType(this.presentEvent
         .getEventType());
     if (!this.presentEvent.isStartElement()) {
@@ -869,6 +1042,10 @@ public class EwsXmlReader {
       throw new ServiceXmlDeserializationException("The current position is not the start of an element.");
     }
 
+    if (this.streamReader != null) {
+      return this.readStreamReaderXml(true);
+    }
+
     XMLEvent startEvent = this.presentEvent;
     XMLEvent event;
     StringBuilder str = new StringBuilder();
@@ -894,6 +1071,10 @@ public class EwsXmlReader {
       throw new ServiceXmlDeserializationException("The current position is not the start of an element.");
     }
 
+    if (this.streamReader != null) {
+      return this.readStreamReaderXml(false);
+    }
+
     XMLEvent startEvent = this.presentEvent;
     StringBuilder str = new StringBuilder();
     do {
@@ -950,18 +1131,22 @@ public class EwsXmlReader {
 
     XMLEventReader eventReader = null;
     InputStream in = null;
-    XMLEvent startEvent = this.presentEvent;
-    XMLEvent event = startEvent;
     StringBuilder str = new StringBuilder();
-    str.append(startEvent);
-    do {
-      event = this.xmlReader.nextEvent();
-      str.append(event);
-    } while (!checkEndElement(startEvent, event));
+    if (this.streamReader != null) {
+      str.append(this.readStreamReaderXml(true));
+    } else {
+      XMLEvent startEvent = this.presentEvent;
+      XMLEvent event = startEvent;
+      str.append(startEvent);
+      do {
+        event = this.xmlReader.nextEvent();
+        str.append(event);
+      } while (!checkEndElement(startEvent, event));
+    }
 
     try {
 
-      XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+      XMLInputFactory inputFactory = EwsXmlFactories.getInputFactory();
 
       try {
         in = new ByteArrayInputStream(str.toString().getBytes("UTF-8"));
@@ -993,6 +1178,25 @@ public class EwsXmlReader {
     if (!this.isStartElement()) {
       return false;
     }
+
+    if (this.streamReader != null) {
+      int depth = 0;
+      do {
+        if (this.isStartElement()) {
+          if (this.getLocalName().equals(localName) &&
+              this.getNamespaceUri().equals(namespaceURI)) {
+            return true;
+          }
+          depth++;
+        } else if (this.isEndElement()) {
+          depth--;
+        }
+        if (depth > 0) {
+          this.nextStreamReaderEvent();
+        }
+      } while (depth > 0);
+      return false;
+    }
     XMLEvent startEvent = this.presentEvent;
     XMLEvent event = this.presentEvent;
     do {
@@ -1018,6 +1222,14 @@ public class EwsXmlReader {
    */
   public boolean hasAttributes() {
 
+    if (this.streamReader != null) {
+      if (!this.isStartElement()) {
+        return false;
+      }
+      return this.isStreamReaderAhead ? this.elementSnapshot.attributeCount > 0
+          : this.streamReader.getAttributeCount() > 0;
+    }
+
     if (this.presentEvent.isStartElement()) {
       StartElement startElement = this.presentEvent.asStartElement();
       return startElement.getAttributes().hasNext();
@@ -1033,6 +1245,19 @@ public class EwsXmlReader {
    * @throws XMLStreamException the XML stream exception
    */
   public boolean isEmptyElement() throws XMLStreamException {
+    if (this.streamReader != null) {
+      if (!this.isStartElement()) {
+        return false;
+      }
+      // Look ahead one node, keeping a copy of the start element.
+      if (!this.isStreamReaderAhead) {
+        this.elementSnapshot.capture(this.streamReader);
+        this.streamReader.next();
+        this.isStreamReaderAhead = true;
+      }
+      return this.streamReader.getEventType() == XMLStreamConstants.END_ELEMENT;
+    }
+
     boolean isPresentStartElement = this.presentEvent.isStartElement();
     boolean isNextEndElement = this.xmlReader.peek().isEndElement();
     return isPresentStartElement && isNextEndElement;
@@ -1045,6 +1270,11 @@ public class EwsXmlReader {
    */
   public String getLocalName() {
 
+    if (this.streamReader != null) {
+      return this.isStreamReaderAhead ? this.elementSnapshot.localName
+          : this.streamReader.getLocalName();
+    }
+
     String localName = null;
 
     if (this.presentEvent.isStartElement()) {
@@ -1064,6 +1294,14 @@ public class EwsXmlReader {
    * @return String
    */
   protected String getNamespacePrefix() {
+    if (this.streamReader != null) {
+      if (!this.isStartElement() && !this.isEndElement()) {
+        return null;
+      }
+      return this.isStreamReaderAhead ? this.elementSnapshot.prefix
+          : emptyIfNull(this.streamReader.getPrefix());
+    }
+
     if (this.presentEvent.isStartElement()) {
       return this.presentEvent.asStartElement().getName().getPrefix();
     }
@@ -1080,6 +1318,11 @@ public class EwsXmlReader {
    */
   public String getNamespaceUri() {
 
+    if (this.streamReader != null) {
+      return this.isStreamReaderAhead ? this.elementSnapshot.namespaceUri
+          : emptyIfNull(this.streamReader.getNamespaceURI());
+    }
+
     String nameSpaceUri = null;
     if (this.presentEvent.isStartElement()) {
       nameSpaceUri = this.presentEvent.asStartElement().getName()
@@ -1099,6 +1342,10 @@ public class EwsXmlReader {
    * @throws XMLStreamException the XML stream exception
    */
   public XmlNodeType getNodeType() throws XMLStreamException {
+    if (this.streamReader != null) {
+      return new XmlNodeType(this.presentEventType);
+    }
+
     XMLEvent event = this.presentEvent;
     return new XmlNodeType(event.getEventType());
   }
@@ -1109,6 +1356,12 @@ public class EwsXmlReader {
    * @return Object
    */
   protected Object getName() {
+    if (this.streamReader != null) {
+      String namespaceUri = this.getNamespaceUri();
+      return isNullOrEmpty(namespaceUri) ? this.getLocalName()
+          : "{" + namespaceUri + "}" + this.getLocalName();
+    }
+
     String name = null;
     if (this.presentEvent.isStartElement()) {
       name = this.presentEvent.asStartElement().getName().toString();
@@ -1137,8 +1390,314 @@ public class EwsXmlReader {
    * @return error message with details
    */
   private String getReadValueErrMsg(final String details) {
-    final int eventType = this.presentEvent.getEventType();
+    final int eventType = this.streamReader != null ? this.presentEventType
+        : this.presentEvent.getEventType();
     return "Could not read value from " + XmlNodeType.getString(eventType) + "." + details;
   }
 
+  /**
+   * Checks whether the node type carries character data.
+   *
+   * @param eventType the node type
+   * @return true, if the node type carries character data
+   */
+  private static boolean isCharacters(int eventType) {
+    return eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.CDATA
+        || eventType == XMLStreamConstants.SPACE;
+  }
+
+  /**
+   * Returns the empty string for null, since StAX cursors report missing
+   * prefixes and namespaces as null while events report them as empty strings.
+   *
+   * @param value the value
+   * @return the value, or the empty string if it is null
+   */
+  private static String emptyIfNull(String value) {
+    return value == null ? "" : value;
+  }
+
+  /**
+   * Moves the stream reader to the next node, or onto the node it has already
+   * looked ahead to.
+   *
+   * @return the type of the new present node
+   * @throws XMLStreamException the XML stream exception
+   */
+  private int nextStreamReaderEvent() throws XMLStreamException {
+    if (this.isStreamReaderAhead) {
+      this.isStreamReaderAhead = false;
+    } else {
+      this.streamReader.next();
+    }
+    this.presentEventType = this.streamReader.getEventType();
+    return this.presentEventType;
+  }
+
+  /**
+   * Moves the stream reader to the next node, expecting that there is one.
+   *
+   * @return the type of the new present node
+   * @throws ServiceXmlDeserializationException the service xml deserialization exception
+   * @throws XMLStreamException the XML stream exception
+   */
+  private int advanceStreamReader() throws ServiceXmlDeserializationException,
+      XMLStreamException {
+    if (!this.isStreamReaderAhead && !this.streamReader.hasNext()) {
+      throw new ServiceXmlDeserializationException("Unexpected end of XML document.");
+    }
+    return this.nextStreamReaderEvent();
+  }
+
+  /**
+   * Reads an attribute of the present start element in cursor mode.
+   *
+   * @param namespaceUri the namespace URI of the attribute
+   * @param localName    the local name of the attribute
+   * @return the attribute value, or null if there is no such attribute
+   */
+  private String readStreamReaderAttributeValue(String namespaceUri, String localName) {
+    namespaceUri = emptyIfNull(namespaceUri);
+    if (this.isStreamReaderAhead) {
+      return this.elementSnapshot.getAttributeValue(namespaceUri, localName);
+    }
+    for (int i = 0; i < this.streamReader.getAttributeCount(); i++) {
+      if (localName.equals(this.streamReader.getAttributeLocalName(i))
+          && namespaceUri.equals(emptyIfNull(this.streamReader.getAttributeNamespace(i)))) {
+        return this.streamReader.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the value in cursor mode, with the same semantics as
+   * {@link #readValue(boolean)}.
+   *
+   * @param keepWhiteSpace Do not remove whitespace characters if true
+   * @return String
+   * @throws XMLStreamException the XML stream exception
+   * @throws ServiceXmlDeserializationException the service xml deserialization exception
+   */
+  private String readStreamReaderValue(boolean keepWhiteSpace) throws XMLStreamException,
+      ServiceXmlDeserializationException {
+    final StringBuilder elementValue = new StringBuilder();
+    if (this.isStartElement()) {
+      // Go to next node and check for character data
+      this.read(keepWhiteSpace);
+      if (this.isCharacters()) {
+        do {
+          if (this.presentEventType == XMLStreamConstants.CHARACTERS
+              && (keepWhiteSpace || !this.streamReader.isWhiteSpace())) {
+            this.appendStreamReaderText(elementValue);
+          }
+          this.read();
+        } while (!this.isEndElement());
+        return elementValue.toString();
+      } else if (this.isEndElement()) {
+        return "";
+      } else {
+        throw new ServiceXmlDeserializationException(
+            getReadValueErrMsg("Could not find " + XmlNodeType.getString(XmlNodeType.CHARACTERS)));
+      }
+    } else if (this.presentEventType == XMLStreamConstants.CHARACTERS) {
+      this.appendStreamReaderText(elementValue);
+      do {
+        this.read(keepWhiteSpace);
+        if (this.presentEventType == XMLStreamConstants.CHARACTERS
+            && (keepWhiteSpace || !this.streamReader.isWhiteSpace())) {
+          this.appendStreamReaderText(elementValue);
+        }
+      } while (!this.isEndElement());
+      return elementValue.toString();
+    } else {
+      throw new ServiceXmlDeserializationException(
+        getReadValueErrMsg("Expected is " + XmlNodeType.getString(XmlNodeType.START_ELEMENT))
+      );
+    }
+  }
+
+  /**
+   * Appends the character data of the present node without creating a string for it.
+   *
+   * @param builder the builder
+   */
+  private void appendStreamReaderText(StringBuilder builder) {
+    builder.append(this.streamReader.getTextCharacters(), this.streamReader.getTextStart(),
+        this.streamReader.getTextLength());
+  }
+
+  /**
+   * Serializes the present element in cursor mode. After executing this
+   * function the present node will be set on the END ELEMENT.
+   *
+   * @param outer true to include the element itself, false for its content only
+   * @return the XML
+   * @throws XMLStreamException the XML stream exception
+   * @throws ServiceXmlDeserializationException the service xml deserialization exception
+   */
+  private String readStreamReaderXml(boolean outer) throws XMLStreamException,
+      ServiceXmlDeserializationException {
+    StringWriter stringWriter = new StringWriter();
+    XMLStreamWriter writer = EwsXmlFactories.getOutputFactory().createXMLStreamWriter(stringWriter);
+    if (outer) {
+      if (this.isStreamReaderAhead) {
+        this.elementSnapshot.writeStartElement(writer);
+      } else {
+        writeStartElement(this.streamReader, writer, true);
+      }
+    }
+
+    int depth = 0;
+    while (true) {
+      int eventType = this.advanceStreamReader();
+      if (eventType == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          break;
+        }
+        depth--;
+        writer.writeEndElement();
+      } else if (eventType == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        writeStartElement(this.streamReader, writer, !outer && depth == 1);
+      } else if (eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.SPACE) {
+        writer.writeCharacters(this.streamReader.getTextCharacters(), this.streamReader.getTextStart(),
+            this.streamReader.getTextLength());
+      } else if (eventType == XMLStreamConstants.CDATA) {
+        writer.writeCData(this.streamReader.getText());
+      } else if (eventType == XMLStreamConstants.COMMENT) {
+        writer.writeComment(this.streamReader.getText());
+      } else if (eventType == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+        writer.writeProcessingInstruction(this.streamReader.getPITarget(), this.streamReader.getPIData());
+      } else if (eventType == XMLStreamConstants.ENTITY_REFERENCE) {
+        writer.writeEntityRef(this.streamReader.getLocalName());
+      }
+    }
+
+    if (outer) {
+      writer.writeEndElement();
+    }
+    writer.flush();
+    writer.close();
+    return stringWriter.toString();
+  }
+
+  /**
+   * Writes the start element the stream reader is positioned on.
+   *
+   * @param reader the stream reader
+   * @param writer the stream writer
+   * @param topLevel true if the element is written without its ancestors, in
+   *                 which case the namespace of its prefix is declared on it
+   * @throws XMLStreamException the XML stream exception
+   */
+  private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer,
+      boolean topLevel) throws XMLStreamException {
+    String prefix = emptyIfNull(reader.getPrefix());
+    String namespaceUri = emptyIfNull(reader.getNamespaceURI());
+    writer.writeStartElement(prefix, reader.getLocalName(), namespaceUri);
+    boolean prefixDeclared = !topLevel || prefix.length() == 0;
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      prefixDeclared |= prefix.equals(emptyIfNull(reader.getNamespacePrefix(i)));
+      writeNamespace(writer, reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+    }
+    if (!prefixDeclared) {
+      writeNamespace(writer, prefix, namespaceUri);
+    }
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      writer.writeAttribute(emptyIfNull(reader.getAttributePrefix(i)),
+          emptyIfNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+          reader.getAttributeValue(i));
+    }
+  }
+
+  /**
+   * Writes a namespace declaration.
+   *
+   * @param writer the stream writer
+   * @param prefix the prefix, empty or null for the default namespace
+   * @param uri    the namespace URI
+   * @throws XMLStreamException the XML stream exception
+   */
+  private static void writeNamespace(XMLStreamWriter writer, String prefix, String uri)
+      throws XMLStreamException {
+    if (isNullOrEmpty(prefix)) {
+      writer.writeDefaultNamespace(emptyIfNull(uri));
+    } else {
+      writer.writeNamespace(prefix, emptyIfNull(uri));
+    }
+  }
+
+  /**
+   * A copy of the name, namespace declarations and attributes of a start
+   * element, kept while the stream reader looks ahead to the next node. The
+   * arrays are reused for every element.
+   */
+  private static final class ElementSnapshot {
+
+    private String localName;
+    private String prefix;
+    private String namespaceUri;
+
+    // prefix and URI of each namespace declaration
+    private String[] namespaces = new String[8];
+    private int namespaceCount;
+
+    // prefix, namespace URI, local name and value of each attribute
+    private String[] attributes = new String[16];
+    private int attributeCount;
+
+    void capture(XMLStreamReader reader) {
+      this.localName = reader.getLocalName();
+      this.prefix = emptyIfNull(reader.getPrefix());
+      this.namespaceUri = emptyIfNull(reader.getNamespaceURI());
+
+      this.namespaceCount = reader.getNamespaceCount();
+      if (this.namespaces.length < this.namespaceCount * 2) {
+        this.namespaces = new String[this.namespaceCount * 2];
+      }
+      for (int i = 0; i < this.namespaceCount; i++) {
+        this.namespaces[i * 2] = reader.getNamespacePrefix(i);
+        this.namespaces[i * 2 + 1] = reader.getNamespaceURI(i);
+      }
+
+      this.attributeCount = reader.getAttributeCount();
+      if (this.attributes.length < this.attributeCount * 4) {
+        this.attributes = new String[this.attributeCount * 4];
+      }
+      for (int i = 0; i < this.attributeCount; i++) {
+        this.attributes[i * 4] = emptyIfNull(reader.getAttributePrefix(i));
+        this.attributes[i * 4 + 1] = emptyIfNull(reader.getAttributeNamespace(i));
+        this.attributes[i * 4 + 2] = reader.getAttributeLocalName(i);
+        this.attributes[i * 4 + 3] = reader.getAttributeValue(i);
+      }
+    }
+
+    String getAttributeValue(String namespaceUri, String localName) {
+      for (int i = 0; i < this.attributeCount; i++) {
+        if (localName.equals(this.attributes[i * 4 + 2])
+            && namespaceUri.equals(this.attributes[i * 4 + 1])) {
+          return this.attributes[i * 4 + 3];
+        }
+      }
+      return null;
+    }
+
+    void writeStartElement(XMLStreamWriter writer) throws XMLStreamException {
+      writer.writeStartElement(this.prefix, this.localName, this.namespaceUri);
+      boolean prefixDeclared = this.prefix.length() == 0;
+      for (int i = 0; i < this.namespaceCount; i++) {
+        prefixDeclared |= this.prefix.equals(emptyIfNull(this.namespaces[i * 2]));
+        writeNamespace(writer, this.namespaces[i * 2], this.namespaces[i * 2 + 1]);
+      }
+      if (!prefixDeclared) {
+        writeNamespace(writer, this.prefix, this.namespaceUri);
+      }
+      for (int i = 0; i < this.attributeCount; i++) {
+        writer.writeAttribute(this.attributes[i * 4], this.attributes[i * 4 + 1],
+            this.attributes[i * 4 + 2], this.attributes[i * 4 + 3]);
+      }
+    }
+  }
+
 }
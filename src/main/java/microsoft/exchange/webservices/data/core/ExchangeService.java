@@ -37,6 +37,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Future;
 
 import microsoft.exchange.webservices.data.autodiscover.AutodiscoverService;
 import microsoft.exchange.webservices.data.autodiscover.IAutodiscoverRedirectionUrl;
@@ -52,9 +53,12 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.IdFormat;
 import microsoft.exchange.webservices.data.core.enumeration.misc.TraceFlags;
 import microsoft.exchange.webservices.data.core.enumeration.misc.UserConfigurationProperties;
 import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.BodyType;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.search.LogicalOperator;
 import microsoft.exchange.webservices.data.core.enumeration.search.ResolveNameSearchLocation;
+import microsoft.exchange.webservices.data.core.enumeration.search.SortDirection;
 import microsoft.exchange.webservices.data.core.enumeration.service.ConflictResolutionMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.MeetingRequestsDeliveryScope;
@@ -108,6 +112,7 @@ import microsoft.exchange.webservices.data.core.request.GetUserOofSettingsReques
 import microsoft.exchange.webservices.data.core.request.HttpWebRequest;
 import microsoft.exchange.webservices.data.core.request.MoveFolderRequest;
 import microsoft.exchange.webservices.data.core.request.MoveItemRequest;
+import microsoft.exchange.webservices.data.core.request.MultiResponseServiceRequest;
 import microsoft.exchange.webservices.data.core.request.RemoveDelegateRequest;
 import microsoft.exchange.webservices.data.core.request.ResolveNamesRequest;
 import microsoft.exchange.webservices.data.core.request.SendItemRequest;
@@ -140,12 +145,15 @@ import microsoft.exchange.webservices.data.core.response.MoveCopyFolderResponse;
 import microsoft.exchange.webservices.data.core.response.MoveCopyItemResponse;
 import microsoft.exchange.webservices.data.core.response.ServiceResponse;
 import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.response.SyncFolderHierarchyResponse;
+import microsoft.exchange.webservices.data.core.response.SyncFolderItemsResponse;
 import microsoft.exchange.webservices.data.core.response.UpdateItemResponse;
 import microsoft.exchange.webservices.data.core.service.ServiceObject;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.item.Conversation;
 import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
 import microsoft.exchange.webservices.data.messaging.UnifiedMessaging;
 import microsoft.exchange.webservices.data.misc.AsyncCallback;
 import microsoft.exchange.webservices.data.misc.AsyncRequestResult;
@@ -154,6 +162,7 @@ import microsoft.exchange.webservices.data.misc.DelegateInformation;
 import microsoft.exchange.webservices.data.misc.ExpandGroupResults;
 import microsoft.exchange.webservices.data.misc.FolderIdWrapper;
 import microsoft.exchange.webservices.data.misc.IAsyncResult;
+import microsoft.exchange.webservices.data.misc.IFunction;
 import microsoft.exchange.webservices.data.misc.ImpersonatedUserId;
 import microsoft.exchange.webservices.data.misc.NameResolutionCollection;
 import microsoft.exchange.webservices.data.misc.OutParam;
@@ -182,12 +191,14 @@ import microsoft.exchange.webservices.data.property.complex.UserId;
 import microsoft.exchange.webservices.data.property.complex.availability.OofSettings;
 import microsoft.exchange.webservices.data.property.complex.time.TimeZoneDefinition;
 import microsoft.exchange.webservices.data.property.definition.PropertyDefinitionBase;
+import microsoft.exchange.webservices.data.search.AutoPagingIterable;
 import microsoft.exchange.webservices.data.search.CalendarView;
 import microsoft.exchange.webservices.data.search.ConversationIndexedItemView;
 import microsoft.exchange.webservices.data.search.FindFoldersResults;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.FolderView;
 import microsoft.exchange.webservices.data.search.GroupedFindItemsResults;
+import microsoft.exchange.webservices.data.search.IFindItemsHandler;
 import microsoft.exchange.webservices.data.search.Grouping;
 import microsoft.exchange.webservices.data.search.ItemView;
 import microsoft.exchange.webservices.data.search.ViewBase;
@@ -429,6 +440,82 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
     return responses.getResponseAtIndex(0).getResults();
   }
 
+  /**
+   * Obtains a list of folder by searching the sub-folder of a specific
+   * folder without blocking the caller. No thread waits for the response;
+   * see {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param parentFolderId the parent folder id
+   * @param view           the view
+   * @return A future of the results of the search operation.
+   * @throws Exception the exception
+   */
+  public Future<FindFoldersResults> findFoldersAsync(FolderId parentFolderId,
+      FolderView view) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+
+    FindFolderRequest request = new FindFolderRequest(this, ServiceErrorHandling.ThrowOnError);
+    request.getParentFolderIds().add(parentFolderId);
+    request.setView(view);
+
+    return request.executeAsync(
+        new IFunction<ServiceResponseCollection<FindFolderResponse>, FindFoldersResults>() {
+          @Override
+          public FindFoldersResults func(ServiceResponseCollection<FindFolderResponse> responses) {
+            return responses.getResponseAtIndex(0).getResults();
+          }
+        });
+  }
+
+  /**
+   * Obtains all sub-folder matching a search in a specific folder,
+   * requesting the pages of the view as they are needed. While one page is
+   * processed, the next page is requested in the background on the executor
+   * returned by {@link #getAsyncExecutor()}. Each page is requested with a
+   * copy of the view, so the view itself is not changed.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view, whose page size is the number of folder per request
+   * @return the folder, requested while iterating
+   * @throws Exception the exception
+   */
+  public Iterable<Folder> findAllFolders(FolderId parentFolderId, SearchFilter searchFilter,
+      FolderView view) throws Exception {
+    return this.findAllFolders(parentFolderId, searchFilter, view, AutoPagingIterable.DefaultPrefetchDepth);
+  }
+
+  /**
+   * Obtains all sub-folder matching a search in a specific folder,
+   * requesting the pages of the view as they are needed. Up to the prefetch
+   * depth of pages are requested in the background on the executor returned
+   * by {@link #getAsyncExecutor()}. Each page is requested with a copy of
+   * the view, so the view itself is not changed.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view, whose page size is the number of folder per request
+   * @param prefetchDepth  the number of pages requested ahead of the current page
+   * @return the folder, requested while iterating
+   * @throws Exception the exception
+   */
+  public Iterable<Folder> findAllFolders(final FolderId parentFolderId, final SearchFilter searchFilter,
+      final FolderView view, int prefetchDepth) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+    EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+
+    return new AutoPagingIterable<Folder>(this.getAsyncExecutor(), view.getOffset(), prefetchDepth) {
+      @Override
+      protected Page<Folder> findPage(int segment, int offset) throws Exception {
+        FindFoldersResults results = findFolders(parentFolderId, searchFilter, copyFolderView(view, offset));
+        return new Page<Folder>(results.getFolders(), results.isMoreAvailable(), results.getNextPageOffset());
+      }
+    };
+  }
+
+
   /**
    * Obtains a list of folder by searching the sub-folder of the specified
    * folder.
@@ -1033,6 +1120,35 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
     return responses.getResponseAtIndex(0).getResults();
   }
 
+  /**
+   * Obtains a list of item by searching the contents of a specific folder,
+   * handing each item to a handler as soon as it has been read from the
+   * response. The item are not collected, so they can be discarded after
+   * they have been handled. Calling this method results in a call to EWS.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view
+   * @param itemHandler    the handler of the item
+   * @return The results of the search operation, without the item.
+   * @throws Exception the exception
+   */
+  public FindItemsResults<Item> findItems(FolderId parentFolderId,
+      SearchFilter searchFilter, ItemView view, IFindItemsHandler<Item> itemHandler) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+    EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+    EwsUtilities.validateParam(itemHandler, "itemHandler");
+
+    FindItemRequest<Item> request = new FindItemRequest<Item>(this, ServiceErrorHandling.ThrowOnError);
+    request.getParentFolderIds().add(parentFolderId);
+    request.setSearchFilter(searchFilter);
+    request.setView(view);
+    request.setItemHandler(itemHandler);
+
+    return request.execute().getResponseAtIndex(0).getResults();
+  }
+
   /**
    * Obtains a list of item by searching the contents of a specific folder.
    * Calling this method results in a call to EWS.
@@ -1055,6 +1171,254 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
     return responses.getResponseAtIndex(0).getResults();
   }
 
+  /**
+   * Obtains a list of item by searching the contents of a specific folder
+   * without blocking the caller. No thread waits for the response; see
+   * {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view
+   * @return A future of the results of the search operation.
+   * @throws Exception the exception
+   */
+  public Future<FindItemsResults<Item>> findItemsAsync(FolderId parentFolderId,
+      SearchFilter searchFilter, ItemView view) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+    EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+
+    FindItemRequest<Item> request = new FindItemRequest<Item>(this, ServiceErrorHandling.ThrowOnError);
+    request.getParentFolderIds().add(parentFolderId);
+    request.setSearchFilter(searchFilter);
+    request.setView(view);
+
+    return request.executeAsync(
+        new IFunction<ServiceResponseCollection<FindItemResponse<Item>>, FindItemsResults<Item>>() {
+          @Override
+          public FindItemsResults<Item> func(ServiceResponseCollection<FindItemResponse<Item>> responses) {
+            return responses.getResponseAtIndex(0).getResults();
+          }
+        });
+  }
+
+  /**
+   * Obtains a list of item by searching the contents of a specific folder
+   * without blocking the caller. No thread waits for the response; see
+   * {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param parentFolderId the parent folder id
+   * @param view           the view
+   * @return A future of the results of the search operation.
+   * @throws Exception the exception
+   */
+  public Future<FindItemsResults<Item>> findItemsAsync(FolderId parentFolderId, ItemView view)
+      throws Exception {
+    return this.findItemsAsync(parentFolderId, null, view);
+  }
+
+  /**
+   * Obtains all item matching a search in a specific folder, requesting the
+   * pages of the view as they are needed. While one page is processed, the
+   * next page is requested in the background on the executor returned by
+   * {@link #getAsyncExecutor()}. Each page is requested with a copy of the
+   * view, so the view itself is not changed.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view, whose page size is the number of item per request
+   * @return the item, requested while iterating
+   * @throws Exception the exception
+   */
+  public Iterable<Item> findAllItems(FolderId parentFolderId, SearchFilter searchFilter,
+      ItemView view) throws Exception {
+    return this.findAllItems(parentFolderId, searchFilter, view, AutoPagingIterable.DefaultPrefetchDepth);
+  }
+
+  /**
+   * Obtains all item matching a search in a specific folder, requesting the
+   * pages of the view as they are needed. Up to the prefetch depth of pages
+   * are requested in the background on the executor returned by
+   * {@link #getAsyncExecutor()}. Each page is requested with a copy of the
+   * view, so the view itself is not changed.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view, whose page size is the number of item per request
+   * @param prefetchDepth  the number of pages requested ahead of the current page
+   * @return the item, requested while iterating
+   * @throws Exception the exception
+   */
+  public Iterable<Item> findAllItems(final FolderId parentFolderId, final SearchFilter searchFilter,
+      final ItemView view, int prefetchDepth) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+    EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+
+    return new AutoPagingIterable<Item>(this.getAsyncExecutor(), view.getOffset(), prefetchDepth) {
+      @Override
+      protected Page<Item> findPage(int segment, int offset) throws Exception {
+        FindItemsResults<Item> results = findItems(parentFolderId, searchFilter, copyItemView(view, offset));
+        return new Page<Item>(results.getItems(), results.isMoreAvailable(), results.getNextPageOffset());
+      }
+    };
+  }
+
+  /**
+   * Obtains all item matching a search in a specific folder, splitting the
+   * folder into segments by DateTimeReceived that are searched in parallel
+   * on the executor returned by {@link #getAsyncExecutor()}.
+   * <p>
+   * The segments are ranges of equal length between the oldest and the
+   * newest matching item. The first and last segment are open-ended, so
+   * every item is in exactly one segment. Use more segments than the
+   * concurrency when the item are not spread evenly over time. The item
+   * are returned a page at a time in the order the pages arrive, not in
+   * the order of the view.
+   * </p>
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view, whose page size is the number of item per request;
+   *                       its offset is ignored
+   * @param segmentCount   the number of segments
+   * @param concurrency    the maximum number of requests at the same time
+   * @return the item, requested while iterating
+   * @throws Exception the exception
+   */
+  public Iterable<Item> findAllItemsInSegments(final FolderId parentFolderId, SearchFilter searchFilter,
+      final ItemView view, int segmentCount, int concurrency) throws Exception {
+    EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+    EwsUtilities.validateParam(view, "view");
+    EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+    if (segmentCount < 1) {
+      throw new ArgumentOutOfRangeException("segmentCount", "The number of segments must be 1 or greater.");
+    }
+    if (concurrency < 1) {
+      throw new ArgumentOutOfRangeException("concurrency", "The concurrency must be 1 or greater.");
+    }
+
+    Date oldest = this.findDateTimeReceived(parentFolderId, searchFilter, view, SortDirection.Ascending);
+    if (oldest == null) {
+      return new ArrayList<Item>();
+    }
+    Date newest = this.findDateTimeReceived(parentFolderId, searchFilter, view, SortDirection.Descending);
+
+    final List<SearchFilter> segmentFilters = getSegmentFilters(searchFilter, oldest, newest, segmentCount);
+
+    return new AutoPagingIterable<Item>(this.getAsyncExecutor(), 0, segmentFilters.size(), concurrency,
+        concurrency) {
+      @Override
+      protected Page<Item> findPage(int segment, int offset) throws Exception {
+        FindItemsResults<Item> results = findItems(parentFolderId, segmentFilters.get(segment),
+            copyItemView(view, offset));
+        return new Page<Item>(results.getItems(), results.isMoreAvailable(), results.getNextPageOffset());
+      }
+    };
+  }
+
+  /**
+   * Builds the search filters of the segments of
+   * {@link #findAllItemsInSegments}. The boundaries are whole seconds, so
+   * that they are not rounded when sent, and a boundary that would fall on
+   * the previous one is left out; there are fewer segments than asked for
+   * when the range is shorter than the number of segments in seconds.
+   *
+   * @param searchFilter the search filter, may be null
+   * @param oldest       the DateTimeReceived of the oldest matching item
+   * @param newest       the DateTimeReceived of the newest matching item
+   * @param segmentCount the number of segments
+   * @return the filter of each segment, null where the segment needs none
+   */
+  static List<SearchFilter> getSegmentFilters(SearchFilter searchFilter, Date oldest, Date newest,
+      int segmentCount) {
+    long first = oldest.getTime() / 1000;
+    long last = newest.getTime() / 1000 + 1;
+    List<Date> boundaries = new ArrayList<Date>();
+    long previous = first;
+    for (int i = 1; i < segmentCount; i++) {
+      long boundary = first + (last - first) * i / segmentCount;
+      if (boundary > previous) {
+        boundaries.add(new Date(boundary * 1000));
+        previous = boundary;
+      }
+    }
+
+    // The first and last segment are open-ended
+    List<SearchFilter> segmentFilters = new ArrayList<SearchFilter>();
+    for (int segment = 0; segment <= boundaries.size(); segment++) {
+      SearchFilter.SearchFilterCollection filter = new SearchFilter.SearchFilterCollection(LogicalOperator.And);
+      if (searchFilter != null) {
+        filter.add(searchFilter);
+      }
+      if (segment > 0) {
+        filter.add(new SearchFilter.IsGreaterThanOrEqualTo(ItemSchema.DateTimeReceived,
+            boundaries.get(segment - 1)));
+      }
+      if (segment < boundaries.size()) {
+        filter.add(new SearchFilter.IsLessThan(ItemSchema.DateTimeReceived, boundaries.get(segment)));
+      }
+      segmentFilters.add(filter.getCount() > 0 ? filter : null);
+    }
+    return segmentFilters;
+  }
+
+  /**
+   * Finds the DateTimeReceived of the oldest or newest item matching a search.
+   *
+   * @param parentFolderId the parent folder id
+   * @param searchFilter   the search filter, may be null
+   * @param view           the view whose traversal is used
+   * @param sortDirection  Ascending for the oldest item, Descending for the newest
+   * @return the DateTimeReceived, or null if no item matches
+   * @throws Exception the exception
+   */
+  private Date findDateTimeReceived(FolderId parentFolderId, SearchFilter searchFilter, ItemView view,
+      SortDirection sortDirection) throws Exception {
+    ItemView firstView = new ItemView(1);
+    firstView.setTraversal(view.getTraversal());
+    firstView.setPropertySet(new PropertySet(BasePropertySet.IdOnly, ItemSchema.DateTimeReceived));
+    firstView.getOrderBy().add(ItemSchema.DateTimeReceived, sortDirection);
+
+    FindItemsResults<Item> results = this.findItems(parentFolderId, searchFilter, firstView);
+    return results.getItems().isEmpty() ? null : results.getItems().get(0).getDateTimeReceived();
+  }
+
+  /**
+   * Copies an item view, so that pages can be requested in parallel.
+   *
+   * @param view   the view
+   * @param offset the offset of the copy
+   * @return the copy
+   * @throws Exception the exception
+   */
+  private static ItemView copyItemView(ItemView view, int offset) throws Exception {
+    ItemView copy = new ItemView(view.getPageSize(), offset, view.getOffsetBasePoint());
+    copy.setTraversal(view.getTraversal());
+    copy.setPropertySet(view.getPropertySet());
+    for (Map<PropertyDefinitionBase, SortDirection> orderBy : view.getOrderBy()) {
+      for (Map.Entry<PropertyDefinitionBase, SortDirection> entry : orderBy.entrySet()) {
+        copy.getOrderBy().add(entry.getKey(), entry.getValue());
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies a folder view, so that pages can be requested in parallel.
+   *
+   * @param view   the view
+   * @param offset the offset of the copy
+   * @return the copy
+   */
+  private static FolderView copyFolderView(FolderView view, int offset) {
+    FolderView copy = new FolderView(view.getPageSize(), offset, view.getOffsetBasePoint());
+    copy.setTraversal(view.getTraversal());
+    copy.setPropertySet(view.getPropertySet());
+    return copy;
+  }
+
+
   /**
    * Obtains a list of item by searching the contents of a specific folder.
    * Calling this method results in a call to EWS.
@@ -1360,6 +1724,29 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
     return this.internalBindToItems(itemIds, propertySet, ServiceErrorHandling.ReturnErrors);
   }
 
+  /**
+   * Binds to multiple item in a single call to EWS without blocking the
+   * caller. No thread waits for the response; see
+   * {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param itemIds     the item ids
+   * @param propertySet the property set
+   * @return A future of a ServiceResponseCollection providing results for
+   * each of the specified item Ids.
+   * @throws Exception the exception
+   */
+  public Future<ServiceResponseCollection<GetItemResponse>> bindToItemsAsync(
+      Iterable<ItemId> itemIds, PropertySet propertySet) throws Exception {
+    EwsUtilities.validateParamCollection(itemIds.iterator(), "itemIds");
+    EwsUtilities.validateParam(propertySet, "propertySet");
+
+    GetItemRequest request = new GetItemRequest(this, ServiceErrorHandling.ReturnErrors);
+    request.getItemIds().addRange(itemIds);
+    request.setPropertySet(propertySet);
+    return request.executeAsync();
+  }
+
+
   /**
    * Binds to multiple item in a single call to EWS.
    *
@@ -2378,6 +2765,38 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
         .execute().getResponseAtIndex(0).getChanges();
   }
 
+  /**
+   * Synchronizes the item of a specific folder without blocking the caller.
+   * No thread waits for the response; see
+   * {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param syncFolderId       The Id of the folder containing the item to synchronize with.
+   * @param propertySet        The set of property to retrieve for synchronized item.
+   * @param ignoredItemIds     The optional list of item Ids that should be ignored.
+   * @param maxChangesReturned The maximum number of changes that should be returned.
+   * @param syncScope          The sync scope identifying item to include in the
+   *                           ChangeCollection.
+   * @param syncState          The optional sync state representing the point in time when to
+   *                           start the synchronization.
+   * @return A future of the ChangeCollection containing a list of changes that
+   * occurred in the specified folder.
+   * @throws Exception the exception
+   */
+  public Future<ChangeCollection<ItemChange>> syncFolderItemsAsync(FolderId syncFolderId,
+      PropertySet propertySet, Iterable<ItemId> ignoredItemIds,
+      int maxChangesReturned, SyncFolderItemsScope syncScope,
+      String syncState) throws Exception {
+    return this.buildSyncFolderItemsRequest(syncFolderId, propertySet,
+        ignoredItemIds, maxChangesReturned, syncScope, syncState).executeAsync(
+        new IFunction<ServiceResponseCollection<SyncFolderItemsResponse>, ChangeCollection<ItemChange>>() {
+          @Override
+          public ChangeCollection<ItemChange> func(ServiceResponseCollection<SyncFolderItemsResponse> responses) {
+            return responses.getResponseAtIndex(0).getChanges();
+          }
+        });
+  }
+
+
   /**
    * Begins an asynchronous request to synchronize the item of a specific
    * folder. Calling this method results in a call to EWS.
@@ -2472,6 +2891,34 @@ public class ExchangeService extends ExchangeServiceBase implements IAutodiscove
         syncState).execute().getResponseAtIndex(0).getChanges();
   }
 
+  /**
+   * Synchronizes the sub-folder of a specific folder without blocking the
+   * caller. No thread waits for the response; see
+   * {@link MultiResponseServiceRequest#executeAsync()}.
+   *
+   * @param syncFolderId the Id of the folder containing the item to synchronize with.
+   *                     A null value indicates the root folder of the mailbox.
+   * @param propertySet  the set of property to retrieve for synchronized item.
+   * @param syncState    the optional sync state representing the point in time when to
+   *                     start the synchronization.
+   * @return A future of the ChangeCollection containing a list of changes that
+   * occurred in the specified folder.
+   * @throws Exception the exception
+   */
+  public Future<ChangeCollection<FolderChange>> syncFolderHierarchyAsync(
+      FolderId syncFolderId, PropertySet propertySet, String syncState) throws Exception {
+    return this.buildSyncFolderHierarchyRequest(syncFolderId, propertySet,
+        syncState).executeAsync(
+        new IFunction<ServiceResponseCollection<SyncFolderHierarchyResponse>, ChangeCollection<FolderChange>>() {
+          @Override
+          public ChangeCollection<FolderChange> func(
+              ServiceResponseCollection<SyncFolderHierarchyResponse> responses) {
+            return responses.getResponseAtIndex(0).getChanges();
+          }
+        });
+  }
+
+
   /**
    * Begins an asynchronous request to synchronize the sub-folder of a
    * specific folder. Calling this method results in a call to EWS.
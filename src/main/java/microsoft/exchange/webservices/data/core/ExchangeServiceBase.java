@@ -40,6 +40,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -47,12 +49,15 @@ import javax.xml.stream.XMLStreamWriter;
 import microsoft.exchange.webservices.data.EWSConstants;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
 import microsoft.exchange.webservices.data.core.enumeration.misc.TraceFlags;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlReaderMode;
 import microsoft.exchange.webservices.data.core.exception.http.EWSHttpException;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.core.exception.service.remote.AccountIsLockedException;
 import microsoft.exchange.webservices.data.core.request.HttpClientWebRequest;
 import microsoft.exchange.webservices.data.core.request.HttpWebRequest;
+import microsoft.exchange.webservices.data.core.request.IHttpWebRequestFactory;
 import microsoft.exchange.webservices.data.credential.ExchangeCredentials;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
 import microsoft.exchange.webservices.data.misc.EwsTraceListener;
 import microsoft.exchange.webservices.data.misc.ITraceListener;
 
@@ -130,6 +135,16 @@ public abstract class ExchangeServiceBase implements Closeable {
    */
   private boolean acceptGzipEncoding = true;
 
+  /**
+   * The request streaming enabled.
+   */
+  private boolean requestStreamingEnabled;
+
+  /**
+   * The XML reader mode.
+   */
+  private XmlReaderMode xmlReaderMode = XmlReaderMode.Event;
+
   /**
    * The requested server version.
    */
@@ -142,7 +157,7 @@ public abstract class ExchangeServiceBase implements Closeable {
 
   private Map<String, String> httpHeaders = new HashMap<String, String>();
 
-  private Map<String, String> httpResponseHeaders = new HashMap<String, String>();
+  private Map<String, String> httpResponseHeaders = new ConcurrentHashMap<String, String>();
 
   private WebProxy webProxy;
 
@@ -154,6 +169,29 @@ public abstract class ExchangeServiceBase implements Closeable {
   
   private int maximumPoolingConnections = 10;
 
+  // 0 to run asynchronous calls on virtual threads when they are available
+  private int maximumAsyncThreads;
+
+  private ExecutorService asyncExecutor;
+
+  private boolean ownsAsyncExecutor;
+
+  private ExecutorService hangingRequestExecutor;
+
+  private IHttpWebRequestFactory httpWebRequestFactory;
+
+  private EwsConnectionPool connectionPool;
+
+  private boolean concurrentRequestsEnabled;
+
+  private ThrottlingRetryPolicy retryPolicy;
+
+  private ConcurrencyLimiter concurrencyLimiter;
+
+  private int maximumItemsPerRequest;
+
+  private boolean splitRequestsInParallel;
+
 
 //  protected HttpClientWebRequest request = null;
 
@@ -192,6 +230,22 @@ public abstract class ExchangeServiceBase implements Closeable {
     this.preAuthenticate = service.isPreAuthenticate();
     this.userAgent = service.getUserAgent();
     this.acceptGzipEncoding = service.getAcceptGzipEncoding();
+    this.requestStreamingEnabled = service.isRequestStreamingEnabled();
+    this.xmlReaderMode = service.getXmlReaderMode();
+    this.maximumAsyncThreads = service.maximumAsyncThreads;
+    this.httpWebRequestFactory = service.getHttpWebRequestFactory();
+    this.connectionPool = service.getConnectionPool();
+    this.concurrentRequestsEnabled = service.isConcurrentRequestsEnabled();
+    this.retryPolicy = service.getRetryPolicy();
+    this.concurrencyLimiter = service.getConcurrencyLimiter();
+    this.maximumItemsPerRequest = service.getMaximumItemsPerRequest();
+    this.splitRequestsInParallel = service.isSplitRequestsInParallel();
+    synchronized (service) {
+      if (!service.ownsAsyncExecutor) {
+        this.asyncExecutor = service.asyncExecutor;
+      }
+    }
+    this.hangingRequestExecutor = service.getHangingRequestExecutor();
     this.httpHeaders = service.getHttpHeaders();
   }
 
@@ -241,6 +295,15 @@ public abstract class ExchangeServiceBase implements Closeable {
    * @return registry object
    */
   protected Registry<ConnectionSocketFactory> createConnectionSocketFactoryRegistry() {
+    return createDefaultConnectionSocketFactoryRegistry();
+  }
+
+  /**
+   * Create registry with the default {@link ConnectionSocketFactory} instances.
+   *
+   * @return registry object
+   */
+  static Registry<ConnectionSocketFactory> createDefaultConnectionSocketFactoryRegistry() {
     try {
       return RegistryBuilder.<ConnectionSocketFactory>create()
         .register(EWSConstants.HTTP_SCHEME, new PlainConnectionSocketFactory())
@@ -267,6 +330,256 @@ public abstract class ExchangeServiceBase implements Closeable {
   public void close() {
     IOUtils.closeQuietly(httpClient);
     IOUtils.closeQuietly(httpPoolingClient);
+    synchronized (this) {
+      if (ownsAsyncExecutor) {
+        asyncExecutor.shutdown();
+        asyncExecutor = null;
+        ownsAsyncExecutor = false;
+      }
+    }
+  }
+
+  /**
+   * Gets the policy for retrying throttled requests, or null if throttled
+   * requests fail right away.
+   *
+   * @return the retry policy
+   */
+  public ThrottlingRetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets the policy for retrying requests that were throttled by the server.
+   * Defaults to null, in which case throttled requests fail right away.
+   *
+   * @param retryPolicy the retry policy
+   */
+  public void setRetryPolicy(ThrottlingRetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Gets the limiter of concurrent requests per mailbox and server, or null
+   * if requests are not limited.
+   *
+   * @return the concurrency limiter
+   */
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  /**
+   * Sets the limiter of concurrent requests per mailbox and server. Defaults
+   * to null, in which case requests are not limited.
+   *
+   * @param concurrencyLimiter the concurrency limiter
+   */
+  public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  /**
+   * Gets the maximum number of items per request, or 0 if requests are not
+   * split.
+   *
+   * @return the maximum number of items per request
+   */
+  public int getMaximumItemsPerRequest() {
+    return maximumItemsPerRequest;
+  }
+
+  /**
+   * Sets the maximum number of items per request. Requests with more items,
+   * for example binding to, deleting, moving or copying many items at once,
+   * are split into several requests whose responses are combined in the
+   * original order. Defaults to 0, in which case requests are not split.
+   *
+   * @param maximumItemsPerRequest the maximum number of items per request
+   */
+  public void setMaximumItemsPerRequest(int maximumItemsPerRequest) {
+    if (maximumItemsPerRequest < 0) {
+      throw new IllegalArgumentException("maximumItemsPerRequest must be 0 or greater");
+    }
+    this.maximumItemsPerRequest = maximumItemsPerRequest;
+  }
+
+  /**
+   * Gets a value indicating whether the parts of a split request run in
+   * parallel.
+   *
+   * @return true if the parts of a split request run in parallel
+   */
+  public boolean isSplitRequestsInParallel() {
+    return splitRequestsInParallel;
+  }
+
+  /**
+   * Sets whether the parts of a request split according to
+   * {@link #setMaximumItemsPerRequest(int)} run in parallel on the async
+   * executor. Only takes effect when concurrent requests are enabled.
+   *
+   * @param splitRequestsInParallel true to run the parts in parallel
+   */
+  public void setSplitRequestsInParallel(boolean splitRequestsInParallel) {
+    this.splitRequestsInParallel = splitRequestsInParallel;
+  }
+
+  /**
+   * Gets a value indicating whether requests of this service may run
+   * concurrently.
+   *
+   * @return true if requests may run concurrently
+   */
+  public boolean isConcurrentRequestsEnabled() {
+    return concurrentRequestsEnabled;
+  }
+
+  /**
+   * Sets a value indicating whether requests of this service may run
+   * concurrently, e.g. to use one service from many threads. Each request
+   * then gets its own HttpClientContext, so that credentials and
+   * authentication state of one request do not leak into another, while
+   * cookies and authenticated connections are still shared. Requests are
+   * sent over the connection pool set by {@link #setConnectionPool}, or
+   * else over a pool of this service with at most
+   * {@link #setMaximumPoolingConnections(int)} connections. Defaults to
+   * false, in which case all requests share one context and one connection.
+   *
+   * @param concurrentRequestsEnabled true to allow concurrent requests
+   */
+  public void setConcurrentRequestsEnabled(boolean concurrentRequestsEnabled) {
+    this.concurrentRequestsEnabled = concurrentRequestsEnabled;
+  }
+
+  /**
+   * Gets the connection pool shared with other services, or null if the
+   * service uses its own connections.
+   *
+   * @return the connection pool
+   */
+  public EwsConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * Sets a connection pool to send requests over, including subscription
+   * requests. A pool can be shared by many services; cookies and credentials
+   * stay with each service. The pool is not closed by {@link #close()}. Null
+   * restores the connections of this service.
+   * <p>
+   * Connections are created by the socket factories of the pool, so a
+   * service that overrides {@link #createConnectionSocketFactoryRegistry()}
+   * should use a pool created with
+   * {@link EwsConnectionPool#EwsConnectionPool(ExchangeServiceBase, int, int, long)}.
+   * </p>
+   *
+   * @param connectionPool the connection pool
+   */
+  public void setConnectionPool(EwsConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /**
+   * Gets the factory of the HTTP transport, or null if the built-in
+   * HttpClient transport is used.
+   *
+   * @return the HTTP web request factory
+   */
+  public IHttpWebRequestFactory getHttpWebRequestFactory() {
+    return httpWebRequestFactory;
+  }
+
+  /**
+   * Sets the factory of the HTTP transport, which replaces the built-in
+   * blocking HttpClient transport for the requests of this service,
+   * including subscriptions. Null restores the built-in transport.
+   *
+   * @param httpWebRequestFactory the HTTP web request factory
+   */
+  public void setHttpWebRequestFactory(IHttpWebRequestFactory httpWebRequestFactory) {
+    this.httpWebRequestFactory = httpWebRequestFactory;
+  }
+
+  /**
+   * Gets the executor that runs asynchronous calls of this service. Unless
+   * one has been set, an executor is created on first use and shut down by
+   * {@link #close()}: one starting a virtual thread per call on Java 21 and
+   * later, or else a bounded executor of daemon threads. Setting
+   * {@link #setMaximumAsyncThreads(int)} selects the bounded executor on any
+   * Java version.
+   *
+   * @return the executor for asynchronous calls
+   */
+  public synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      if (maximumAsyncThreads < 1) {
+        asyncExecutor = AsyncExecutor.newVirtualThreadExecutor();
+      }
+      if (asyncExecutor == null) {
+        asyncExecutor = new AsyncExecutor(maximumAsyncThreads < 1
+            ? AsyncExecutor.DefaultMaximumThreads : maximumAsyncThreads);
+      }
+      ownsAsyncExecutor = true;
+    }
+    return asyncExecutor;
+  }
+
+  /**
+   * Sets the executor that runs asynchronous calls of this service, e.g. to
+   * share one executor between several services. The executor is not shut
+   * down by {@link #close()}. Null restores the default executor.
+   *
+   * @param asyncExecutor the executor for asynchronous calls
+   */
+  public synchronized void setAsyncExecutor(ExecutorService asyncExecutor) {
+    if (ownsAsyncExecutor) {
+      this.asyncExecutor.shutdown();
+    }
+    this.asyncExecutor = asyncExecutor;
+    this.ownsAsyncExecutor = false;
+  }
+
+  /**
+   * Gets the executor that reads the responses of hanging requests, such as
+   * streaming subscription connections, or null if the executor shared by
+   * all services is used.
+   *
+   * @return the executor for hanging requests
+   */
+  public ExecutorService getHangingRequestExecutor() {
+    return hangingRequestExecutor;
+  }
+
+  /**
+   * Sets the executor that reads the responses of hanging requests. Each
+   * open connection keeps one task of the executor blocked in a socket read,
+   * so the executor must not be bounded below the number of connections. The
+   * executor is not shut down by {@link #close()}. Defaults to null, in which
+   * case an executor shared by all services is used: one of virtual threads
+   * on Java 21 and later, or else a pool of reusable platform threads.
+   *
+   * @param hangingRequestExecutor the executor for hanging requests
+   */
+  public void setHangingRequestExecutor(ExecutorService hangingRequestExecutor) {
+    this.hangingRequestExecutor = hangingRequestExecutor;
+  }
+
+  /**
+   * Sets the maximum number of threads of the default executor for
+   * asynchronous calls, which then is a bounded executor of platform threads
+   * even where virtual threads are available. Takes effect when the default
+   * executor is created.
+   * <p>
+   * Default is 5 where virtual threads are not available.
+   * </p>
+   *
+   * @param maximumAsyncThreads Maximum number of threads
+   */
+  public void setMaximumAsyncThreads(int maximumAsyncThreads) {
+    if (maximumAsyncThreads < 1)
+      throw new IllegalArgumentException("maximumAsyncThreads must be 1 or greater");
+    this.maximumAsyncThreads = maximumAsyncThreads;
   }
 
   // Event handlers
@@ -312,7 +625,16 @@ public abstract class ExchangeServiceBase implements Closeable {
       throw new ServiceLocalException(strErr);
     }
 
-    HttpClientWebRequest request = new HttpClientWebRequest(httpClient, httpContext);
+    HttpWebRequest request;
+    if (httpWebRequestFactory != null) {
+      request = createHttpWebRequest(url, false);
+    } else if (connectionPool != null) {
+      request = new HttpClientWebRequest(connectionPool.getHttpClient(), createRequestContext());
+    } else if (concurrentRequestsEnabled) {
+      request = new HttpClientWebRequest(getHttpPoolingClient(), createRequestContext());
+    } else {
+      request = new HttpClientWebRequest(httpClient, httpContext);
+    }
     prepareHttpWebRequestForUrl(url, acceptGzipEncoding, allowAutoRedirect, request);
 
     return request;
@@ -342,18 +664,53 @@ public abstract class ExchangeServiceBase implements Closeable {
       throw new ServiceLocalException(strErr);
     }
 
+    HttpWebRequest request;
+    if (httpWebRequestFactory != null) {
+      request = createHttpWebRequest(url, true);
+    } else if (connectionPool != null) {
+      request = new HttpClientWebRequest(connectionPool.getHttpClient(), createRequestContext());
+    } else {
+      request = new HttpClientWebRequest(getHttpPoolingClient(), createRequestContext());
+    }
+    prepareHttpWebRequestForUrl(url, acceptGzipEncoding, allowAutoRedirect, request);
+
+    return request;
+  }
+
+  private synchronized CloseableHttpClient getHttpPoolingClient() {
     if (httpPoolingClient == null) {
       initializeHttpPoolingClient();
     }
+    return httpPoolingClient;
+  }
 
-    HttpClientWebRequest request = new HttpClientWebRequest(httpPoolingClient, httpContext);
-    prepareHttpWebRequestForUrl(url, acceptGzipEncoding, allowAutoRedirect, request);
+  /**
+   * Creates the context of a request. Requests share the context of the
+   * service, unless concurrent requests are enabled.
+   *
+   * @return the context of the request
+   */
+  private HttpClientContext createRequestContext() {
+    return concurrentRequestsEnabled
+        ? HttpClientContext.adapt(new ConcurrentRequestHttpContext(httpContext))
+        : httpContext;
+  }
 
+  private HttpWebRequest createHttpWebRequest(URI url, boolean subscription) throws ServiceLocalException {
+    HttpWebRequest request;
+    try {
+      request = httpWebRequestFactory.createHttpWebRequest(url, subscription);
+    } catch (Exception e) {
+      throw new ServiceLocalException(String.format("Could not create a request for %s", url), e);
+    }
+    if (request == null) {
+      throw new ServiceLocalException("The HTTP web request factory returned no request.");
+    }
     return request;
   }
 
   private void prepareHttpWebRequestForUrl(URI url, boolean acceptGzipEncoding, boolean allowAutoRedirect,
-      HttpClientWebRequest request) throws ServiceLocalException, URISyntaxException {
+      HttpWebRequest request) throws ServiceLocalException, URISyntaxException {
     try {
       request.setUrl(url.toURL());
     } catch (MalformedURLException e) {
@@ -734,6 +1091,51 @@ public abstract class ExchangeServiceBase implements Closeable {
     this.acceptGzipEncoding = acceptGzipEncoding;
   }
 
+  /**
+   * Gets a value indicating whether request bodies are streamed to the server.
+   *
+   * @return true if request bodies are streamed
+   */
+  public boolean isRequestStreamingEnabled() {
+    return requestStreamingEnabled;
+  }
+
+  /**
+   * Sets a value indicating whether request bodies are streamed to the server.
+   * When enabled, the SOAP envelope is serialized directly onto the connection
+   * using chunked transfer-encoding instead of being buffered in memory first,
+   * which keeps large requests (e.g. big attachments or large UpdateItem
+   * batches) off the heap. Requests that have to be signed, or that are traced,
+   * are still buffered since the complete message is needed. Defaults to false.
+   *
+   * @param requestStreamingEnabled true to stream request bodies
+   */
+  public void setRequestStreamingEnabled(boolean requestStreamingEnabled) {
+    this.requestStreamingEnabled = requestStreamingEnabled;
+  }
+
+  /**
+   * Gets the mode used to parse responses.
+   *
+   * @return the XML reader mode
+   */
+  public XmlReaderMode getXmlReaderMode() {
+    return xmlReaderMode;
+  }
+
+  /**
+   * Sets the mode used to parse responses. The cursor mode walks the response
+   * with an XMLStreamReader rather than an XMLEventReader, which avoids
+   * allocating an event object per node and keeps garbage down on large
+   * FindItem and SyncFolderItems responses. Defaults to
+   * {@link XmlReaderMode#Event}; null restores the default.
+   *
+   * @param xmlReaderMode the XML reader mode
+   */
+  public void setXmlReaderMode(XmlReaderMode xmlReaderMode) {
+    this.xmlReaderMode = xmlReaderMode != null ? xmlReaderMode : XmlReaderMode.Event;
+  }
+
   /**
    * Gets the requested server version.
    *
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent binds to single item into one GetItem request.
+ * <p>
+ * The first caller that binds with a given PropertySet instance opens a
+ * batch and waits up to the batch window for other callers to join it,
+ * or until the batch is full. It then binds to all item of the batch in a
+ * single call to EWS, and every caller gets its own item, or its own error.
+ * The callers do all the work themselves, no threads are started.
+ * </p>
+ * <p>
+ * Binds only join a batch if they use the same PropertySet instance, so
+ * share PropertySet objects between the callers that should be coalesced.
+ * A caller that finds no one to batch with is delayed by the batch window.
+ * </p>
+ */
+public class ItemBindCoalescer {
+
+  /**
+   * The default time in milliseconds a batch waits for more item.
+   */
+  public static final long DefaultBatchWindow = 20;
+
+  /**
+   * The default maximum number of item per batch.
+   */
+  public static final int DefaultMaximumBatchSize = 50;
+
+  private final ExchangeService service;
+
+  private final long batchWindow;
+
+  private final int maximumBatchSize;
+
+  private final Object lock = new Object();
+
+  // The batches that can still be joined, by PropertySet instance
+  private final Map<PropertySet, Batch> openBatches = new IdentityHashMap<PropertySet, Batch>();
+
+  /**
+   * Initializes a new instance with the default batch window and size.
+   *
+   * @param service the service
+   */
+  public ItemBindCoalescer(ExchangeService service) {
+    this(service, DefaultBatchWindow, DefaultMaximumBatchSize);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param service          the service
+   * @param batchWindow      the time in milliseconds a batch waits for more item
+   * @param maximumBatchSize the maximum number of item per batch
+   */
+  public ItemBindCoalescer(ExchangeService service, long batchWindow, int maximumBatchSize) {
+    if (service == null) {
+      throw new IllegalArgumentException("service must not be null");
+    }
+    if (batchWindow < 0) {
+      throw new IllegalArgumentException("batchWindow must be 0 or greater");
+    }
+    if (maximumBatchSize < 1) {
+      throw new IllegalArgumentException("maximumBatchSize must be 1 or greater");
+    }
+    this.service = service;
+    this.batchWindow = batchWindow;
+    this.maximumBatchSize = maximumBatchSize;
+  }
+
+  /**
+   * Binds to an existing item, together with the binds of other threads
+   * that use the same PropertySet.
+   *
+   * @param itemId      the item id
+   * @param propertySet the property set
+   * @return the item
+   * @throws Exception the exception
+   */
+  public Item bindToItem(ItemId itemId, PropertySet propertySet) throws Exception {
+    EwsUtilities.validateParam(itemId, "itemId");
+    EwsUtilities.validateParam(propertySet, "propertySet");
+
+    Batch batch;
+    int index;
+    boolean opened = false;
+    synchronized (lock) {
+      batch = openBatches.get(propertySet);
+      if (batch == null) {
+        batch = new Batch();
+        openBatches.put(propertySet, batch);
+        opened = true;
+      }
+      index = batch.itemIds.size();
+      batch.itemIds.add(itemId);
+      if (batch.itemIds.size() >= maximumBatchSize) {
+        openBatches.remove(propertySet);
+        batch.closed = true;
+        lock.notifyAll();
+      }
+    }
+
+    if (opened) {
+      this.waitForBatch(batch, propertySet);
+      this.executeBatch(batch, propertySet);
+    }
+    return batch.getItem(index);
+  }
+
+  /**
+   * Binds to an existing item, together with the binds of other threads
+   * that use the same PropertySet.
+   *
+   * @param <TItem>     the type of the item
+   * @param c           the class of the item
+   * @param itemId      the item id
+   * @param propertySet the property set
+   * @return the item
+   * @throws Exception the exception
+   */
+  public <TItem extends Item> TItem bindToItem(Class<TItem> c, ItemId itemId, PropertySet propertySet)
+      throws Exception {
+    Item result = this.bindToItem(itemId, propertySet);
+    if (c.isAssignableFrom(result.getClass())) {
+      return c.cast(result);
+    } else {
+      throw new ServiceLocalException(String.format(
+          "The item type returned by the service (%s) isn't compatible with the requested item type (%s).",
+          result.getClass().getName(), c.getName()));
+    }
+  }
+
+  /**
+   * Waits until the batch is full or the batch window has passed, and closes
+   * it for new item. An interrupt ends the wait early but is kept for the
+   * caller, since the other callers of the batch still need their item.
+   */
+  private void waitForBatch(Batch batch, PropertySet propertySet) {
+    synchronized (lock) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+      try {
+        while (!batch.closed) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            break;
+          }
+          TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!batch.closed) {
+        openBatches.remove(propertySet);
+        batch.closed = true;
+      }
+    }
+  }
+
+  private void executeBatch(Batch batch, PropertySet propertySet) {
+    ServiceResponseCollection<GetItemResponse> responses = null;
+    Throwable error = null;
+    try {
+      responses = service.bindToItems(batch.itemIds, propertySet);
+    } catch (Throwable e) {
+      // Errors are handed to the waiting callers too, so that none of them
+      // waits forever
+      error = e;
+    }
+    batch.complete(responses, error);
+  }
+
+
+  /**
+   * The binds that are sent in one request.
+   */
+  private static final class Batch {
+
+    final List<ItemId> itemIds = new ArrayList<ItemId>();
+
+    // Set once no more item can join, guarded by the lock of the coalescer
+    boolean closed;
+
+    private boolean completed;
+    private ServiceResponseCollection<GetItemResponse> responses;
+    private Throwable error;
+
+    synchronized void complete(ServiceResponseCollection<GetItemResponse> responses, Throwable error) {
+      this.responses = responses;
+      this.error = error;
+      this.completed = true;
+      this.notifyAll();
+    }
+
+    synchronized Item getItem(int index) throws Exception {
+      while (!this.completed) {
+        this.wait();
+      }
+      if (this.error instanceof Exception) {
+        throw (Exception) this.error;
+      } else if (this.error != null) {
+        throw (Error) this.error;
+      }
+      GetItemResponse response = this.responses.getResponseAtIndex(index);
+      response.throwIfNecessary();
+      return response.getItem();
+    }
+  }
+}
@@ -0,0 +1,415 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.credential.ExchangeCredentials;
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+import microsoft.exchange.webservices.data.misc.ImpersonatedUserId;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries requests that were throttled by the server, i.e. that failed with
+ * ErrorServerBusy or HTTP 503.
+ * <p>
+ * The delay before a retry grows exponentially with the number of attempts,
+ * with random jitter so that throttled clients do not retry in lockstep, and
+ * is never shorter than the BackOffMilliseconds hint returned by the server.
+ * Throttling is tracked per mailbox: once a request for a mailbox has been
+ * throttled, all requests for that mailbox that use this policy wait for the
+ * back-off to pass, while requests for other mailboxes continue. Share one
+ * policy between the services that talk to the same server.
+ * </p>
+ * <p>
+ * A per-mailbox budget can also be set, which limits the rate at which
+ * requests for each mailbox are sent before the server throttles them. The
+ * budget allows a burst of requests, then spaces further requests evenly at
+ * the budgeted rate.
+ * </p>
+ * <p>
+ * For requests with multiple responses, only the items that were throttled
+ * are sent again, if the request supports that; see
+ * {@link microsoft.exchange.webservices.data.core.request.MultiResponseServiceRequest}.
+ * </p>
+ */
+public class ThrottlingRetryPolicy {
+
+  /**
+   * The default maximum number of retries per request.
+   */
+  public static final int DefaultMaximumRetries = 3;
+
+  /**
+   * The default delay in milliseconds before the first retry.
+   */
+  public static final long DefaultInitialDelay = 500;
+
+  /**
+   * The default maximum delay in milliseconds before a retry.
+   */
+  public static final long DefaultMaximumDelay = 60000;
+
+  private static final String BackOffMillisecondsKey = "BackOffMilliseconds";
+
+  // The number of requests after which budgets of idle mailboxes are dropped
+  private static final int BudgetEvictionInterval = 1024;
+
+  private final int maximumRetries;
+
+  private final long initialDelay;
+
+  private final long maximumDelay;
+
+  private final Random random = new Random();
+
+  // The time until which requests for a mailbox wait, by mailbox
+  private final ConcurrentMap<String, Long> backOffUntil = new ConcurrentHashMap<String, Long>();
+
+  private final double mailboxRequestsPerSecond;
+
+  private final int mailboxBurst;
+
+  // The request budget of a mailbox, by mailbox
+  private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<String, Budget>();
+
+  private final AtomicInteger budgetRequests = new AtomicInteger();
+
+  /**
+   * Initializes a new instance with the default settings.
+   */
+  public ThrottlingRetryPolicy() {
+    this(DefaultMaximumRetries, DefaultInitialDelay, DefaultMaximumDelay);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param maximumRetries the maximum number of retries per request
+   * @param initialDelay   the delay in milliseconds before the first retry
+   * @param maximumDelay   the maximum delay in milliseconds before a retry,
+   *                       unless the server asks for a longer one
+   */
+  public ThrottlingRetryPolicy(int maximumRetries, long initialDelay, long maximumDelay) {
+    this(maximumRetries, initialDelay, maximumDelay, 0, 0);
+  }
+
+  /**
+   * Initializes a new instance with a per-mailbox budget.
+   *
+   * @param maximumRetries           the maximum number of retries per request
+   * @param initialDelay             the delay in milliseconds before the first retry
+   * @param maximumDelay             the maximum delay in milliseconds before a retry,
+   *                                 unless the server asks for a longer one
+   * @param mailboxRequestsPerSecond the rate at which requests for each
+   *                                 mailbox may be sent, or 0 for no budget
+   * @param mailboxBurst             the number of requests for a mailbox that
+   *                                 may be sent at once after it was idle
+   */
+  public ThrottlingRetryPolicy(int maximumRetries, long initialDelay, long maximumDelay,
+      double mailboxRequestsPerSecond, int mailboxBurst) {
+    if (maximumRetries < 0) {
+      throw new IllegalArgumentException("maximumRetries must be 0 or greater");
+    }
+    if (initialDelay < 1 || maximumDelay < initialDelay) {
+      throw new IllegalArgumentException("initialDelay must be 1 or greater and not exceed maximumDelay");
+    }
+    if (mailboxRequestsPerSecond < 0 || (mailboxRequestsPerSecond > 0 && mailboxBurst < 1)) {
+      throw new IllegalArgumentException(
+          "mailboxRequestsPerSecond must be 0 or greater, and mailboxBurst 1 or greater for a budget");
+    }
+    this.maximumRetries = maximumRetries;
+    this.initialDelay = initialDelay;
+    this.maximumDelay = maximumDelay;
+    this.mailboxRequestsPerSecond = mailboxRequestsPerSecond;
+    this.mailboxBurst = mailboxBurst;
+  }
+
+  /**
+   * Gets the maximum number of retries per request.
+   *
+   * @return the maximum number of retries
+   */
+  public int getMaximumRetries() {
+    return maximumRetries;
+  }
+
+  /**
+   * Gets the rate at which requests for each mailbox may be sent.
+   *
+   * @return the requests per second, or 0 if there is no budget
+   */
+  public double getMailboxRequestsPerSecond() {
+    return mailboxRequestsPerSecond;
+  }
+
+  /**
+   * Determines whether an exception, or one of its causes, means that the
+   * request was throttled.
+   *
+   * @param exception the exception
+   * @return true if the request was throttled
+   */
+  public static boolean isThrottled(Exception exception) {
+    for (Throwable e = exception; e != null; e = e.getCause()) {
+      if (e instanceof ServiceResponseException) {
+        return isThrottled(((ServiceResponseException) e).getResponse());
+      }
+      if (e instanceof HttpErrorException) {
+        return ((HttpErrorException) e).getHttpErrorCode() == 503;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines whether a response means that its item was throttled.
+   *
+   * @param response the response
+   * @return true if the item was throttled
+   */
+  public static boolean isThrottled(ServiceResponse response) {
+    return response != null && response.getResult() == ServiceResult.Error
+        && response.getErrorCode() == ServiceError.ErrorServerBusy;
+  }
+
+  /**
+   * Gets the back-off the server asked for in the response of a throttled
+   * request.
+   *
+   * @param exception the exception
+   * @return the back-off in milliseconds, or 0 if the server gave none
+   */
+  public static long getBackOffMilliseconds(Exception exception) {
+    for (Throwable e = exception; e != null; e = e.getCause()) {
+      if (e instanceof ServiceResponseException) {
+        return getBackOffMilliseconds(((ServiceResponseException) e).getResponse());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the back-off the server asked for in a throttled response.
+   *
+   * @param response the response
+   * @return the back-off in milliseconds, or 0 if the server gave none
+   */
+  public static long getBackOffMilliseconds(ServiceResponse response) {
+    if (response == null || response.getErrorDetails() == null) {
+      return 0;
+    }
+    String value = response.getErrorDetails().get(BackOffMillisecondsKey);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(value.trim()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Gets the delay before a retry.
+   *
+   * @param attempt       the number of retries so far
+   * @param serverBackOff the back-off in milliseconds the server asked for
+   * @return the delay in milliseconds
+   */
+  protected long getDelay(int attempt, long serverBackOff) {
+    long delay = maximumDelay;
+    if (attempt < 30 && (initialDelay << attempt) < maximumDelay) {
+      delay = initialDelay << attempt;
+    }
+
+    // Equal jitter: half of the delay is fixed, the other half random
+    long half = delay / 2;
+    long jittered = half + (long) (random.nextDouble() * (delay - half));
+    return Math.max(jittered, serverBackOff);
+  }
+
+  /**
+   * Records that a request for a mailbox was throttled. Requests for the
+   * mailbox wait in {@link #waitForMailbox(String)} until the back-off has
+   * passed.
+   *
+   * @param mailbox       the mailbox
+   * @param attempt       the number of retries so far
+   * @param serverBackOff the back-off in milliseconds the server asked for
+   */
+  public void onThrottled(String mailbox, int attempt, long serverBackOff) {
+    long until = System.currentTimeMillis() + this.getDelay(attempt, serverBackOff);
+    while (true) {
+      Long current = backOffUntil.putIfAbsent(mailbox, until);
+      if (current == null || current >= until || backOffUntil.replace(mailbox, current, until)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Waits until a request for a mailbox may be sent: until the back-off of
+   * the mailbox has passed, and then until its budget allows the request.
+   *
+   * @param mailbox the mailbox
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public void waitForMailbox(String mailbox) throws InterruptedException {
+    while (true) {
+      Long until = backOffUntil.get(mailbox);
+      if (until == null) {
+        break;
+      }
+      long remaining = until - System.currentTimeMillis();
+      if (remaining <= 0) {
+        backOffUntil.remove(mailbox, until);
+        break;
+      }
+      Thread.sleep(remaining);
+    }
+
+    if (mailboxRequestsPerSecond > 0) {
+      this.takeBudget(mailbox);
+    }
+  }
+
+  /**
+   * Takes one request from the budget of a mailbox, waiting for the budget
+   * to refill if it is used up.
+   *
+   * @param mailbox the mailbox
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  private void takeBudget(String mailbox) throws InterruptedException {
+    if (budgetRequests.incrementAndGet() % BudgetEvictionInterval == 0) {
+      this.evictIdleBudgets();
+    }
+
+    long now = System.nanoTime();
+    Budget budget = budgets.get(mailbox);
+    if (budget == null) {
+      Budget created = new Budget(mailboxBurst, now);
+      budget = budgets.putIfAbsent(mailbox, created);
+      if (budget == null) {
+        budget = created;
+      }
+    }
+
+    long waitNanos = budget.take(mailboxRequestsPerSecond, mailboxBurst, now);
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Drops the budgets that have refilled completely. They hold no state
+   * that a new budget would not have.
+   */
+  private void evictIdleBudgets() {
+    long now = System.nanoTime();
+    for (Map.Entry<String, Budget> entry : budgets.entrySet()) {
+      if (entry.getValue().isFull(mailboxRequestsPerSecond, mailboxBurst, now)) {
+        budgets.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Gets the mailbox the requests of a service count against: the
+   * impersonated user, or else the user of the credentials.
+   *
+   * @param service the service
+   * @return the mailbox
+   */
+  public static String getMailbox(ExchangeService service) {
+    ImpersonatedUserId impersonatedUserId = service.getImpersonatedUserId();
+    if (impersonatedUserId != null && impersonatedUserId.getId() != null) {
+      return impersonatedUserId.getId().toLowerCase();
+    }
+    ExchangeCredentials credentials = service.getCredentials();
+    if (credentials instanceof WebCredentials) {
+      WebCredentials webCredentials = (WebCredentials) credentials;
+      String user = webCredentials.getUser() != null ? webCredentials.getUser().toLowerCase() : "";
+      return webCredentials.getDomain() != null ? webCredentials.getDomain().toLowerCase() + "\\" + user : user;
+    }
+    return "";
+  }
+
+
+  /**
+   * The requests a mailbox may send, refilled at the budgeted rate up to the
+   * burst. Requests that find it used up reserve a later turn, so that
+   * waiting requests are spaced evenly.
+   */
+  private static final class Budget {
+
+    private double available;
+
+    private long refilled;
+
+    Budget(int burst, long now) {
+      this.available = burst;
+      this.refilled = now;
+    }
+
+    /**
+     * Takes one request from the budget.
+     *
+     * @return the time in nanoseconds to wait before sending the request
+     */
+    synchronized long take(double requestsPerSecond, int burst, long now) {
+      this.refill(requestsPerSecond, burst, now);
+      this.available -= 1;
+      if (this.available >= 0) {
+        return 0;
+      }
+      return (long) (-this.available / requestsPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    synchronized boolean isFull(double requestsPerSecond, int burst, long now) {
+      this.refill(requestsPerSecond, burst, now);
+      return this.available >= burst;
+    }
+
+    private void refill(double requestsPerSecond, int burst, long now) {
+      if (now <= this.refilled) {
+        return;
+      }
+      double elapsedSeconds = (now - this.refilled) / (double) TimeUnit.SECONDS.toNanos(1);
+      this.available = Math.min(burst, this.available + elapsedSeconds * requestsPerSecond);
+      this.refilled = now;
+    }
+  }
+}
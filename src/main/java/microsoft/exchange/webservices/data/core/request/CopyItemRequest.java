@@ -29,6 +29,8 @@ import microsoft.exchange.webservices.data.core.enumeration.service.error.Servic
 import microsoft.exchange.webservices.data.core.response.MoveCopyItemResponse;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
 
+import java.util.List;
+
 /**
  * Represents a CopyItem request.
  */
@@ -59,6 +61,18 @@ public class CopyItemRequest extends MoveCopyItemRequest<MoveCopyItemResponse> {
     return new MoveCopyItemResponse();
   }
 
+  /**
+   * Creates a request for the items at the specified positions.
+   *
+   * @param responseIndexes the positions of the items
+   * @return the request
+   * @throws Exception on error
+   */
+  @Override
+  protected CopyItemRequest createPartialRequest(List<Integer> responseIndexes) throws Exception {
+    return this.initializePartialRequest(new CopyItemRequest(this.getService(), this.getErrorHandlingMode()), responseIndexes);
+  }
+
   /**
    * Gets the name of the XML element.
    *
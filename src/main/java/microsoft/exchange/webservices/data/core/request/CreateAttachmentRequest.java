@@ -34,6 +34,7 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion
 import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.property.complex.Attachment;
+import microsoft.exchange.webservices.data.property.complex.FileAttachment;
 import microsoft.exchange.webservices.data.property.complex.ItemAttachment;
 
 import java.util.ArrayList;
@@ -165,6 +166,23 @@ public final class CreateAttachmentRequest extends
     }
   }
 
+  /**
+   * Gets a value indicating whether the request body can be written only
+   * once, which is the case when an attachment is read from a stream.
+   *
+   * @return true if an attachment is read from a stream
+   */
+  @Override
+  protected boolean isBodyWrittenOnce() {
+    for (Attachment attachment : this.attachments) {
+      if (attachment instanceof FileAttachment
+          && ((FileAttachment) attachment).hasContentStream()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Gets the parent item id.
    *
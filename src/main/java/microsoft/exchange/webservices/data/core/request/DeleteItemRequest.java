@@ -37,6 +37,8 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceXmlSerializationException;
 import microsoft.exchange.webservices.data.misc.ItemIdWrapperList;
 
+import java.util.List;
+
 /**
  * Represents a DeleteItem request.
  */
@@ -103,6 +105,23 @@ public final class DeleteItemRequest extends DeleteRequest<ServiceResponse> {
     return new ServiceResponse();
   }
 
+  /**
+   * Creates a request for the items at the specified positions.
+   *
+   * @param responseIndexes the positions of the items
+   * @return the request
+   * @throws Exception on error
+   */
+  @Override
+  protected DeleteItemRequest createPartialRequest(List<Integer> responseIndexes) throws Exception {
+    DeleteItemRequest request = new DeleteItemRequest(this.getService(), this.getErrorHandlingMode());
+    request.getItemIds().addRange(this.getItemIds(), responseIndexes);
+    request.setDeleteMode(this.getDeleteMode());
+    request.setAffectedTaskOccurrences(this.getAffectedTaskOccurrences());
+    request.setSendCancellationsMode(this.getSendCancellationsMode());
+    return request;
+  }
+
   /**
    * Gets the name of the XML element.
    *
@@ -30,6 +30,7 @@ import microsoft.exchange.webservices.data.core.response.FindItemResponse;
 import microsoft.exchange.webservices.data.core.service.item.Item;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
 import microsoft.exchange.webservices.data.search.Grouping;
+import microsoft.exchange.webservices.data.search.IFindItemsHandler;
 
 /**
  * Represents a FindItem request.
@@ -44,6 +45,11 @@ public final class FindItemRequest<TItem extends Item> extends
    */
   private Grouping groupBy;
 
+  /**
+   * The handler of the item, if they are not collected in the results.
+   */
+  private IFindItemsHandler<TItem> itemHandler;
+
   /**
    * Initializes a new instance of the FindItemRequest class.
    *
@@ -66,6 +72,9 @@ public final class FindItemRequest<TItem extends Item> extends
   @Override
   protected FindItemResponse<TItem> createServiceResponse(
       ExchangeService service, int responseIndex) {
+    if (this.getItemHandler() != null && this.getGroupBy() == null) {
+      return new FindItemResponse<TItem>(this.getView().getPropertySetOrDefault(), this.getItemHandler());
+    }
     return new FindItemResponse<TItem>(this.getGroupBy() != null, this
         .getView().getPropertySetOrDefault());
   }
@@ -128,4 +137,24 @@ public final class FindItemRequest<TItem extends Item> extends
 
   }
 
+  /**
+   * Gets the handler that receives each item as soon as it has been read.
+   *
+   * @return the item handler, or null if the item are collected in the results
+   */
+  public IFindItemsHandler<TItem> getItemHandler() {
+    return this.itemHandler;
+  }
+
+  /**
+   * Sets the handler that receives each item as soon as it has been read,
+   * instead of collecting the item in the results. Ignored when the search
+   * is grouped.
+   *
+   * @param itemHandler the item handler
+   */
+  public void setItemHandler(IFindItemsHandler<TItem> itemHandler) {
+    this.itemHandler = itemHandler;
+  }
+
 }
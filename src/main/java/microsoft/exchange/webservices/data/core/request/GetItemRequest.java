@@ -27,6 +27,8 @@ import microsoft.exchange.webservices.data.core.ExchangeService;
 import microsoft.exchange.webservices.data.core.enumeration.service.error.ServiceErrorHandling;
 import microsoft.exchange.webservices.data.core.response.GetItemResponse;
 
+import java.util.List;
+
 /**
  * Represents an abstract GetItem request.
  */
@@ -57,4 +59,19 @@ public final class GetItemRequest extends GetItemRequestBase<GetItemResponse> {
         responseIndex), this.getPropertySet());
   }
 
+  /**
+   * Creates a request for the items at the specified positions.
+   *
+   * @param responseIndexes the positions of the items
+   * @return the request
+   * @throws Exception on error
+   */
+  @Override
+  protected GetItemRequest createPartialRequest(List<Integer> responseIndexes) throws Exception {
+    GetItemRequest request = new GetItemRequest(this.getService(), this.getErrorHandlingMode());
+    request.getItemIds().addRange(this.getItemIds(), responseIndexes);
+    request.setPropertySet(this.getPropertySet());
+    return request;
+  }
+
 }
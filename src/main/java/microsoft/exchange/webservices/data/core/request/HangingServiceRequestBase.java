@@ -34,6 +34,7 @@ import microsoft.exchange.webservices.data.core.exception.service.local.ServiceV
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceXmlDeserializationException;
 import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
 import microsoft.exchange.webservices.data.core.exception.xml.XmlException;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
 import microsoft.exchange.webservices.data.misc.HangingTraceStream;
 import microsoft.exchange.webservices.data.security.XmlNodeType;
 import org.apache.commons.io.IOUtils;
@@ -50,9 +51,13 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownServiceException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -83,6 +88,12 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
    */
   private static volatile boolean logAllWireBytes = false;
 
+  /**
+   * The executor reading the responses of hanging requests whose service
+   * has none set, created on first use.
+   */
+  private static ExecutorService sharedReaderExecutor;
+
   /**
    * Callback delegate to handle response objects
    */
@@ -246,7 +257,9 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
     }
   }
 
-  private boolean isConnected;
+  private volatile boolean isConnected;
+
+  private final Object disconnectLock = new Object();
 
   /**
    * Gets a value indicating whether this instance is connected.
@@ -266,7 +279,7 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
    */
   public void disconnect() {
     synchronized (this) {
-      IOUtils.closeQuietly(this.response);
+      this.abortResponse();
       this.disconnect(HangingRequestDisconnectReason.UserInitiated, null);
     }
   }
@@ -279,11 +292,26 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
    */
   public void disconnect(HangingRequestDisconnectReason reason, Exception exception) {
     if (this.isConnected()) {
-      IOUtils.closeQuietly(this.response);
+      this.abortResponse();
       this.internalOnDisconnect(reason, exception);
     }
   }
 
+  /**
+   * Aborts the response. Closing it would try to read it to its end, which
+   * blocks until the server ends the hanging request; aborting drops the
+   * connection, which also ends a read in progress on the reader thread.
+   */
+  private void abortResponse() {
+    if (this.response != null) {
+      try {
+        this.response.abort();
+      } catch (IOException e) {
+        LOG.debug("Could not abort hanging request", e);
+      }
+    }
+  }
+
   /**
    * Perform any bookkeeping needed when we connect
    * @throws XMLStreamException the XML stream exception
@@ -299,25 +327,58 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
             TraceFlags.EwsResponseHttpHeaders,
             this.response);
       }
-      int poolSize = 1;
-
-      int maxPoolSize = 1;
+      ExecutorService readerExecutor = this.getService().getHangingRequestExecutor();
+      if (readerExecutor == null) {
+        readerExecutor = getSharedReaderExecutor();
+      }
+      try {
+        readerExecutor.execute(new Runnable() {
+          public void run() {
+            parseResponses();
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        this.disconnect(HangingRequestDisconnectReason.Exception, ex);
+        throw ex;
+      }
+    }
+  }
 
-      long keepAliveTime = 10;
+  /**
+   * Gets the executor reading the responses of hanging requests whose
+   * service has no executor set, created on first use.
+   *
+   * @return the shared executor
+   */
+  private static synchronized ExecutorService getSharedReaderExecutor() {
+    if (sharedReaderExecutor == null) {
+      sharedReaderExecutor = createSharedReaderExecutor();
+    }
+    return sharedReaderExecutor;
+  }
 
-      final ArrayBlockingQueue<Runnable> queue =
-          new ArrayBlockingQueue<Runnable>(
-              1);
-      ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize,
-          maxPoolSize,
-          keepAliveTime, TimeUnit.SECONDS, queue);
-      threadPool.execute(new Runnable() {
-        public void run() {
-          parseResponses();
-        }
-      });
-      threadPool.shutdown();
+  /**
+   * Creates the executor shared by hanging requests. On Java 21 and later
+   * each reader runs on a virtual thread, so a blocked read does not hold a
+   * platform thread. Otherwise readers run on a pool of platform threads
+   * that are reused by later connections and end after being idle for a
+   * while.
+   *
+   * @return the new executor
+   */
+  static ExecutorService createSharedReaderExecutor() {
+    ExecutorService virtualThreadExecutor = AsyncExecutor.newVirtualThreadExecutor();
+    if (virtualThreadExecutor != null) {
+      return virtualThreadExecutor;
     }
+    final AtomicInteger threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ews-hanging-request-" + threadCount.incrementAndGet());
+          }
+        });
   }
 
   /**
@@ -328,12 +389,17 @@ public abstract class HangingServiceRequestBase<T> extends ServiceRequestBase<T>
    */
   private void internalOnDisconnect(HangingRequestDisconnectReason reason,
       Exception exception) {
-    if (this.isConnected()) {
-      this.isConnected = false;
-      for (IHangingRequestDisconnectHandler disconnect : onDisconnectList) {
-        disconnect.hangingRequestDisconnectHandler(this,
-            new HangingRequestDisconnectEventArgs(reason, exception));
+    // The reader thread and a user may disconnect at the same time; only
+    // the first one raises the disconnect events
+    synchronized (this.disconnectLock) {
+      if (!this.isConnected()) {
+        return;
       }
+      this.isConnected = false;
+    }
+    for (IHangingRequestDisconnectHandler disconnect : onDisconnectList) {
+      disconnect.hangingRequestDisconnectHandler(this,
+          new HangingRequestDisconnectEventArgs(reason, exception));
     }
   }
 
@@ -94,6 +94,18 @@ public class HttpClientWebRequest extends HttpWebRequest {
     httpPost = null;
   }
 
+  /**
+   * Aborts the request. The connection is dropped rather than released, so
+   * that a response that is still being received is not read to its end.
+   */
+  @Override
+  public void abort() {
+    if (httpPost != null) {
+      httpPost.abort();
+    }
+    httpPost = null;
+  }
+
   /**
    * Prepares the request by setting appropriate headers, authentication, timeouts, etc.
    */
@@ -209,6 +221,25 @@ public class HttpClientWebRequest extends HttpWebRequest {
     return os;
   }
 
+  /**
+   * Sets the writer that produces the request body. The body is written directly
+   * to the connection with chunked transfer-encoding when the request is executed.
+   * "Expect: 100-continue" is enabled so that the body is only sent once the
+   * server is ready to accept it, e.g. after an authentication handshake.
+   *
+   * @param contentWriter the writer that produces the request body
+   * @throws EWSHttpException the EWS http exception
+   */
+  @Override
+  public void setContentWriter(IRequestContentWriter contentWriter) throws EWSHttpException {
+    throwIfRequestIsNull();
+    httpPost.setEntity(new StreamingRequestEntity(contentWriter));
+
+    RequestConfig config = httpPost.getConfig();
+    RequestConfig.Builder builder = config != null ? RequestConfig.copy(config) : RequestConfig.custom();
+    httpPost.setConfig(builder.setExpectContinueEnabled(true).build());
+  }
+
   /**
    * Gets the response headers.
    *
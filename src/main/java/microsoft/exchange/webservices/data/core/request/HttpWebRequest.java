@@ -33,12 +33,36 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * The Class HttpWebRequest.
  */
 public abstract class HttpWebRequest implements Closeable {
 
+  /**
+   * Receives the outcome of a request executed with
+   * {@link HttpWebRequest#executeRequestAsync(Executor, IResponseCallback)}.
+   */
+  public interface IResponseCallback {
+
+    /**
+     * Called once the response, including its body, can be read from the
+     * request.
+     *
+     * @param request the request
+     */
+    void completed(HttpWebRequest request);
+
+    /**
+     * Called when the request could not be executed.
+     *
+     * @param request   the request
+     * @param exception the exception
+     */
+    void failed(HttpWebRequest request, Exception exception);
+  }
+
   /**
    * The url.
    */
@@ -490,11 +514,36 @@ public abstract class HttpWebRequest implements Closeable {
    */
   public abstract OutputStream getOutputStream() throws EWSHttpException;
 
+  /**
+   * Sets the writer that produces the request body. Implementations that can
+   * stream the body to the connection override this method; by default the
+   * body is written to the buffered {@link #getOutputStream()}.
+   *
+   * @param contentWriter the writer that produces the request body
+   * @throws Exception on error
+   */
+  public void setContentWriter(IRequestContentWriter contentWriter) throws Exception {
+    OutputStream stream = getOutputStream();
+    contentWriter.writeTo(stream);
+    stream.flush();
+  }
+
   /**
    * Close.
    */
   public abstract void close() throws IOException;
 
+  /**
+   * Aborts the request, dropping its connection instead of reading the rest
+   * of the response as {@link #close()} may do. Used to end hanging requests,
+   * whose response does not end. Closes the request unless overridden.
+   *
+   * @throws IOException on error
+   */
+  public void abort() throws IOException {
+    close();
+  }
+
   /**
    * Prepare connection.
    */
@@ -568,4 +617,34 @@ public abstract class HttpWebRequest implements Closeable {
    */
   public abstract int executeRequest() throws EWSHttpException, IOException;
 
+  /**
+   * Executes the request without blocking the calling thread, and calls back
+   * once the response has arrived.
+   * <p>
+   * By default {@link #executeRequest()} runs on the executor, which holds one
+   * of its threads until the server responds. A transport backed by a
+   * non-blocking client overrides this to send the request and call back from
+   * its I/O threads once the response body has been received, so that no
+   * thread waits for the server. The callback only hands the response on, so
+   * it may be called on an I/O thread.
+   * </p>
+   *
+   * @param executor the executor that may be used to wait for the response
+   * @param callback the callback
+   */
+  public void executeRequestAsync(Executor executor, final IResponseCallback callback) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executeRequest();
+        } catch (Exception e) {
+          callback.failed(HttpWebRequest.this, e);
+          return;
+        }
+        callback.completed(HttpWebRequest.this);
+      }
+    });
+  }
+
 }
@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core.request;
+
+import java.net.URI;
+
+/**
+ * Defines a factory for the HTTP transport used by a service. The service
+ * configures and prepares the requests it gets from the factory, executes
+ * them and reads the response from {@link HttpWebRequest#getInputStream()},
+ * so an implementation may be backed by any HTTP client. A transport backed
+ * by a non-blocking client overrides
+ * {@link HttpWebRequest#executeRequestAsync}, so that requests executed
+ * asynchronously hold no thread until their response body arrives.
+ */
+public interface IHttpWebRequestFactory {
+
+  /**
+   * Creates a new, not yet prepared request.
+   *
+   * @param url          the URL that the request targets
+   * @param subscription true if the request is a long-running subscription
+   *                     request, e.g. a streaming notification connection
+   * @return the request
+   * @throws Exception on error
+   */
+  HttpWebRequest createHttpWebRequest(URI url, boolean subscription) throws Exception;
+}
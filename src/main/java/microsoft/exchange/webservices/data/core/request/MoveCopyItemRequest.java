@@ -33,6 +33,8 @@ import microsoft.exchange.webservices.data.core.service.item.Item;
 import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.misc.ItemIdWrapperList;
 
+import java.util.List;
+
 /**
  * Represents an abstract Move/Copy Item request.
  *
@@ -95,6 +97,23 @@ public abstract class MoveCopyItemRequest<TResponse extends ServiceResponse>
     return this.getItemIds().getCount();
   }
 
+  /**
+   * Copies the items at the specified positions and the settings of this
+   * request to a new request.
+   *
+   * @param request         the new request
+   * @param responseIndexes the positions of the items
+   * @return the new request
+   * @throws Exception on error
+   */
+  protected <T extends MoveCopyItemRequest<TResponse>> T initializePartialRequest(T request,
+      List<Integer> responseIndexes) throws Exception {
+    request.getItemIds().addRange(this.getItemIds(), responseIndexes);
+    request.setDestinationFolderId(this.getDestinationFolderId());
+    request.setReturnNewItemIds(this.getReturnNewItemIds());
+    return request;
+  }
+
   /**
    * Gets the item ids.
    *
@@ -26,6 +26,7 @@ package microsoft.exchange.webservices.data.core.request;
 import microsoft.exchange.webservices.data.core.EwsServiceXmlReader;
 import microsoft.exchange.webservices.data.core.EwsUtilities;
 import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.ThrottlingRetryPolicy;
 import microsoft.exchange.webservices.data.core.XmlElementNames;
 import microsoft.exchange.webservices.data.core.enumeration.service.error.ServiceErrorHandling;
 import microsoft.exchange.webservices.data.core.response.ServiceResponse;
@@ -35,6 +36,16 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceXmlDeserializationException;
 import microsoft.exchange.webservices.data.misc.IAsyncResult;
+import microsoft.exchange.webservices.data.misc.IFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Represents a service request that can have multiple response.
@@ -155,7 +166,7 @@ public abstract class MultiResponseServiceRequest<TResponse extends ServiceRespo
    * @throws Exception the exception
    */
   public ServiceResponseCollection<TResponse> execute() throws Exception {
-    ServiceResponseCollection<TResponse> serviceResponses = internalExecute();
+    ServiceResponseCollection<TResponse> serviceResponses = this.executeInParts();
 
     if (this.errorHandlingMode == ServiceErrorHandling.ThrowOnError) {
       EwsUtilities.ewsAssert(serviceResponses.getCount() == 1, "MultiResponseServiceRequest.Execute",
@@ -168,6 +179,69 @@ public abstract class MultiResponseServiceRequest<TResponse extends ServiceRespo
     return serviceResponses;
   }
 
+  /**
+   * Executes this request without waiting for the response; see
+   * {@link #internalExecuteAsync(IResponseHandler)}. As by {@link #execute()},
+   * the request is split according to the maximum number of items per
+   * request of the service, and the items that were throttled are sent
+   * again according to its retry policy. Retries are sent from a thread of
+   * the async executor, which waits for the back-off of the retry policy.
+   * Errors are reported through the future, except that errors that keep
+   * the request from being sent may be thrown.
+   *
+   * @return A future of the service response collection.
+   * @throws Exception the exception
+   */
+  public Future<ServiceResponseCollection<TResponse>> executeAsync() throws Exception {
+    return this.executeAsync(new IFunction<ServiceResponseCollection<TResponse>,
+        ServiceResponseCollection<TResponse>>() {
+      @Override
+      public ServiceResponseCollection<TResponse> func(ServiceResponseCollection<TResponse> serviceResponses) {
+        return serviceResponses;
+      }
+    });
+  }
+
+  /**
+   * Executes this request without waiting for the response, as
+   * {@link #executeAsync()} does, and completes the future with a result
+   * selected from the service response collection.
+   *
+   * @param <TResult>      the type of the result
+   * @param resultSelector selects the result, on a thread of the async executor
+   * @return A future of the result.
+   * @throws Exception the exception
+   */
+  public <TResult> Future<TResult> executeAsync(
+      final IFunction<ServiceResponseCollection<TResponse>, TResult> resultSelector) throws Exception {
+    final AsyncResponse<TResult> response = new AsyncResponse<TResult>();
+    this.executeInPartsAsync(new IResponseHandler<ServiceResponseCollection<TResponse>>() {
+      @Override
+      public void completed(ServiceResponseCollection<TResponse> serviceResponses) {
+        TResult result;
+        try {
+          if (getErrorHandlingMode() == ServiceErrorHandling.ThrowOnError) {
+            EwsUtilities.ewsAssert(serviceResponses.getCount() == 1, "MultiResponseServiceRequest.Execute",
+                                   "ServiceErrorHandling.ThrowOnError error handling is only valid for singleton request");
+
+            serviceResponses.getResponseAtIndex(0).throwIfNecessary();
+          }
+          result = resultSelector.func(serviceResponses);
+        } catch (Exception e) {
+          response.failed(e);
+          return;
+        }
+        response.completed(result);
+      }
+
+      @Override
+      public void failed(Exception exception) {
+        response.failed(exception);
+      }
+    });
+    return response;
+  }
+
   /**
    * Ends executing this async request.
    *
@@ -188,6 +262,441 @@ public abstract class MultiResponseServiceRequest<TResponse extends ServiceRespo
     return serviceResponses;
   }
 
+  /**
+   * Creates a request for the items at the specified positions of this
+   * request, with the same settings. Used to split requests with more items
+   * than the service allows per request, and to retry only the items that
+   * were throttled. Returns null by default, in which case the request is
+   * neither split nor retried in part.
+   *
+   * @param responseIndexes the positions of the items
+   * @return the request, or null if not supported
+   * @throws Exception on error
+   */
+  protected MultiResponseServiceRequest<TResponse> createPartialRequest(List<Integer> responseIndexes)
+      throws Exception {
+    return null;
+  }
+
+  /**
+   * Executes this request, split into parts of at most the maximum number of
+   * items per request of the service. The parts run one after another, or
+   * in parallel on the async executor of the service if it allows that.
+   *
+   * @return the responses of all parts, in the order of the items
+   * @throws Exception on error
+   */
+  private ServiceResponseCollection<TResponse> executeInParts() throws Exception {
+    List<MultiResponseServiceRequest<TResponse>> parts = this.split();
+    if (parts == null) {
+      return this.executeWithRetries();
+    }
+
+    ServiceResponseCollection<TResponse> serviceResponses = new ServiceResponseCollection<TResponse>();
+    if (this.isSplitInParallel()) {
+      for (ServiceResponseCollection<TResponse> partResponses : executeInParallel(parts)) {
+        addAll(serviceResponses, partResponses);
+      }
+    } else {
+      for (MultiResponseServiceRequest<TResponse> part : parts) {
+        addAll(serviceResponses, part.executeWithRetries());
+      }
+    }
+    return serviceResponses;
+  }
+
+  /**
+   * Executes this request without waiting for the responses, split as by
+   * {@link #executeInParts()}. All parts are sent at once if the service
+   * allows parts to run in parallel, or else each part is sent once the
+   * responses of the previous part have been read.
+   *
+   * @param handler the handler of the responses of all parts
+   * @throws Exception if the request could not be sent
+   */
+  private void executeInPartsAsync(IResponseHandler<ServiceResponseCollection<TResponse>> handler)
+      throws Exception {
+    List<MultiResponseServiceRequest<TResponse>> parts = this.split();
+    if (parts == null) {
+      this.executeWithRetriesAsync(handler);
+    } else {
+      new AsyncParts(parts, this.isSplitInParallel(), handler).start();
+    }
+  }
+
+  /**
+   * Splits this request into parts of at most the maximum number of items
+   * per request of the service.
+   *
+   * @return the parts, or null if this request is not split
+   * @throws Exception on error
+   */
+  private List<MultiResponseServiceRequest<TResponse>> split() throws Exception {
+    int maximumItems = this.getService().getMaximumItemsPerRequest();
+    int count = this.getExpectedResponseMessageCount();
+    if (maximumItems < 1 || count <= maximumItems) {
+      return null;
+    }
+
+    List<MultiResponseServiceRequest<TResponse>> parts = new ArrayList<MultiResponseServiceRequest<TResponse>>();
+    for (int start = 0; start < count; start += maximumItems) {
+      List<Integer> indexes = new ArrayList<Integer>();
+      for (int i = start; i < Math.min(count, start + maximumItems); i++) {
+        indexes.add(i);
+      }
+      MultiResponseServiceRequest<TResponse> part = this.createPartialRequest(indexes);
+      if (part == null) {
+        return null;
+      }
+      parts.add(part);
+    }
+    return parts;
+  }
+
+  private boolean isSplitInParallel() {
+    return this.getService().isSplitRequestsInParallel() && this.getService().isConcurrentRequestsEnabled();
+  }
+
+  /**
+   * Executes requests in parallel on the async executor of the service.
+   *
+   * @param parts the requests
+   * @return the responses of the requests, in the same order
+   * @throws Exception on error
+   */
+  private List<ServiceResponseCollection<TResponse>> executeInParallel(
+      List<MultiResponseServiceRequest<TResponse>> parts) throws Exception {
+    List<FutureTask<ServiceResponseCollection<TResponse>>> tasks =
+        new ArrayList<FutureTask<ServiceResponseCollection<TResponse>>>();
+    for (final MultiResponseServiceRequest<TResponse> part : parts) {
+      FutureTask<ServiceResponseCollection<TResponse>> task =
+          new FutureTask<ServiceResponseCollection<TResponse>>(
+              new Callable<ServiceResponseCollection<TResponse>>() {
+                public ServiceResponseCollection<TResponse> call() throws Exception {
+                  return part.executeWithRetries();
+                }
+              });
+      tasks.add(task);
+      try {
+        this.getService().getAsyncExecutor().execute(task);
+      } catch (RejectedExecutionException e) {
+        // Runs on this thread below
+      }
+    }
+
+    // Run the parts no thread has started yet on this thread, so that this
+    // does not wait forever when all threads of the executor are waiting too
+    for (FutureTask<ServiceResponseCollection<TResponse>> task : tasks) {
+      task.run();
+    }
+
+    List<ServiceResponseCollection<TResponse>> results = new ArrayList<ServiceResponseCollection<TResponse>>();
+    try {
+      for (FutureTask<ServiceResponseCollection<TResponse>> task : tasks) {
+        results.add(task.get());
+      }
+    } catch (ExecutionException e) {
+      for (FutureTask<ServiceResponseCollection<TResponse>> task : tasks) {
+        task.cancel(false);
+      }
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  private static <TResponse extends ServiceResponse> void addAll(
+      ServiceResponseCollection<TResponse> serviceResponses, ServiceResponseCollection<TResponse> responses) {
+    for (TResponse response : responses) {
+      serviceResponses.add(response);
+    }
+  }
+
+  /**
+   * Executes this request, retrying the items that were throttled.
+   *
+   * @return the responses
+   * @throws Exception on error
+   */
+  private ServiceResponseCollection<TResponse> executeWithRetries() throws Exception {
+    ThrottlingRetryPolicy retryPolicy = this.getService().getRetryPolicy();
+    if (retryPolicy == null) {
+      return this.internalExecuteOnce();
+    }
+
+    ThrottlingRetries retries = new ThrottlingRetries(retryPolicy);
+    MultiResponseServiceRequest<TResponse> request = this;
+    while (request != null) {
+      retries.waitForMailbox();
+      ServiceResponseCollection<TResponse> serviceResponses = null;
+      Exception error = null;
+      try {
+        serviceResponses = request.internalExecuteOnce();
+      } catch (Exception e) {
+        error = e;
+      }
+      request = retries.next(serviceResponses, error);
+    }
+    return retries.getServiceResponses();
+  }
+
+  /**
+   * Executes this request without waiting for the response, retrying the
+   * items that were throttled as {@link #executeWithRetries()} does. The
+   * retries are sent from a thread of the async executor, which waits for
+   * the back-off of the retry policy.
+   *
+   * @param handler the handler of the responses
+   * @throws Exception if the request could not be sent
+   */
+  private void executeWithRetriesAsync(final IResponseHandler<ServiceResponseCollection<TResponse>> handler)
+      throws Exception {
+    ThrottlingRetryPolicy retryPolicy = this.getService().getRetryPolicy();
+    if (retryPolicy == null) {
+      this.internalExecuteAsync(handler);
+      return;
+    }
+
+    final ThrottlingRetries retries = new ThrottlingRetries(retryPolicy);
+    retries.waitForMailbox();
+    this.internalExecuteAsync(new IResponseHandler<ServiceResponseCollection<TResponse>>() {
+      @Override
+      public void completed(ServiceResponseCollection<TResponse> serviceResponses) {
+        this.retry(serviceResponses, null);
+      }
+
+      @Override
+      public void failed(Exception exception) {
+        this.retry(null, exception);
+      }
+
+      private void retry(ServiceResponseCollection<TResponse> serviceResponses, Exception error) {
+        MultiResponseServiceRequest<TResponse> request;
+        try {
+          request = retries.next(serviceResponses, error);
+          if (request != null) {
+            retries.waitForMailbox();
+            request.internalExecuteAsync(this);
+          }
+        } catch (Exception e) {
+          handler.failed(e);
+          return;
+        }
+        if (request == null) {
+          handler.completed(retries.getServiceResponses());
+        }
+      }
+    });
+  }
+
+  /**
+   * The retries of a request according to the retry policy of the service,
+   * shared by {@link #executeWithRetries()} and
+   * {@link #executeWithRetriesAsync}. Each retry sends either the whole
+   * request again or a request for the items that were throttled, once, and
+   * takes from the budget of the mailbox once.
+   */
+  private final class ThrottlingRetries {
+
+    private final ThrottlingRetryPolicy retryPolicy;
+
+    private final String mailbox;
+
+    private int attempt;
+
+    private MultiResponseServiceRequest<TResponse> retryRequest;
+
+    private List<Integer> throttled;
+
+    private ServiceResponseCollection<TResponse> serviceResponses;
+
+    ThrottlingRetries(ThrottlingRetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      this.mailbox = ThrottlingRetryPolicy.getMailbox(getService());
+    }
+
+    void waitForMailbox() throws InterruptedException {
+      this.retryPolicy.waitForMailbox(this.mailbox);
+    }
+
+    /**
+     * Takes the outcome of the last attempt and gets the request to send
+     * next.
+     *
+     * @param responses the responses of the last attempt, or null if it failed
+     * @param error     the error of the last attempt, or null if it succeeded
+     * @return the request to send next, or null if the responses are final
+     * @throws Exception the error of the last attempt, if it is final
+     */
+    MultiResponseServiceRequest<TResponse> next(ServiceResponseCollection<TResponse> responses,
+        Exception error) throws Exception {
+      MultiResponseServiceRequest<TResponse> request = MultiResponseServiceRequest.this;
+      if (error == null) {
+        this.serviceResponses = this.retryRequest == null || this.retryRequest == request
+            ? responses : mergeResponses(this.serviceResponses, this.throttled, responses);
+      } else if (!ThrottlingRetryPolicy.isThrottled(error)) {
+        throw error;
+      }
+      if (this.attempt >= this.retryPolicy.getMaximumRetries()) {
+        if (error != null) {
+          throw error;
+        }
+        return null;
+      }
+
+      long serverBackOff;
+      if (error != null) {
+        // Send the same request again
+        serverBackOff = ThrottlingRetryPolicy.getBackOffMilliseconds(error);
+        if (this.retryRequest == null) {
+          this.retryRequest = request;
+        }
+      } else {
+        this.throttled = new ArrayList<Integer>();
+        serverBackOff = 0;
+        for (int i = 0; i < this.serviceResponses.getCount(); i++) {
+          TResponse response = this.serviceResponses.getResponseAtIndex(i);
+          if (ThrottlingRetryPolicy.isThrottled(response)) {
+            this.throttled.add(i);
+            serverBackOff = Math.max(serverBackOff, ThrottlingRetryPolicy.getBackOffMilliseconds(response));
+          }
+        }
+        if (this.throttled.isEmpty()) {
+          return null;
+        }
+
+        this.retryRequest = this.throttled.size() == this.serviceResponses.getCount()
+            ? request : request.createPartialRequest(this.throttled);
+        if (this.retryRequest == null) {
+          return null;
+        }
+      }
+
+      this.retryPolicy.onThrottled(this.mailbox, this.attempt++, serverBackOff);
+      return this.retryRequest;
+    }
+
+    /**
+     * Gets the responses, with those of retried items replaced.
+     *
+     * @return the responses
+     */
+    ServiceResponseCollection<TResponse> getServiceResponses() {
+      return this.serviceResponses;
+    }
+  }
+
+  /**
+   * Executes the parts of a split request without waiting for the responses,
+   * all at once or each after the previous one, and combines the responses
+   * in the order of the items. The first error ends the request; parts that
+   * were not sent yet are not sent.
+   */
+  private final class AsyncParts {
+
+    private final List<MultiResponseServiceRequest<TResponse>> parts;
+
+    private final boolean parallel;
+
+    private final IResponseHandler<ServiceResponseCollection<TResponse>> handler;
+
+    private final List<ServiceResponseCollection<TResponse>> results;
+
+    private int remaining;
+
+    private boolean failed;
+
+    AsyncParts(List<MultiResponseServiceRequest<TResponse>> parts, boolean parallel,
+        IResponseHandler<ServiceResponseCollection<TResponse>> handler) {
+      this.parts = parts;
+      this.parallel = parallel;
+      this.handler = handler;
+      this.results = new ArrayList<ServiceResponseCollection<TResponse>>(
+          Collections.<ServiceResponseCollection<TResponse>>nCopies(parts.size(), null));
+      this.remaining = parts.size();
+    }
+
+    void start() {
+      for (int i = 0; i < (this.parallel ? this.parts.size() : 1) && !this.isFailed(); i++) {
+        this.execute(i);
+      }
+    }
+
+    private void execute(final int index) {
+      try {
+        this.parts.get(index).executeWithRetriesAsync(
+            new IResponseHandler<ServiceResponseCollection<TResponse>>() {
+              @Override
+              public void completed(ServiceResponseCollection<TResponse> serviceResponses) {
+                AsyncParts.this.completed(index, serviceResponses);
+              }
+
+              @Override
+              public void failed(Exception exception) {
+                AsyncParts.this.failed(exception);
+              }
+            });
+      } catch (Exception e) {
+        this.failed(e);
+      }
+    }
+
+    private void completed(int index, ServiceResponseCollection<TResponse> serviceResponses) {
+      boolean done;
+      synchronized (this) {
+        if (this.failed) {
+          return;
+        }
+        this.results.set(index, serviceResponses);
+        done = --this.remaining == 0;
+      }
+
+      if (done) {
+        ServiceResponseCollection<TResponse> combined = new ServiceResponseCollection<TResponse>();
+        for (ServiceResponseCollection<TResponse> partResponses : this.results) {
+          addAll(combined, partResponses);
+        }
+        this.handler.completed(combined);
+      } else if (!this.parallel) {
+        this.execute(index + 1);
+      }
+    }
+
+    private void failed(Exception exception) {
+      synchronized (this) {
+        if (this.failed) {
+          return;
+        }
+        this.failed = true;
+      }
+      this.handler.failed(exception);
+    }
+
+    private synchronized boolean isFailed() {
+      return this.failed;
+    }
+  }
+
+  /**
+   * Replaces the responses at the specified positions, keeping the order.
+   */
+  private static <TResponse extends ServiceResponse> ServiceResponseCollection<TResponse> mergeResponses(
+      ServiceResponseCollection<TResponse> serviceResponses, List<Integer> indexes,
+      ServiceResponseCollection<TResponse> replacements) {
+    ServiceResponseCollection<TResponse> merged = new ServiceResponseCollection<TResponse>();
+    int next = 0;
+    for (int i = 0; i < serviceResponses.getCount(); i++) {
+      if (next < indexes.size() && indexes.get(next) == i && next < replacements.getCount()) {
+        merged.add(replacements.getResponseAtIndex(next++));
+      } else {
+        merged.add(serviceResponses.getResponseAtIndex(i));
+      }
+    }
+    return merged;
+  }
+
   /**
    * Gets a value indicating how errors should be handled.
    *
@@ -23,14 +23,17 @@
 
 package microsoft.exchange.webservices.data.core.request;
 
+import microsoft.exchange.webservices.data.core.ConcurrencyLimiter;
 import microsoft.exchange.webservices.data.core.EwsServiceXmlReader;
 import microsoft.exchange.webservices.data.core.EwsServiceXmlWriter;
 import microsoft.exchange.webservices.data.core.EwsUtilities;
 import microsoft.exchange.webservices.data.core.ExchangeServerInfo;
 import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.ThrottlingRetryPolicy;
 import microsoft.exchange.webservices.data.core.XmlAttributeNames;
 import microsoft.exchange.webservices.data.core.XmlElementNames;
 import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
 import microsoft.exchange.webservices.data.core.enumeration.misc.DateTimePrecision;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
 import microsoft.exchange.webservices.data.core.enumeration.misc.TraceFlags;
@@ -57,6 +60,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -626,22 +630,34 @@ public abstract class ServiceRequestBase<T> {
 
   /**
    * Validates request parameters, and emits the request to the server.
+   * The concurrency permit of the request is released as soon as the
+   * response headers arrive.
    *
    * @return The response returned by the server.
    * @throws Exception on error
    */
   protected HttpWebRequest validateAndEmitRequest() throws Exception {
-    this.validate();
-
-    HttpWebRequest request;
-    
-    if (service.getMaximumPoolingConnections() > 1) {
-        request = buildEwsHttpPoolingWebRequest();
-    } else {
-        request = buildEwsHttpWebRequest();
-    }
+    ConcurrencyLimiter.Permit permit = this.acquireConcurrencyPermit();
+    HttpWebRequest response = this.validateAndEmitRequest(permit);
+    releaseConcurrencyPermit(permit, null, null);
+    return response;
+  }
 
+  /**
+   * Validates request parameters, and emits the request to the server. The
+   * permit is released if the request fails, and is otherwise left to the
+   * caller to release once the response has been read.
+   *
+   * @param permit the concurrency permit of the request, or null
+   * @return The response returned by the server.
+   * @throws Exception on error
+   */
+  protected HttpWebRequest validateAndEmitRequest(ConcurrencyLimiter.Permit permit) throws Exception {
+    HttpWebRequest request = null;
     try {
+      this.validate();
+
+      request = this.buildServiceHttpWebRequest();
       try {
         return this.getEwsHttpWebResponse(request);
       } catch (HttpErrorException e) {
@@ -651,11 +667,104 @@ public abstract class ServiceRequestBase<T> {
         throw new ServiceRequestException(String.format("The request failed. %s", e.getMessage()), e);
       }
     } catch (Exception e) {
+      releaseConcurrencyPermit(permit, null, e);
       IOUtils.closeQuietly(request);
       throw e;
     }
   }
 
+  /**
+   * Builds the HttpWebRequest object for this request, from the pooling
+   * connection manager if the service uses more than one connection.
+   *
+   * @return An HttpWebRequest instance
+   * @throws Exception on error
+   */
+  protected HttpWebRequest buildServiceHttpWebRequest() throws Exception {
+    if (service.getMaximumPoolingConnections() > 1) {
+      return buildEwsHttpPoolingWebRequest();
+    } else {
+      return buildEwsHttpWebRequest();
+    }
+  }
+
+  /**
+   * Checks the status code of a response received through
+   * {@link HttpWebRequest#executeRequestAsync}, as
+   * {@link #validateAndEmitRequest()} does for a blocking request.
+   *
+   * @param response the request the response was received for
+   * @throws Exception the error returned by the server
+   */
+  protected void validateResponseCode(HttpWebRequest response) throws Exception {
+    if (response.getResponseCode() >= 400) {
+      HttpErrorException e = new HttpErrorException(
+          "The remote server returned an error: (" + response.getResponseCode() + ")" +
+          response.getResponseText(), response.getResponseCode());
+      processWebException(e, response);
+
+      // Wrap exception if the above code block didn't throw
+      throw new ServiceRequestException(String.format("The request failed. %s", e.getMessage()), e);
+    }
+  }
+
+  /**
+   * Waits until the concurrency limiter of the service, if any, allows this
+   * request to be sent.
+   *
+   * @return the permit, or null if the service has no concurrency limiter
+   * @throws Exception on error
+   */
+  protected ConcurrencyLimiter.Permit acquireConcurrencyPermit() throws Exception {
+    ConcurrencyLimiter limiter = service.getConcurrencyLimiter();
+    if (limiter == null) {
+      return null;
+    }
+    String endpoint = service.getUrl().getHost() != null ? service.getUrl().getHost().toLowerCase() : "";
+    return limiter.acquire(ThrottlingRetryPolicy.getMailbox(service), endpoint);
+  }
+
+  /**
+   * Releases a concurrency permit once the outcome of the request is known.
+   * The request counts as throttled when the error, or any response in the
+   * response object, is ErrorServerBusy or HTTP 503.
+   *
+   * @param permit         the permit, or null
+   * @param responseObject the response object read from the server, or null
+   * @param error          the error the request failed with, or null
+   */
+  protected static void releaseConcurrencyPermit(ConcurrencyLimiter.Permit permit, Object responseObject,
+      Exception error) {
+    if (permit == null) {
+      return;
+    }
+    if (error != null) {
+      if (ThrottlingRetryPolicy.isThrottled(error)) {
+        permit.throttled();
+      } else {
+        permit.failed();
+      }
+    } else if (isThrottledResponse(responseObject)) {
+      permit.throttled();
+    } else {
+      permit.succeeded();
+    }
+  }
+
+  private static boolean isThrottledResponse(Object responseObject) {
+    if (responseObject instanceof ServiceResponse) {
+      return ThrottlingRetryPolicy.isThrottled((ServiceResponse) responseObject);
+    }
+    if (responseObject instanceof ServiceResponseCollection) {
+      for (ServiceResponse response : (ServiceResponseCollection<?>) responseObject) {
+        if (ThrottlingRetryPolicy.isThrottled(response)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * Builds the HttpWebRequest object for current service request with exception handling.
    *
@@ -667,6 +776,17 @@ public abstract class ServiceRequestBase<T> {
     return buildEwsHttpWebRequest(request);
   }
 
+  /**
+   * Gets a value indicating whether writing the request body consumes
+   * content that cannot be read again, such as an attachment read from a
+   * stream. Such a body is buffered rather than streamed.
+   *
+   * @return true if the body can be written only once
+   */
+  protected boolean isBodyWrittenOnce() {
+    return false;
+  }
+
   /**
    * Builds a HttpWebRequest object from a pooling connection manager for current service request
    * with exception handling.
@@ -687,12 +807,27 @@ public abstract class ServiceRequestBase<T> {
 
       service.traceHttpRequestHeaders(TraceFlags.EwsRequestHttpHeaders, request);
 
+      boolean needSignature =
+          service.getCredentials() != null && service.getCredentials().isNeedSignature();
+
+      // Signing and tracing need the complete message, and a body that can be
+      // written only once could not be sent again during an authentication
+      // handshake, so only stream the body otherwise.
+      if (service.isRequestStreamingEnabled() && !needSignature
+          && !service.isTraceEnabledFor(TraceFlags.EwsRequest)
+          && !this.isBodyWrittenOnce()) {
+        request.setContentWriter(new IRequestContentWriter() {
+          @Override
+          public void writeTo(OutputStream stream) throws Exception {
+            writeToXml(new EwsServiceXmlWriter(service, stream));
+          }
+        });
+        return request;
+      }
+
       ByteArrayOutputStream requestStream = (ByteArrayOutputStream) request.getOutputStream();
 
       EwsServiceXmlWriter writer = new EwsServiceXmlWriter(service, requestStream);
-
-      boolean needSignature =
-          service.getCredentials() != null && service.getCredentials().isNeedSignature();
       writer.setRequireWSSecurityUtilityNamespace(needSignature);
 
       writeToXml(writer);
@@ -23,7 +23,9 @@
 
 package microsoft.exchange.webservices.data.core.request;
 
+import microsoft.exchange.webservices.data.core.ConcurrencyLimiter;
 import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.ThrottlingRetryPolicy;
 import microsoft.exchange.webservices.data.core.enumeration.misc.TraceFlags;
 import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
 import microsoft.exchange.webservices.data.misc.AsyncCallback;
@@ -31,16 +33,27 @@ import microsoft.exchange.webservices.data.misc.AsyncExecutor;
 import microsoft.exchange.webservices.data.misc.AsyncRequestResult;
 import microsoft.exchange.webservices.data.misc.CallableMethod;
 import microsoft.exchange.webservices.data.misc.IAsyncResult;
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
 
 /**
  * Defines the SimpleServiceRequestBase class.
  */
 public abstract class SimpleServiceRequestBase<T> extends ServiceRequestBase<T> {
 
+  /**
+   * The concurrency permit of a request begun with
+   * {@link #beginExecute(AsyncCallback)}, released when it is ended.
+   */
+  private volatile ConcurrencyLimiter.Permit beginExecutePermit;
+
   /**
    * Initializes a new instance of the SimpleServiceRequestBase class.
    */
@@ -56,16 +69,51 @@ public abstract class SimpleServiceRequestBase<T> extends ServiceRequestBase<T>
    * @throws Exception on error
    */
   protected T internalExecute() throws Exception {
+    ThrottlingRetryPolicy retryPolicy = this.getService().getRetryPolicy();
+    if (retryPolicy == null) {
+      return this.internalExecuteOnce();
+    }
+
+    String mailbox = ThrottlingRetryPolicy.getMailbox(this.getService());
+    for (int attempt = 0; ; attempt++) {
+      retryPolicy.waitForMailbox(mailbox);
+      try {
+        return this.internalExecuteOnce();
+      } catch (Exception e) {
+        if (attempt >= retryPolicy.getMaximumRetries() || !ThrottlingRetryPolicy.isThrottled(e)) {
+          throw e;
+        }
+        retryPolicy.onThrottled(mailbox, attempt, ThrottlingRetryPolicy.getBackOffMilliseconds(e));
+      }
+    }
+  }
+
+  /**
+   * Executes this request once, without retries and without waiting for the
+   * budget of the retry policy.
+   *
+   * @return response object
+   * @throws Exception on error
+   */
+  protected T internalExecuteOnce() throws Exception {
+    ConcurrencyLimiter.Permit permit = this.acquireConcurrencyPermit();
     HttpWebRequest response = null;
 
     try {
-      response = this.validateAndEmitRequest();
-      return this.readResponse(response);
+      response = this.validateAndEmitRequest(permit);
+      T serviceResponse = this.readResponse(response);
+
+      // Release the permit only now, so that errors in the body count as throttling
+      releaseConcurrencyPermit(permit, serviceResponse, null);
+      return serviceResponse;
     } catch (IOException ex) {
+      releaseConcurrencyPermit(permit, null, ex);
+
       // Wrap exception.
       throw new ServiceRequestException(String.
           format("The request failed. %s", ex.getMessage()), ex);
     } catch (Exception e) {
+      releaseConcurrencyPermit(permit, null, e);
       if (response != null) {
         this.getService().processHttpResponseHeaders(TraceFlags.
             EwsResponseHttpHeaders, response);
@@ -75,6 +123,127 @@ public abstract class SimpleServiceRequestBase<T> extends ServiceRequestBase<T>
     }
   }
 
+  /**
+   * Receives the outcome of a request executed with
+   * {@link SimpleServiceRequestBase#internalExecuteAsync(IResponseHandler)}.
+   *
+   * @param <T> the type of the response object
+   */
+  protected interface IResponseHandler<T> {
+
+    /**
+     * Called with the response object once it has been read.
+     *
+     * @param response the response object
+     */
+    void completed(T response);
+
+    /**
+     * Called when the request failed.
+     *
+     * @param exception the exception
+     */
+    void failed(Exception exception);
+  }
+
+  /**
+   * Executes this request without waiting for the response; see
+   * {@link #internalExecuteAsync(IResponseHandler)}. The request is not
+   * retried when throttled.
+   *
+   * @return a future of the response object
+   * @throws Exception if the request could not be sent
+   */
+  protected Future<T> internalExecuteAsync() throws Exception {
+    AsyncResponse<T> response = new AsyncResponse<T>();
+    this.internalExecuteAsync(response);
+    return response;
+  }
+
+  /**
+   * Executes this request without waiting for the response. The request is
+   * written on the calling thread and handed to the transport through
+   * {@link HttpWebRequest#executeRequestAsync}; with a transport backed by a
+   * non-blocking client no thread waits while the server processes it. The
+   * response is read on the async executor of the service once it arrives,
+   * and the handler is called on that thread, also when the request failed.
+   * The calling thread waits for the concurrency limiter of the service, if
+   * any. The request is not retried when throttled.
+   *
+   * @param handler the handler of the response object
+   * @throws Exception if the request could not be sent
+   */
+  protected void internalExecuteAsync(final IResponseHandler<T> handler) throws Exception {
+    this.validate();
+
+    final HttpWebRequest request = this.buildServiceHttpWebRequest();
+    final ExecutorService executor = this.getService().getAsyncExecutor();
+    final ConcurrencyLimiter.Permit permit;
+    try {
+      permit = this.acquireConcurrencyPermit();
+    } catch (Exception e) {
+      IOUtils.closeQuietly(request);
+      throw e;
+    }
+    final Runnable readResponse = new Runnable() {
+      @Override
+      public void run() {
+        T serviceResponse;
+        try {
+          validateResponseCode(request);
+          serviceResponse = readResponse(request);
+        } catch (Exception e) {
+          releaseConcurrencyPermit(permit, null, e);
+          IOUtils.closeQuietly(request);
+          handler.failed(e);
+          return;
+        }
+        releaseConcurrencyPermit(permit, serviceResponse, null);
+        handler.completed(serviceResponse);
+      }
+    };
+
+    try {
+      request.executeRequestAsync(executor, new HttpWebRequest.IResponseCallback() {
+        @Override
+        public void completed(HttpWebRequest completedRequest) {
+          try {
+            executor.execute(readResponse);
+          } catch (RejectedExecutionException e) {
+            releaseConcurrencyPermit(permit, null, e);
+            IOUtils.closeQuietly(request);
+            handler.failed(e);
+          }
+        }
+
+        @Override
+        public void failed(HttpWebRequest failedRequest, Exception exception) {
+          releaseConcurrencyPermit(permit, null, exception);
+          IOUtils.closeQuietly(request);
+          final ServiceRequestException error = new ServiceRequestException(
+              String.format("The request failed. %s", exception.getMessage()), exception);
+
+          // The handler may send the request again, which the thread of a
+          // non-blocking transport must not wait for
+          try {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                handler.failed(error);
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            handler.failed(error);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      releaseConcurrencyPermit(permit, null, e);
+      IOUtils.closeQuietly(request);
+      throw e;
+    }
+  }
+
   /**
    * Ends executing this async request.
    *
@@ -83,12 +252,24 @@ public abstract class SimpleServiceRequestBase<T> extends ServiceRequestBase<T>
    * @throws Exception on error
    */
   protected T endInternalExecute(IAsyncResult asyncResult) throws Exception {
-    HttpWebRequest response = (HttpWebRequest) asyncResult.get();
-    return this.readResponse(response);
+    ConcurrencyLimiter.Permit permit = this.beginExecutePermit;
+    this.beginExecutePermit = null;
+    T serviceResponse;
+    try {
+      HttpWebRequest response = (HttpWebRequest) asyncResult.get();
+      serviceResponse = this.readResponse(response);
+    } catch (Exception e) {
+      releaseConcurrencyPermit(permit, null, e);
+      throw e;
+    }
+    releaseConcurrencyPermit(permit, serviceResponse, null);
+    return serviceResponse;
   }
 
   /**
-   * Begins executing this async request.
+   * Begins executing this async request. The calling thread waits for the
+   * concurrency limiter of the service, if any; the permit is released when
+   * the request is ended.
    *
    * @param callback The AsyncCallback delegate.
    * @return An IAsyncResult that references the asynchronous request.
@@ -98,12 +279,50 @@ public abstract class SimpleServiceRequestBase<T> extends ServiceRequestBase<T>
     this.validate();
 
     HttpWebRequest request = this.buildEwsHttpWebRequest();
-    AsyncExecutor es = new AsyncExecutor();
     Callable<?> cl = new CallableMethod(request);
-    Future<?> task = es.submit(cl, callback);
-    es.shutdown();
+    RunnableFuture<?> task = AsyncExecutor.newTask(cl, callback);
+    ConcurrencyLimiter.Permit permit = this.acquireConcurrencyPermit();
+
+    // Set before the task runs, as the callback may end the request right away
+    this.beginExecutePermit = permit;
+    try {
+      this.getService().getAsyncExecutor().execute(task);
+    } catch (RejectedExecutionException e) {
+      this.beginExecutePermit = null;
+      releaseConcurrencyPermit(permit, null, e);
+      throw e;
+    }
 
     return new AsyncRequestResult(this, request, task, null);
   }
 
+
+  /**
+   * The future of a request executed without waiting for the response,
+   * completed by the handler of the request.
+   *
+   * @param <V> the type of the result
+   */
+  protected static class AsyncResponse<V> extends FutureTask<V> implements IResponseHandler<V> {
+
+    AsyncResponse() {
+      super(new Callable<V>() {
+        @Override
+        public V call() {
+          throw new IllegalStateException("The response is completed by its request.");
+        }
+      });
+    }
+
+    @Override
+    public void completed(V response) {
+      this.set(response);
+    }
+
+    @Override
+    public void failed(Exception exception) {
+      this.setException(exception);
+    }
+  }
+
 }
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core.request;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HTTP entity that serializes the request body straight onto the connection,
+ * using chunked transfer-encoding, while the request is being executed.
+ * <p>
+ * The body is produced again by the {@link IRequestContentWriter} every time the
+ * entity is written, e.g. when the request has to be resent during an
+ * authentication handshake. The writer must therefore produce the same body
+ * each time; bodies that can be written only once are buffered instead.
+ * </p>
+ */
+public class StreamingRequestEntity extends AbstractHttpEntity {
+
+  private final IRequestContentWriter contentWriter;
+
+  /**
+   * Constructor for StreamingRequestEntity.
+   *
+   * @param contentWriter the writer that produces the request body
+   */
+  public StreamingRequestEntity(IRequestContentWriter contentWriter) {
+    super();
+    this.contentWriter = contentWriter;
+    setContentType("text/xml; charset=utf-8");
+    setChunked(true);
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  /**
+   * Gets the content as a stream. HttpClient only calls {@link #writeTo}, so
+   * this is only used by callers that inspect the entity; the body is
+   * buffered in memory for them.
+   *
+   * @return a stream over the request body
+   * @throws IOException on error
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeTo(out);
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    try {
+      contentWriter.writeTo(out);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    out.flush();
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+}
@@ -33,6 +33,7 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceXmlDeserializationException;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.GroupedFindItemsResults;
+import microsoft.exchange.webservices.data.search.IFindItemsHandler;
 import microsoft.exchange.webservices.data.search.ItemGroup;
 import microsoft.exchange.webservices.data.security.XmlNodeType;
 
@@ -69,6 +70,11 @@ public final class FindItemResponse
    */
   private PropertySet propertySet;
 
+  /**
+   * The handler of the item, if they are not collected in the results.
+   */
+  private IFindItemsHandler<TItem> itemHandler;
+
   /**
    * Initializes a new instance of the FindItemResponse class.
    *
@@ -84,6 +90,20 @@ public final class FindItemResponse
         .ewsAssert(this.propertySet != null, "FindItemResponse.ctor", "PropertySet should not be null");
   }
 
+  /**
+   * Initializes a new instance of the FindItemResponse class that hands
+   * each item to a handler as soon as it has been read, instead of
+   * collecting the item in the results. Only applies to searches that are
+   * not grouped.
+   *
+   * @param propertySet The property Set
+   * @param itemHandler The handler of the item
+   */
+  public FindItemResponse(PropertySet propertySet, IFindItemsHandler<TItem> itemHandler) {
+    this(false, propertySet);
+    this.itemHandler = itemHandler;
+  }
+
   /**
    * Reads response elements from XML.
    *
@@ -112,7 +132,7 @@ public final class FindItemResponse
       this.results.setNextPageOffset(nextPageOffset);
       this.results.setMoreAvailable(moreItemsAvailable);
       internalReadItemsFromXml(reader, this.propertySet, this.results
-          .getItems());
+          .getItems(), this.itemHandler);
     } else {
       this.groupedFindResults = new GroupedFindItemsResults<TItem>();
       this.groupedFindResults.setTotalCount(totalItemsInView);
@@ -132,7 +152,7 @@ public final class FindItemResponse
 
             ArrayList<TItem> itemList = new ArrayList<TItem>();
             internalReadItemsFromXml(reader, this.propertySet,
-                itemList);
+                itemList, null);
 
             reader.readEndElement(XmlNamespace.Types,
                 XmlElementNames.GroupedItems);
@@ -158,12 +178,13 @@ public final class FindItemResponse
    * @param reader the reader
    * @param propertySet the property set
    * @param destinationList the list in which to add the read item
+   * @param itemHandler the handler of the read item instead of the list, may be null
    * @throws XMLStreamException the XML stream exception
    * @throws ServiceXmlDeserializationException the service xml deserialization exception
    * @throws Exception the exception
    */
   private void internalReadItemsFromXml(EwsServiceXmlReader reader,
-      PropertySet propertySet, List<TItem> destinationList)
+      PropertySet propertySet, List<TItem> destinationList, IFindItemsHandler<TItem> itemHandler)
       throws XMLStreamException, ServiceXmlDeserializationException,
       Exception {
     EwsUtilities.ewsAssert(destinationList != null, "FindItemResponse.InternalReadItemsFromXml",
@@ -185,7 +206,13 @@ public final class FindItemResponse
             item.loadFromXml(reader, true, /* clearPropertyBag */
                 propertySet, true /* summaryPropertiesOnly */);
 
-            destinationList.add((TItem) item);
+            @SuppressWarnings("unchecked")
+            TItem typedItem = (TItem) item;
+            if (itemHandler != null) {
+              itemHandler.handleItem(typedItem);
+            } else {
+              destinationList.add(typedItem);
+            }
           }
         }
       } while (!reader.isEndElement(XmlNamespace.Types,
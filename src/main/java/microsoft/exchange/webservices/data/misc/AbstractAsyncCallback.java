@@ -33,7 +33,7 @@ public abstract class AbstractAsyncCallback implements Runnable, Callback<Object
   private static final Log LOG = LogFactory.getLog(AbstractAsyncCallback.class);
 
   Future<?> task;
-  static boolean callbackProcessed = false;
+  boolean callbackProcessed = false;
 
   AbstractAsyncCallback() {
   }
@@ -23,31 +23,131 @@
 
 package microsoft.exchange.webservices.data.misc;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Runs asynchronous service calls on a bounded number of daemon threads.
+ * Tasks beyond that bound wait in the queue instead of being rejected, and
+ * idle threads time out, so an unused executor holds no threads.
+ */
 public class AsyncExecutor extends ThreadPoolExecutor implements ExecutorService {
-  final static ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(1);
 
+  private static final Log LOG = LogFactory.getLog(AsyncExecutor.class);
+
+  /**
+   * The default maximum number of threads.
+   */
+  public static final int DefaultMaximumThreads = 5;
+
+  private static final AtomicInteger executorCount = new AtomicInteger();
+
+  /**
+   * Initializes a new instance with the default maximum number of threads.
+   */
   public AsyncExecutor() {
-    super(1, 5, 10, TimeUnit.SECONDS, queue);
+    this(DefaultMaximumThreads);
   }
 
+  /**
+   * Initializes a new instance.
+   *
+   * @param maximumThreads the maximum number of threads
+   */
+  public AsyncExecutor(int maximumThreads) {
+    super(maximumThreads, maximumThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new AsyncThreadFactory());
+    this.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Submits a task, calling back once it has completed.
+   *
+   * @param task     the task
+   * @param callback the callback, may be null
+   * @param <T>      the result type
+   * @return the future of the task
+   */
   public <T> Future<T> submit(Callable<T> task, AsyncCallback callback) {
+    RunnableFuture<T> ftask = newTask(task, callback);
+    execute(ftask);
+    return ftask;
+  }
+
+  /**
+   * Creates a task that calls back on the thread that completed it, so that
+   * it can be run by any executor.
+   *
+   * @param task     the task
+   * @param callback the callback, may be null
+   * @param <T>      the result type
+   * @return the task
+   */
+  public static <T> RunnableFuture<T> newTask(Callable<T> task, final AsyncCallback callback) {
     if (task == null) {
       throw new NullPointerException();
     }
-    RunnableFuture<T> ftask = newTaskFor(task);
-    execute(ftask);
-    if (callback != null) {
-      callback.setTask(ftask);
+    if (callback == null) {
+      return new FutureTask<T>(task);
     }
-    new Thread(callback).start();
+
+    FutureTask<T> ftask = new FutureTask<T>(task) {
+      @Override
+      protected void done() {
+        try {
+          callback.processMe(this);
+        } catch (RuntimeException e) {
+          LOG.error("Async callback failed", e);
+        }
+      }
+    };
+    callback.setTask(ftask);
     return ftask;
   }
+
+  /**
+   * Creates an executor starting a virtual thread per task. It is looked up
+   * by reflection, as the library is built for Java versions without virtual
+   * threads.
+   *
+   * @return the executor, or null if virtual threads are not available
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (Exception e) {
+      // Virtual threads are a preview feature before Java 21
+      LOG.debug("Virtual threads are not available", e);
+      return null;
+    }
+  }
+
+  private static class AsyncThreadFactory implements ThreadFactory {
+
+    private final String namePrefix = "ews-async-" + executorCount.incrementAndGet() + "-";
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
@@ -85,6 +85,18 @@ public class ItemIdWrapperList implements Iterable<AbstractItemIdWrapper> {
     }
   }
 
+  /**
+   * Adds the item ids at the specified positions of another list.
+   *
+   * @param itemIds the list to add from
+   * @param indexes the positions in that list
+   */
+  public void addRange(ItemIdWrapperList itemIds, Iterable<Integer> indexes) {
+    for (int index : indexes) {
+      this.itemIds.add(itemIds.itemIds.get(index));
+    }
+  }
+
   /**
    * Adds the specified item id.
    *
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import java.util.Collection;
+
+/**
+ * Receives the events and errors of the subscriptions polled by a
+ * {@link PullSubscriptionPoller}. The methods are called on a single thread,
+ * in the order the events were returned by the server.
+ */
+public interface IPullNotificationHandler {
+
+  /**
+   * Handles the events returned by a GetEvents call.
+   *
+   * @param registration the polled subscription
+   * @param events       the events, never empty
+   * @throws Exception on error; the watermark of the registration is not advanced
+   */
+  void handleEvents(PullSubscriptionPoller.Registration registration, Collection<NotificationEvent> events)
+      throws Exception;
+
+  /**
+   * Handles an error while subscribing or polling. Polling continues at the
+   * maximum poll interval.
+   *
+   * @param registration the polled subscription
+   * @param exception    the error
+   */
+  void handleError(PullSubscriptionPoller.Registration registration, Exception exception);
+}
@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import java.util.Collection;
+
+/**
+ * Receives the notifications that Exchange sends to a
+ * {@link PushNotificationListener}. Notifications of different subscriptions
+ * are handled at the same time on different threads; Exchange sends the
+ * notifications of one subscription one after the other.
+ */
+public interface IPushNotificationHandler {
+
+  /**
+   * Handles a notification of a push subscription.
+   *
+   * @param subscriptionId the Id of the subscription
+   * @param watermark      the watermark of the last event, to resume a new subscription from
+   * @param events         the events, empty for a status notification
+   * @return true to keep the subscription, false to unsubscribe from it
+   * @throws Exception on error; Exchange sends the notification again later
+   */
+  boolean handleNotification(String subscriptionId, String watermark, Collection<NotificationEvent> events)
+      throws Exception;
+}
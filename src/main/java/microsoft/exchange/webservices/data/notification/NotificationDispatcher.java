@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.enumeration.notification.NotificationOverflowPolicy;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs notification delegates on an executor instead of the thread reading
+ * a streaming connection, so that a slow delegate does not stop the
+ * connection from being read.
+ * <p>
+ * The notifications of one subscription are passed to the delegates one at a
+ * time, in the order they were received; those of different subscriptions
+ * run in parallel. The number of notifications waiting is bounded, and a
+ * {@link NotificationOverflowPolicy} decides what happens when it is reached.
+ * Queue depth, discarded notifications and delegate latency are available
+ * as metrics.
+ * </p>
+ *
+ * @see StreamingSubscriptionConnection#setNotificationDispatcher(NotificationDispatcher)
+ */
+public class NotificationDispatcher implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(NotificationDispatcher.class);
+
+  /**
+   * The default maximum number of delegates running at the same time.
+   */
+  public static final int DefaultMaximumThreads = 10;
+
+  /**
+   * The default maximum number of notifications waiting for their delegates.
+   */
+  public static final int DefaultCapacity = 10000;
+
+  private final ExecutorService executor;
+
+  private final boolean ownsExecutor;
+
+  private final NotificationOverflowPolicy overflowPolicy;
+
+  private final int capacity;
+
+  private final Semaphore room;
+
+  // The queue of each subscription with notifications waiting, guarded by itself
+  private final Map<String, SubscriptionQueue> queues = new HashMap<String, SubscriptionQueue>();
+
+  private final AtomicLong dispatchedCount = new AtomicLong();
+
+  private final AtomicLong discardedCount = new AtomicLong();
+
+  private final AtomicLong totalLatency = new AtomicLong();
+
+  private final AtomicLong maximumLatency = new AtomicLong();
+
+  /**
+   * Initializes a new instance with its own executor, the default capacity
+   * and the {@link NotificationOverflowPolicy#Block} policy.
+   */
+  public NotificationDispatcher() {
+    this(new AsyncExecutor(DefaultMaximumThreads), true, DefaultCapacity, NotificationOverflowPolicy.Block);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param executor       the executor running the delegates; it is not shut down by {@link #close()}
+   * @param capacity       the maximum number of notifications waiting for their delegates
+   * @param overflowPolicy what to do with notifications when the capacity is reached
+   */
+  public NotificationDispatcher(ExecutorService executor, int capacity, NotificationOverflowPolicy overflowPolicy) {
+    this(executor, false, capacity, overflowPolicy);
+  }
+
+  private NotificationDispatcher(ExecutorService executor, boolean ownsExecutor, int capacity,
+      NotificationOverflowPolicy overflowPolicy) {
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.room = new Semaphore(capacity);
+  }
+
+  /**
+   * Queues the delegates of a notification. Depending on the overflow
+   * policy, waits for room in the queue or discards the notification.
+   *
+   * @param subscriptionId the subscription the notification is for
+   * @param delegates      calls the delegates
+   * @return false if the notification was discarded
+   * @throws InterruptedException interrupted while waiting for room
+   */
+  public boolean dispatch(String subscriptionId, Runnable delegates) throws InterruptedException {
+    if (overflowPolicy == NotificationOverflowPolicy.Block) {
+      room.acquire();
+    } else if (!room.tryAcquire()) {
+      discardedCount.incrementAndGet();
+      return false;
+    }
+    enqueue(subscriptionId, delegates);
+    return true;
+  }
+
+  /**
+   * Queues the delegates of a notification that must not be lost, such as a
+   * subscription error, waiting for room in the queue whatever the overflow
+   * policy. The delegates run after those already queued for the
+   * subscription.
+   *
+   * @param subscriptionId the subscription the notification is for
+   * @param delegates      calls the delegates
+   * @throws InterruptedException interrupted while waiting for room
+   */
+  public void dispatchBlocking(String subscriptionId, Runnable delegates) throws InterruptedException {
+    room.acquire();
+    enqueue(subscriptionId, delegates);
+  }
+
+  private void enqueue(String subscriptionId, Runnable delegates) {
+
+    SubscriptionQueue queue;
+    boolean start;
+    synchronized (queues) {
+      queue = queues.get(subscriptionId);
+      if (queue == null) {
+        queue = new SubscriptionQueue(subscriptionId);
+        queues.put(subscriptionId, queue);
+      }
+      queue.tasks.add(delegates);
+      start = !queue.running;
+      queue.running = true;
+    }
+
+    if (start) {
+      try {
+        executor.execute(queue);
+      } catch (RuntimeException e) {
+        synchronized (queues) {
+          queues.remove(subscriptionId);
+          room.release(queue.tasks.size());
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of notifications waiting for or running their delegates.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    return capacity - room.availablePermits();
+  }
+
+  /**
+   * Gets the number of notifications whose delegates have run.
+   *
+   * @return the number of notifications
+   */
+  public long getDispatchedCount() {
+    return dispatchedCount.get();
+  }
+
+  /**
+   * Gets the number of notifications discarded because the queue was full.
+   *
+   * @return the number of notifications
+   */
+  public long getDiscardedCount() {
+    return discardedCount.get();
+  }
+
+  /**
+   * Gets the average time the delegates of a notification took.
+   *
+   * @return the latency in milliseconds
+   */
+  public double getAverageHandlerLatency() {
+    long count = dispatchedCount.get();
+    return count == 0 ? 0 : totalLatency.get() / 1000000.0 / count;
+  }
+
+  /**
+   * Gets the longest time the delegates of a notification took.
+   *
+   * @return the latency in milliseconds
+   */
+  public double getMaximumHandlerLatency() {
+    return maximumLatency.get() / 1000000.0;
+  }
+
+  /**
+   * Shuts down the executor if it was created by this dispatcher. Waiting
+   * notifications are still passed to their delegates.
+   */
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  private void record(long latency) {
+    dispatchedCount.incrementAndGet();
+    totalLatency.addAndGet(latency);
+    long maximum;
+    while (latency > (maximum = maximumLatency.get()) && !maximumLatency.compareAndSet(maximum, latency)) {
+      // Another thread recorded a latency meanwhile; compare again
+    }
+  }
+
+  /**
+   * The notifications of one subscription. Runs one notification at a time
+   * and then gives the thread back to the executor, so that a busy
+   * subscription does not keep a thread from the others.
+   */
+  private final class SubscriptionQueue implements Runnable {
+
+    private final String subscriptionId;
+
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+    private boolean running;
+
+    private SubscriptionQueue(String subscriptionId) {
+      this.subscriptionId = subscriptionId;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable task;
+        synchronized (queues) {
+          task = tasks.poll();
+        }
+
+        long start = System.nanoTime();
+        try {
+          task.run();
+        } catch (Throwable e) {
+          // Errors are caught too; otherwise the queue would stay marked as
+          // running and later notifications of the subscription would never run
+          LOG.error("Notification delegate failed for subscription " + subscriptionId, e);
+        } finally {
+          record(System.nanoTime() - start);
+          room.release();
+        }
+
+        synchronized (queues) {
+          if (tasks.isEmpty()) {
+            running = false;
+            queues.remove(subscriptionId);
+            return;
+          }
+        }
+        try {
+          executor.execute(this);
+          return;
+        } catch (RejectedExecutionException e) {
+          // The executor is shut down; run the remaining notifications on this thread
+        }
+      }
+    }
+  }
+}
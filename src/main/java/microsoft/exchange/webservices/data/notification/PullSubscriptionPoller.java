@@ -0,0 +1,515 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls many pull subscriptions with GetEvents on a small pool of threads.
+ * <p>
+ * Polls are scheduled on a hashed timer wheel, so that scheduling costs the
+ * same for tens of thousands of subscriptions as for a few. The poll
+ * interval of each subscription adapts to its event rate: it is halved when
+ * events are returned, doubled when none are, and a subscription with more
+ * events available is polled again right away. A subscription that expired
+ * or was lost by the server is created again from its last watermark, so no
+ * events are missed.
+ * </p>
+ * <p>
+ * Events are passed to an {@link IPullNotificationHandler} on a single
+ * thread through a bounded queue. When the handler falls behind, polling
+ * waits for room in the queue instead of buffering without limit.
+ * </p>
+ */
+public class PullSubscriptionPoller implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(PullSubscriptionPoller.class);
+
+  /**
+   * The default maximum number of subscriptions polled at the same time.
+   */
+  public static final int DefaultMaximumThreads = 10;
+
+  /**
+   * The default number of event batches waiting for the handler.
+   */
+  public static final int DefaultQueueCapacity = 1000;
+
+  /**
+   * The default shortest time between two polls of a subscription, in milliseconds.
+   */
+  public static final int DefaultMinimumPollInterval = 1000;
+
+  /**
+   * The default longest time between two polls of a subscription, in milliseconds.
+   */
+  public static final int DefaultMaximumPollInterval = 60000;
+
+  // The resolution of the timer wheel, in milliseconds
+  private static final int TickDuration = 100;
+
+  // The number of slots of the timer wheel, a round of 51.2 seconds
+  private static final int WheelSize = 512;
+
+  private final IPullNotificationHandler handler;
+
+  private final ExecutorService executor;
+
+  private final BlockingQueue<Delivery> deliveries;
+
+  private final List<List<Registration>> wheel = new ArrayList<List<Registration>>(WheelSize);
+
+  // The next tick of the wheel to expire, guarded by the wheel
+  private long tick;
+
+  private final Thread timerThread;
+
+  private final Thread dispatcherThread;
+
+  private final Random random = new Random();
+
+  private volatile int minimumPollInterval = DefaultMinimumPollInterval;
+
+  private volatile int maximumPollInterval = DefaultMaximumPollInterval;
+
+  private volatile boolean closed;
+
+  /**
+   * Initializes a new instance with the default number of threads and queue capacity.
+   *
+   * @param handler the handler of the events
+   */
+  public PullSubscriptionPoller(IPullNotificationHandler handler) {
+    this(handler, DefaultMaximumThreads, DefaultQueueCapacity);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param handler        the handler of the events
+   * @param maximumThreads the maximum number of subscriptions polled at the same time
+   * @param queueCapacity  the number of event batches that may wait for the handler
+   */
+  public PullSubscriptionPoller(IPullNotificationHandler handler, int maximumThreads, int queueCapacity) {
+    this.handler = handler;
+    this.executor = new AsyncExecutor(maximumThreads);
+    this.deliveries = new ArrayBlockingQueue<Delivery>(queueCapacity);
+    for (int i = 0; i < WheelSize; i++) {
+      wheel.add(new ArrayList<Registration>());
+    }
+
+    timerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runTimer();
+      }
+    }, "PullSubscriptionPoller-timer");
+    timerThread.setDaemon(true);
+    timerThread.start();
+
+    dispatcherThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runDispatcher();
+      }
+    }, "PullSubscriptionPoller-dispatcher");
+    dispatcherThread.setDaemon(true);
+    dispatcherThread.start();
+  }
+
+  /**
+   * Sets the shortest time between two polls of a subscription.
+   *
+   * @param minimumPollInterval the interval in milliseconds
+   */
+  public void setMinimumPollInterval(int minimumPollInterval) {
+    this.minimumPollInterval = minimumPollInterval;
+  }
+
+  /**
+   * Sets the longest time between two polls of a subscription.
+   *
+   * @param maximumPollInterval the interval in milliseconds
+   */
+  public void setMaximumPollInterval(int maximumPollInterval) {
+    this.maximumPollInterval = maximumPollInterval;
+  }
+
+  /**
+   * Starts polling a new pull subscription. The subscription is created on
+   * a pool thread; errors are passed to the handler.
+   *
+   * @param service    the service
+   * @param folderIds  the folder to subscribe to, or null for all folder
+   * @param timeout    the subscription timeout, in minutes
+   * @param watermark  the watermark to resume from, or null
+   * @param context    an object identifying the subscription to the handler, such as the mailbox
+   * @param eventTypes the event types to subscribe to
+   * @return the registration
+   */
+  public Registration add(ExchangeService service, Iterable<FolderId> folderIds, int timeout,
+      String watermark, Object context, EventType... eventTypes) {
+    Registration registration = new Registration(service, folderIds, timeout, watermark, context, eventTypes);
+    registration.pollInterval = minimumPollInterval;
+
+    // Spread the first polls, so that adding many subscriptions at once does
+    // not send all their requests at once
+    int delay;
+    synchronized (random) {
+      delay = random.nextInt(Math.max(1, minimumPollInterval));
+    }
+    schedule(registration, delay);
+    return registration;
+  }
+
+  /**
+   * Stops polling a subscription and unsubscribes from it on a pool thread.
+   *
+   * @param registration the registration
+   */
+  public void remove(final Registration registration) {
+    registration.cancelled = true;
+    final PullSubscription subscription = registration.subscription;
+    if (subscription != null && !closed) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            subscription.unsubscribe();
+          } catch (Exception e) {
+            deliver(new Delivery(registration, null, null, e));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops polling. Subscriptions are left to expire on the server, so that
+   * they can be resumed from their watermarks.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    timerThread.interrupt();
+    dispatcherThread.interrupt();
+    executor.shutdownNow();
+  }
+
+  private void schedule(Registration registration, long delay) {
+    long ticks = Math.max(1, (delay + TickDuration - 1) / TickDuration);
+    synchronized (wheel) {
+      registration.deadline = tick + ticks - 1;
+      wheel.get((int) (registration.deadline % WheelSize)).add(registration);
+    }
+  }
+
+  private void runTimer() {
+    long start = System.nanoTime();
+    try {
+      while (!closed) {
+        List<Registration> due = new ArrayList<Registration>();
+        synchronized (wheel) {
+          long sleep = start / 1000000 + (tick + 1) * TickDuration - System.nanoTime() / 1000000;
+          if (sleep > 0) {
+            wheel.wait(sleep);
+            continue;
+          }
+          Iterator<Registration> slot = wheel.get((int) (tick % WheelSize)).iterator();
+          while (slot.hasNext()) {
+            Registration registration = slot.next();
+            if (registration.deadline <= tick) {
+              slot.remove();
+              due.add(registration);
+            }
+          }
+          tick++;
+        }
+
+        for (final Registration registration : due) {
+          if (!registration.cancelled) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                poll(registration);
+              }
+            });
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void poll(Registration registration) {
+    int pollInterval = maximumPollInterval;
+    try {
+      if (registration.subscription == null) {
+        registration.subscription = subscribe(registration);
+      }
+
+      GetEventsResults results;
+      try {
+        results = registration.subscription.getEvents();
+      } catch (ServiceResponseException e) {
+        if (!isSubscriptionLost(e.getErrorCode())) {
+          throw e;
+        }
+        registration.subscription = null;
+        schedule(registration, minimumPollInterval);
+        return;
+      }
+
+      if (results.getNewWatermark() != null) {
+        registration.resumeWatermark = results.getNewWatermark();
+      }
+      Collection<NotificationEvent> events = results.getAllEvents();
+      if (events.isEmpty()) {
+        // Nothing to handle; the watermark may only move past earlier
+        // batches once they are handled
+        if (registration.pendingDeliveries.get() == 0) {
+          registration.watermark = results.getNewWatermark();
+        }
+        pollInterval = Math.min(maximumPollInterval, registration.pollInterval * 2);
+      } else {
+        registration.pendingDeliveries.incrementAndGet();
+        deliveries.put(new Delivery(registration, events, results.getNewWatermark(), null));
+        pollInterval = results.isMoreEventsAvailable() ? 0
+            : Math.max(minimumPollInterval, registration.pollInterval / 2);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (Exception e) {
+      deliver(new Delivery(registration, null, null, e));
+    }
+
+    registration.pollInterval = Math.max(minimumPollInterval, pollInterval);
+    if (!registration.cancelled && !closed) {
+      schedule(registration, pollInterval);
+    }
+  }
+
+  /**
+   * Creates the subscription of a registration, from the last known
+   * watermark. If the server no longer knows the watermark, the handler is
+   * told that events may have been missed and a new subscription is created
+   * without one.
+   */
+  private PullSubscription subscribe(Registration registration) throws Exception {
+    String watermark = registration.resumeWatermark;
+    try {
+      return registration.subscribe(watermark);
+    } catch (ServiceResponseException e) {
+      if (watermark == null || e.getErrorCode() != ServiceError.ErrorInvalidWatermark) {
+        throw e;
+      }
+      deliver(new Delivery(registration, null, null, e));
+      return registration.subscribe(null);
+    }
+  }
+
+  private static boolean isSubscriptionLost(ServiceError error) {
+    return error == ServiceError.ErrorSubscriptionNotFound
+        || error == ServiceError.ErrorExpiredSubscription
+        || error == ServiceError.ErrorInvalidSubscription
+        || error == ServiceError.ErrorInvalidPullSubscriptionId
+        || error == ServiceError.ErrorSubscriptionUnsubscribed;
+  }
+
+  private void deliver(Delivery delivery) {
+    try {
+      deliveries.put(delivery);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runDispatcher() {
+    try {
+      while (!closed) {
+        Delivery delivery = deliveries.take();
+        Registration registration = delivery.registration;
+        if (delivery.exception != null) {
+          handleError(registration, delivery.exception);
+          continue;
+        }
+
+        try {
+          handler.handleEvents(registration, delivery.events);
+          registration.watermark = delivery.watermark;
+        } catch (Exception e) {
+          handleError(registration, e);
+        } catch (Throwable e) {
+          // The dispatcher thread must keep running, or the poll threads
+          // would wait forever for room in the queue
+          LOG.error("Pull notification handler failed", e);
+        } finally {
+          registration.pendingDeliveries.decrementAndGet();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handleError(Registration registration, Exception exception) {
+    try {
+      handler.handleError(registration, exception);
+    } catch (Throwable e) {
+      // The dispatcher thread must keep running for the other subscriptions
+      LOG.error("Pull notification error handler failed", e);
+    }
+  }
+
+  /**
+   * A pull subscription polled by a {@link PullSubscriptionPoller}.
+   */
+  public static final class Registration {
+
+    private final ExchangeService service;
+
+    private final Iterable<FolderId> folderIds;
+
+    private final int timeout;
+
+    private final EventType[] eventTypes;
+
+    private final Object context;
+
+    // The watermark of the last poll, to create the subscription again from
+    private volatile String resumeWatermark;
+
+    private final AtomicInteger pendingDeliveries = new AtomicInteger();
+
+    private volatile PullSubscription subscription;
+
+    private volatile String watermark;
+
+    private volatile int pollInterval;
+
+    private volatile boolean cancelled;
+
+    // The tick the next poll is due at, guarded by the wheel
+    private long deadline;
+
+    private Registration(ExchangeService service, Iterable<FolderId> folderIds, int timeout,
+        String watermark, Object context, EventType[] eventTypes) {
+      this.service = service;
+      this.folderIds = folderIds;
+      this.timeout = timeout;
+      this.resumeWatermark = watermark;
+      this.watermark = watermark;
+      this.context = context;
+      this.eventTypes = eventTypes;
+    }
+
+    private PullSubscription subscribe(String watermark) throws Exception {
+      return folderIds != null
+          ? service.subscribeToPullNotifications(folderIds, timeout, watermark, eventTypes)
+          : service.subscribeToPullNotificationsOnAllFolders(timeout, watermark, eventTypes);
+    }
+
+    /**
+     * Gets the object identifying the subscription, as passed to
+     * {@link PullSubscriptionPoller#add}.
+     *
+     * @return the context
+     */
+    public Object getContext() {
+      return context;
+    }
+
+    /**
+     * Gets the current subscription. It changes when the subscription is
+     * created again after it expired.
+     *
+     * @return the subscription, or null if none is created yet
+     */
+    public PullSubscription getSubscription() {
+      return subscription;
+    }
+
+    /**
+     * Gets the watermark up to which all events were handled. Adding a
+     * registration with this watermark after a restart resumes without
+     * missing events.
+     *
+     * @return the watermark, or null if none is known yet
+     */
+    public String getWatermark() {
+      return watermark;
+    }
+
+    /**
+     * Gets the current time between two polls.
+     *
+     * @return the poll interval in milliseconds
+     */
+    public int getPollInterval() {
+      return pollInterval;
+    }
+  }
+
+  /**
+   * Events or an error waiting for the handler.
+   */
+  private static final class Delivery {
+
+    private final Registration registration;
+
+    private final Collection<NotificationEvent> events;
+
+    private final String watermark;
+
+    private final Exception exception;
+
+    private Delivery(Registration registration, Collection<NotificationEvent> events, String watermark,
+        Exception exception) {
+      this.registration = registration;
+      this.events = events;
+      this.watermark = watermark;
+      this.exception = exception;
+    }
+  }
+}
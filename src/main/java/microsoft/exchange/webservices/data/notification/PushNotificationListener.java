@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import microsoft.exchange.webservices.data.core.EwsServiceXmlReader;
+import microsoft.exchange.webservices.data.core.EwsUtilities;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.XmlElementNames;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.response.GetEventsResponse;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
+import microsoft.exchange.webservices.data.security.XmlNodeType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Receives the SendNotification requests that Exchange posts to the URL of a
+ * {@link PushSubscription}, and answers them with a SendNotificationResult.
+ * <p>
+ * The listener is an embedded HTTP server on the JDK's non-blocking
+ * {@code com.sun.net.httpserver} implementation. Requests are parsed with
+ * {@link EwsServiceXmlReader} and passed to an {@link IPushNotificationHandler}
+ * on a bounded pool of threads. The response is sent once the handler has
+ * returned, so a notification that failed is sent again by Exchange.
+ * </p>
+ */
+public class PushNotificationListener implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(PushNotificationListener.class);
+
+  /**
+   * The default maximum number of notifications handled at the same time.
+   */
+  public static final int DefaultMaximumThreads = 20;
+
+  /**
+   * The default number of seconds {@link #close()} waits for the
+   * notifications being handled.
+   */
+  public static final int DefaultCloseDelay = 5;
+
+  // The number of connections that may wait to be accepted
+  private static final int Backlog = 1024;
+
+  private static final byte[] OkResult = createResult("OK");
+
+  private static final byte[] UnsubscribeResult = createResult("Unsubscribe");
+
+  private final ExchangeService service;
+
+  private final IPushNotificationHandler handler;
+
+  private final ExecutorService executor;
+
+  private final HttpServer server;
+
+  // Guards the number of notifications being handled, and closing
+  private final Object handlingLock = new Object();
+
+  private int handlingCount;
+
+  private boolean closing;
+
+  static {
+    // The server sends the response headers and body in separate writes.
+    // With Nagle's algorithm the body then waits for the delayed ACK of the
+    // headers, about 40 ms per notification. Read once, when the first
+    // server is created; an application may still set it otherwise.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  /**
+   * Initializes a new instance with the default maximum number of threads,
+   * and starts listening.
+   *
+   * @param service the service, used to read dates in the notifications
+   * @param address the address to listen on; port 0 picks a free port
+   * @param handler the handler of the notifications
+   * @throws IOException the address could not be bound
+   */
+  public PushNotificationListener(ExchangeService service, InetSocketAddress address,
+      IPushNotificationHandler handler) throws IOException {
+    this(service, address, handler, DefaultMaximumThreads);
+  }
+
+  /**
+   * Initializes a new instance and starts listening.
+   *
+   * @param service        the service, used to read dates in the notifications
+   * @param address        the address to listen on; port 0 picks a free port
+   * @param handler        the handler of the notifications
+   * @param maximumThreads the maximum number of notifications handled at the same time
+   * @throws IOException the address could not be bound
+   */
+  public PushNotificationListener(ExchangeService service, InetSocketAddress address,
+      IPushNotificationHandler handler, int maximumThreads) throws IOException {
+    this.service = service;
+    this.handler = handler;
+    this.executor = new AsyncExecutor(maximumThreads);
+    this.server = HttpServer.create(address, Backlog);
+    this.server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange);
+      }
+    });
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  /**
+   * Gets the address the listener is bound to, to build the URL passed to
+   * subscribeToPushNotifications.
+   *
+   * @return the address
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * Stops listening, waiting up to {@link #DefaultCloseDelay} seconds for the
+   * notifications being handled to be answered.
+   */
+  @Override
+  public void close() {
+    this.close(DefaultCloseDelay);
+  }
+
+  /**
+   * Stops listening, waiting up to a number of seconds for the notifications
+   * being handled to be answered. Notifications arriving meanwhile are
+   * answered with 503, and those still being handled after the delay are
+   * not answered, so Exchange sends them again.
+   *
+   * @param delay the maximum number of seconds to wait
+   */
+  public void close(int delay) {
+    // Wait here rather than in HttpServer.stop, which may wait for the whole
+    // delay even when no notification is being handled
+    long deadline = System.currentTimeMillis() + delay * 1000L;
+    synchronized (handlingLock) {
+      closing = true;
+      long remaining;
+      while (handlingCount > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          handlingLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    synchronized (handlingLock) {
+      if (closing) {
+        // Exchange sends the notification again later
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+        return;
+      }
+      handlingCount++;
+    }
+    try {
+      if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      List<GetEventsResults> notifications;
+      try {
+        notifications = readNotifications(exchange.getRequestBody());
+      } catch (Exception e) {
+        LOG.warn("Could not read notification from " + exchange.getRemoteAddress(), e);
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+
+      boolean keepSubscription = true;
+      try {
+        for (GetEventsResults notification : notifications) {
+          keepSubscription &= handler.handleNotification(notification.getSubscriptionId(),
+              notification.getNewWatermark(), notification.getAllEvents());
+        }
+      } catch (Exception e) {
+        LOG.error("Notification handler failed", e);
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+
+      byte[] result = keepSubscription ? OkResult : UnsubscribeResult;
+      exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+      exchange.sendResponseHeaders(200, result.length);
+      OutputStream body = exchange.getResponseBody();
+      body.write(result);
+      body.close();
+    } finally {
+      exchange.close();
+      synchronized (handlingLock) {
+        if (--handlingCount == 0) {
+          handlingLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the notifications of a SendNotification request.
+   */
+  private List<GetEventsResults> readNotifications(InputStream stream) throws Exception {
+    EwsServiceXmlReader reader = new EwsServiceXmlReader(stream, service);
+    reader.read(new XmlNodeType(XmlNodeType.START_DOCUMENT));
+    reader.readStartElement(XmlNamespace.Soap, XmlElementNames.SOAPEnvelopeElementName);
+    reader.read();
+    if (reader.isStartElement(XmlNamespace.Soap, XmlElementNames.SOAPHeaderElementName)) {
+      reader.skipCurrentElement();
+      reader.read();
+    }
+    reader.ensureCurrentNodeIsStartElement(XmlNamespace.Soap, XmlElementNames.SOAPBodyElementName);
+    reader.readStartElement(XmlNamespace.Messages, XmlElementNames.SendNotification);
+    reader.readStartElement(XmlNamespace.Messages, XmlElementNames.ResponseMessages);
+
+    List<GetEventsResults> notifications = new ArrayList<GetEventsResults>();
+    reader.read();
+    while (reader.isStartElement(XmlNamespace.Messages, XmlElementNames.SendNotificationResponseMessage)) {
+      GetEventsResponse response = new GetEventsResponse();
+      response.loadFromXml(reader, XmlElementNames.SendNotificationResponseMessage);
+      if (response.getResult() != ServiceResult.Error) {
+        notifications.add(response.getResults());
+      }
+      reader.read();
+    }
+    return notifications;
+  }
+
+  private static byte[] createResult(String subscriptionStatus) {
+    String result = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+        + "<soap:Envelope xmlns:soap=\"" + EwsUtilities.getNamespaceUri(XmlNamespace.Soap) + "\">"
+        + "<soap:Body>"
+        + "<" + XmlElementNames.SendNotificationResult + " xmlns=\"" + EwsUtilities.EwsMessagesNamespace + "\">"
+        + "<" + XmlElementNames.SubscriptionStatus + ">" + subscriptionStatus
+        + "</" + XmlElementNames.SubscriptionStatus + ">"
+        + "</" + XmlElementNames.SendNotificationResult + ">"
+        + "</soap:Body>"
+        + "</soap:Envelope>";
+    try {
+      return result.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -42,9 +42,10 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents a connection to an ongoing stream of events.
@@ -57,8 +58,10 @@ public final class StreamingSubscriptionConnection implements Closeable,
 
   /**
    * Mapping of streaming id to subscriptions currently on the connection.
+   * Read without locking by the thread reading the connection; null once
+   * disposed.
    */
-  private Map<String, StreamingSubscription> subscriptions;
+  private volatile ConcurrentMap<String, StreamingSubscription> subscriptions;
 
   /**
    * connection lifetime, in minutes
@@ -73,13 +76,19 @@ public final class StreamingSubscriptionConnection implements Closeable,
   /**
    * Value indicating whether the class is disposed.
    */
-  private boolean isDisposed;
+  private volatile boolean isDisposed;
 
   /**
    * Currently used instance of a GetStreamingEventsRequest connected to EWS.
    */
   private GetStreamingEventsRequest currentHangingRequest;
 
+  /**
+   * Runs the notification and subscription error delegates, or null to run
+   * them on the thread reading the connection.
+   */
+  private volatile NotificationDispatcher notificationDispatcher;
+
 
   public interface INotificationEventDelegate {
     /**
@@ -98,7 +107,8 @@ public final class StreamingSubscriptionConnection implements Closeable,
    * Notification events Occurs when notification are received from the
    * server.
    */
-  private List<INotificationEventDelegate> onNotificationEvent = new ArrayList<INotificationEventDelegate>();
+  private List<INotificationEventDelegate> onNotificationEvent =
+      new CopyOnWriteArrayList<INotificationEventDelegate>();
 
   /**
    * Set event to happen when property Notify.
@@ -145,7 +155,8 @@ public final class StreamingSubscriptionConnection implements Closeable,
   /**
    * Subscription events Occur when a subscription encounters an error.
    */
-  private List<ISubscriptionErrorDelegate> onSubscriptionError = new ArrayList<ISubscriptionErrorDelegate>();
+  private List<ISubscriptionErrorDelegate> onSubscriptionError =
+      new CopyOnWriteArrayList<ISubscriptionErrorDelegate>();
 
   /**
    * Set event to happen when property subscriptionError.
@@ -178,7 +189,8 @@ public final class StreamingSubscriptionConnection implements Closeable,
    * Disconnect events Occurs when a streaming subscription connection is
    * disconnected from the server.
    */
-  private List<ISubscriptionErrorDelegate> onDisconnect = new ArrayList<ISubscriptionErrorDelegate>();
+  private List<ISubscriptionErrorDelegate> onDisconnect =
+      new CopyOnWriteArrayList<ISubscriptionErrorDelegate>();
 
   /**
    * Set event to happen when property disconnect.
@@ -205,6 +217,29 @@ public final class StreamingSubscriptionConnection implements Closeable,
     onDisconnect.clear();
   }
 
+  /**
+   * Gets the dispatcher running the notification and subscription error
+   * delegates.
+   *
+   * @return the dispatcher, or null if the delegates run on the thread
+   * reading the connection
+   */
+  public NotificationDispatcher getNotificationDispatcher() {
+    return this.notificationDispatcher;
+  }
+
+  /**
+   * Sets the dispatcher running the notification and subscription error
+   * delegates. By default they run on the thread reading the connection, so
+   * a slow delegate delays reading and may cause Exchange to drop the
+   * connection. Disconnect delegates always run on the reading thread.
+   *
+   * @param notificationDispatcher the dispatcher, or null
+   */
+  public void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+    this.notificationDispatcher = notificationDispatcher;
+  }
+
   /**
    * Initializes a new instance of the StreamingSubscriptionConnection class.
    *
@@ -226,7 +261,7 @@ public final class StreamingSubscriptionConnection implements Closeable,
     }
 
     this.session = service;
-    this.subscriptions = new HashMap<String, StreamingSubscription>();
+    this.subscriptions = new ConcurrentHashMap<String, StreamingSubscription>();
     this.connectionTimeout = lifetime;
   }
 
@@ -262,12 +297,7 @@ public final class StreamingSubscriptionConnection implements Closeable,
     EwsUtilities.validateParam(subscription, "subscription");
     this.validateConnectionState(false, "Subscriptions can't be added to an open connection.");
 
-    synchronized (this) {
-      if (this.subscriptions.containsKey(subscription.getId())) {
-        return;
-      }
-      this.subscriptions.put(subscription.getId(), subscription);
-    }
+    this.subscriptions.putIfAbsent(subscription.getId(), subscription);
   }
 
   /**
@@ -284,9 +314,7 @@ public final class StreamingSubscriptionConnection implements Closeable,
 
     this.validateConnectionState(false, "Subscriptions can't be removed from an open connection.");
 
-    synchronized (this) {
-      this.subscriptions.remove(subscription.getId());
-    }
+    this.subscriptions.remove(subscription.getId());
   }
 
   /**
@@ -308,7 +336,7 @@ public final class StreamingSubscriptionConnection implements Closeable,
       }
 
       this.currentHangingRequest = new GetStreamingEventsRequest(
-          this.session, this, this.subscriptions.keySet(),
+          this.session, this, new ArrayList<String>(this.subscriptions.keySet()),
           this.connectionTimeout);
 
       this.currentHangingRequest.addOnDisconnectEvent(this);
@@ -443,36 +471,23 @@ public final class StreamingSubscriptionConnection implements Closeable,
         gseResponse);
 
     for (String id : gseResponse.getErrorSubscriptionIds()) {
-      StreamingSubscription subscription = null;
-
-      synchronized (this) {
-        // Client can do any good or bad things in the below event
-        // handler
-        if (this.subscriptions != null
-            && this.subscriptions.containsKey(id)) {
-          subscription = this.subscriptions.get(id);
-        }
-
-      }
+      StreamingSubscription subscription = this.getSubscription(id);
       if (subscription != null) {
-        SubscriptionErrorEventArgs eventArgs = new SubscriptionErrorEventArgs(
+        final SubscriptionErrorEventArgs eventArgs = new SubscriptionErrorEventArgs(
             subscription, exception);
 
-        if (!onSubscriptionError.isEmpty()) {
-          for (ISubscriptionErrorDelegate subError : onSubscriptionError) {
-            subError.subscriptionErrorDelegate(this, eventArgs);
+        this.dispatch(id, new Runnable() {
+          @Override
+          public void run() {
+            fireSubscriptionError(eventArgs);
           }
-        }
+        }, true);
       }
       if (gseResponse.getErrorCode() != ServiceError.ErrorMissedNotificationEvents) {
-        // Client can do any good or bad things in the above event
-        // handler
-        synchronized (this) {
-          if (this.subscriptions != null
-              && this.subscriptions.containsKey(id)) {
-            // We are no longer servicing the subscription.
-            this.subscriptions.remove(id);
-          }
+        ConcurrentMap<String, StreamingSubscription> subscriptions = this.subscriptions;
+        if (subscriptions != null) {
+          // We are no longer servicing the subscription.
+          subscriptions.remove(id);
         }
       }
     }
@@ -487,6 +502,15 @@ public final class StreamingSubscriptionConnection implements Closeable,
     SubscriptionErrorEventArgs eventArgs = new SubscriptionErrorEventArgs(
         null, new ServiceResponseException(gseResponse));
 
+    this.fireSubscriptionError(eventArgs);
+  }
+
+  /**
+   * Calls the subscription error delegates.
+   *
+   * @param eventArgs The event data.
+   */
+  private void fireSubscriptionError(SubscriptionErrorEventArgs eventArgs) {
     if (!onSubscriptionError.isEmpty()) {
       for (ISubscriptionErrorDelegate subError : onSubscriptionError) {
         subError.subscriptionErrorDelegate(this, eventArgs);
@@ -503,27 +527,74 @@ public final class StreamingSubscriptionConnection implements Closeable,
 
     for (GetStreamingEventsResults.NotificationGroup events : gseResponse
         .getResults().getNotifications()) {
-      StreamingSubscription subscription = null;
-
-      synchronized (this) {
-        // Client can do any good or bad things in the below event
-        // handler
-        if (this.subscriptions != null
-            && this.subscriptions
-            .containsKey(events.subscriptionId)) {
-          subscription = this.subscriptions
-              .get(events.subscriptionId);
-        }
-      }
+      StreamingSubscription subscription = this.getSubscription(events.subscriptionId);
       if (subscription != null) {
-        NotificationEventArgs eventArgs = new NotificationEventArgs(
+        final NotificationEventArgs eventArgs = new NotificationEventArgs(
             subscription, events.events);
 
-        if (!onNotificationEvent.isEmpty()) {
-          for (INotificationEventDelegate notifyEvent : onNotificationEvent) {
-            notifyEvent.notificationEventDelegate(this, eventArgs);
+        this.dispatch(events.subscriptionId, new Runnable() {
+          @Override
+          public void run() {
+            fireNotificationEvent(eventArgs);
           }
-        }
+        }, false);
+      }
+    }
+  }
+
+  /**
+   * Gets a subscription on this connection.
+   *
+   * @param id The subscription id.
+   * @return the subscription, or null if it is not on this connection or the
+   * connection is disposed
+   */
+  private StreamingSubscription getSubscription(String id) {
+    ConcurrentMap<String, StreamingSubscription> subscriptions = this.subscriptions;
+    return subscriptions != null ? subscriptions.get(id) : null;
+  }
+
+  /**
+   * Calls the notification delegates.
+   *
+   * @param eventArgs The event data.
+   */
+  private void fireNotificationEvent(NotificationEventArgs eventArgs) {
+    if (!onNotificationEvent.isEmpty()) {
+      for (INotificationEventDelegate notifyEvent : onNotificationEvent) {
+        notifyEvent.notificationEventDelegate(this, eventArgs);
+      }
+    }
+  }
+
+  /**
+   * Runs delegates through the notification dispatcher, or right away if
+   * there is none. Subscription errors are never discarded: the subscription
+   * is removed from the connection, and the error is the only way its owner
+   * learns about it.
+   *
+   * @param subscriptionId The subscription the delegates are called for.
+   * @param delegates      Calls the delegates.
+   * @param isError        Whether the delegates report a subscription error.
+   */
+  private void dispatch(String subscriptionId, Runnable delegates, boolean isError) {
+    NotificationDispatcher dispatcher = this.notificationDispatcher;
+    if (dispatcher == null) {
+      delegates.run();
+      return;
+    }
+
+    try {
+      if (isError) {
+        dispatcher.dispatchBlocking(subscriptionId, delegates);
+      } else if (!dispatcher.dispatch(subscriptionId, delegates)) {
+        LOG.debug("Notification discarded for subscription " + subscriptionId);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      if (isError) {
+        // Rather than lose the error, report it on this thread
+        delegates.run();
       }
     }
   }
@@ -0,0 +1,670 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads streaming subscriptions over a pool of
+ * {@link StreamingSubscriptionConnection}s and keeps them open.
+ * <p>
+ * A subscription is placed on the fullest connection that has room for it,
+ * so that the subscriptions use as few connections, sockets and reader
+ * threads as possible; a new connection is only created when all are full.
+ * Because subscriptions can't be added to an open connection, a connection
+ * whose subscriptions change is closed and opened again with the new set.
+ * </p>
+ * <p>
+ * A connection that is disconnected, because its lifetime ended or because
+ * of an error, is opened again after a jittered, exponentially growing
+ * delay. Connections that are disconnected at the same time are merged when
+ * they are opened again, so that a server restart leaves no half-empty
+ * connections behind.
+ * </p>
+ * <p>
+ * The events and errors of all connections are passed to the delegates of
+ * the manager, with the manager as sender.
+ * </p>
+ */
+public class StreamingSubscriptionManager implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(StreamingSubscriptionManager.class);
+
+  /**
+   * The maximum number of subscriptions Exchange allows on one connection.
+   */
+  public static final int MaximumSubscriptionsPerConnection = 200;
+
+  /**
+   * The default maximum number of connections, the default limit of
+   * concurrent streaming connections per user of Exchange.
+   */
+  public static final int DefaultMaximumConnections = 10;
+
+  /**
+   * The default delay before the first attempt to open a connection again, in milliseconds.
+   */
+  public static final int DefaultInitialReconnectDelay = 1000;
+
+  /**
+   * The default longest delay between attempts to open a connection again, in milliseconds.
+   */
+  public static final int DefaultMaximumReconnectDelay = 60000;
+
+  private final ExchangeService service;
+
+  private final int lifetime;
+
+  private final int maximumConnections;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final Random random = new Random();
+
+  private final List<StreamingSubscriptionConnection.INotificationEventDelegate> onNotificationEvent =
+      new CopyOnWriteArrayList<StreamingSubscriptionConnection.INotificationEventDelegate>();
+
+  private final List<StreamingSubscriptionConnection.ISubscriptionErrorDelegate> onSubscriptionError =
+      new CopyOnWriteArrayList<StreamingSubscriptionConnection.ISubscriptionErrorDelegate>();
+
+  // The connections, guarded by this; a connection's lock is only taken
+  // while holding this one, never the other way round, and is never held
+  // while a connection is opened or closed
+  private final List<ManagedConnection> connections = new ArrayList<ManagedConnection>();
+
+  // The connection of each subscription Id, guarded by this
+  private final Map<String, ManagedConnection> placements = new HashMap<String, ManagedConnection>();
+
+  private volatile NotificationDispatcher notificationDispatcher;
+
+  private volatile int initialReconnectDelay = DefaultInitialReconnectDelay;
+
+  private volatile int maximumReconnectDelay = DefaultMaximumReconnectDelay;
+
+  private volatile boolean isOpen;
+
+  private volatile boolean closed;
+
+  /**
+   * Initializes a new instance with the default maximum number of connections.
+   *
+   * @param service  the service
+   * @param lifetime the lifetime of each connection, in minutes, between 1 and 30
+   */
+  public StreamingSubscriptionManager(ExchangeService service, int lifetime) {
+    this(service, lifetime, DefaultMaximumConnections);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param service            the service
+   * @param lifetime           the lifetime of each connection, in minutes, between 1 and 30
+   * @param maximumConnections the maximum number of connections
+   */
+  public StreamingSubscriptionManager(ExchangeService service, int lifetime, int maximumConnections) {
+    this.service = service;
+    this.lifetime = lifetime;
+    this.maximumConnections = maximumConnections;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "StreamingSubscriptionManager-reconnect");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Adds a delegate called for the events of all subscriptions.
+   *
+   * @param notificationEvent the delegate
+   */
+  public void addOnNotificationEvent(StreamingSubscriptionConnection.INotificationEventDelegate notificationEvent) {
+    onNotificationEvent.add(notificationEvent);
+  }
+
+  /**
+   * Removes a delegate called for events.
+   *
+   * @param notificationEvent the delegate
+   */
+  public void removeNotificationEvent(StreamingSubscriptionConnection.INotificationEventDelegate notificationEvent) {
+    onNotificationEvent.remove(notificationEvent);
+  }
+
+  /**
+   * Adds a delegate called for subscription errors, and for connection
+   * errors with a null subscription. A failed subscription is removed from
+   * the manager, unless the error is ErrorMissedNotificationEvents.
+   *
+   * @param subscriptionError the delegate
+   */
+  public void addOnSubscriptionError(StreamingSubscriptionConnection.ISubscriptionErrorDelegate subscriptionError) {
+    onSubscriptionError.add(subscriptionError);
+  }
+
+  /**
+   * Removes a delegate called for errors.
+   *
+   * @param subscriptionError the delegate
+   */
+  public void removeSubscriptionError(StreamingSubscriptionConnection.ISubscriptionErrorDelegate subscriptionError) {
+    onSubscriptionError.remove(subscriptionError);
+  }
+
+  /**
+   * Sets the dispatcher running the delegates of the connections opened
+   * from now on.
+   *
+   * @param notificationDispatcher the dispatcher, or null to run the
+   *                               delegates on the threads reading the connections
+   * @see StreamingSubscriptionConnection#setNotificationDispatcher(NotificationDispatcher)
+   */
+  public void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+    this.notificationDispatcher = notificationDispatcher;
+  }
+
+  /**
+   * Sets the delay before the first attempt to open a connection again.
+   *
+   * @param initialReconnectDelay the delay in milliseconds
+   */
+  public void setInitialReconnectDelay(int initialReconnectDelay) {
+    this.initialReconnectDelay = initialReconnectDelay;
+  }
+
+  /**
+   * Sets the longest delay between attempts to open a connection again.
+   *
+   * @param maximumReconnectDelay the delay in milliseconds
+   */
+  public void setMaximumReconnectDelay(int maximumReconnectDelay) {
+    this.maximumReconnectDelay = maximumReconnectDelay;
+  }
+
+  /**
+   * Adds a subscription. If the manager is open, the connection it is
+   * placed on is opened again.
+   *
+   * @param subscription the subscription
+   * @throws Exception all connections are full, or a connection could not be opened
+   */
+  public void addSubscription(StreamingSubscription subscription) throws Exception {
+    addSubscriptions(Collections.singletonList(subscription));
+  }
+
+  /**
+   * Adds subscriptions. Each connection whose subscriptions change is opened
+   * again only once, so adding many subscriptions at once is much cheaper
+   * than adding them one by one.
+   *
+   * @param subscriptions the subscriptions
+   * @throws Exception all connections are full, in which case none of the
+   *                   subscriptions is added, or a connection could not be opened
+   */
+  public void addSubscriptions(Iterable<StreamingSubscription> subscriptions) throws Exception {
+    Set<ManagedConnection> changed = new LinkedHashSet<ManagedConnection>();
+    synchronized (this) {
+      throwIfClosed();
+      Map<String, StreamingSubscription> added = new LinkedHashMap<String, StreamingSubscription>();
+      for (StreamingSubscription subscription : subscriptions) {
+        if (!placements.containsKey(subscription.getId())) {
+          added.put(subscription.getId(), subscription);
+        }
+      }
+      throwIfNoRoom(added.size());
+
+      for (StreamingSubscription subscription : added.values()) {
+        ManagedConnection connection = findConnectionWithRoom();
+        connection.put(subscription);
+        placements.put(subscription.getId(), connection);
+        changed.add(connection);
+      }
+    }
+    reopen(changed);
+  }
+
+  /**
+   * Removes a subscription. It is not unsubscribed. If the manager is open,
+   * the connection it was on is opened again without it, or closed if it was
+   * the last one.
+   *
+   * @param subscription the subscription
+   * @throws Exception a connection could not be opened
+   */
+  public void removeSubscription(StreamingSubscription subscription) throws Exception {
+    ManagedConnection connection;
+    synchronized (this) {
+      throwIfClosed();
+      connection = placements.remove(subscription.getId());
+      if (connection == null) {
+        return;
+      }
+      connection.remove(subscription.getId());
+    }
+    reopen(Collections.singleton(connection));
+  }
+
+  /**
+   * Opens all connections.
+   *
+   * @throws Exception a connection could not be opened
+   */
+  public void open() throws Exception {
+    List<ManagedConnection> all;
+    synchronized (this) {
+      throwIfClosed();
+      isOpen = true;
+      all = new ArrayList<ManagedConnection>(connections);
+    }
+    reopen(all);
+  }
+
+  /**
+   * Closes all connections. Subscriptions are not unsubscribed.
+   */
+  @Override
+  public void close() {
+    List<ManagedConnection> all;
+    synchronized (this) {
+      closed = true;
+      isOpen = false;
+      all = new ArrayList<ManagedConnection>(connections);
+    }
+    scheduler.shutdownNow();
+    for (ManagedConnection connection : all) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Gets the number of connections.
+   *
+   * @return the number of connections
+   */
+  public synchronized int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * Gets the number of subscriptions.
+   *
+   * @return the number of subscriptions
+   */
+  public synchronized int getSubscriptionCount() {
+    return placements.size();
+  }
+
+  private void throwIfClosed() throws ServiceLocalException {
+    if (closed) {
+      throw new ServiceLocalException("The subscription manager is closed.");
+    }
+  }
+
+  /**
+   * Checks that the connections, with those that may still be created, have
+   * room for a number of subscriptions.
+   */
+  private void throwIfNoRoom(int count) throws ServiceLocalException {
+    long room = (long) (maximumConnections - connections.size()) * MaximumSubscriptionsPerConnection;
+    for (ManagedConnection connection : connections) {
+      room += MaximumSubscriptionsPerConnection - connection.size();
+    }
+    if (count > room) {
+      throw new ServiceLocalException(String.format(
+          "All %d connections have the maximum of %d subscriptions.",
+          maximumConnections, MaximumSubscriptionsPerConnection));
+    }
+  }
+
+  /**
+   * Finds the fullest connection with room for one more subscription, or
+   * creates one.
+   */
+  private ManagedConnection findConnectionWithRoom() throws ServiceLocalException {
+    ManagedConnection best = null;
+    for (ManagedConnection connection : connections) {
+      int size = connection.size();
+      if (size < MaximumSubscriptionsPerConnection && (best == null || size > best.size())) {
+        best = connection;
+      }
+    }
+    if (best == null) {
+      if (connections.size() >= maximumConnections) {
+        throw new ServiceLocalException(String.format(
+            "All %d connections have the maximum of %d subscriptions.",
+            maximumConnections, MaximumSubscriptionsPerConnection));
+      }
+      best = new ManagedConnection();
+      connections.add(best);
+    }
+    return best;
+  }
+
+  /**
+   * Opens connections again with their current subscriptions, if the
+   * manager is open. The first error is thrown after all are opened.
+   */
+  private void reopen(Iterable<ManagedConnection> changed) throws Exception {
+    if (!isOpen) {
+      return;
+    }
+    Exception error = null;
+    for (ManagedConnection connection : changed) {
+      try {
+        connection.open();
+      } catch (Exception e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private void scheduleReopen(final ManagedConnection connection, int attempt) {
+    long delay = 0;
+    if (attempt > 0) {
+      long maximum = Math.min(maximumReconnectDelay, (long) initialReconnectDelay << Math.min(attempt - 1, 20));
+      synchronized (random) {
+        delay = maximum / 2 + (long) (random.nextDouble() * (maximum / 2));
+      }
+    }
+    try {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (merge(connection)) {
+            try {
+              connection.open();
+            } catch (Exception e) {
+              // open() has already scheduled the next attempt
+            }
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // The scheduler is shut down; the manager is closed
+    }
+  }
+
+  /**
+   * Moves the subscriptions of other disconnected connections onto a
+   * connection about to be opened again, emptiest first, and drops the
+   * connections left empty.
+   *
+   * @return false if the connection is no longer needed
+   */
+  private synchronized boolean merge(ManagedConnection connection) {
+    if (closed || !connections.contains(connection)) {
+      return false;
+    }
+
+    List<ManagedConnection> disconnected = new ArrayList<ManagedConnection>();
+    for (ManagedConnection other : connections) {
+      if (other != connection && !other.isConnected()) {
+        disconnected.add(other);
+      }
+    }
+    Collections.sort(disconnected, new Comparator<ManagedConnection>() {
+      @Override
+      public int compare(ManagedConnection first, ManagedConnection second) {
+        return first.size() - second.size();
+      }
+    });
+
+    for (ManagedConnection other : disconnected) {
+      if (connection.size() + other.size() > MaximumSubscriptionsPerConnection) {
+        break;
+      }
+      for (StreamingSubscription subscription : other.removeAll()) {
+        connection.put(subscription);
+        placements.put(subscription.getId(), connection);
+      }
+      connections.remove(other);
+    }
+
+    if (connection.size() == 0) {
+      connections.remove(connection);
+      return false;
+    }
+    return true;
+  }
+
+  private void onSubscriptionError(SubscriptionErrorEventArgs args) {
+    StreamingSubscription subscription = args.getSubscription();
+    Exception exception = args.getException();
+    if (subscription != null && !(exception instanceof ServiceResponseException
+        && ((ServiceResponseException) exception).getErrorCode() == ServiceError.ErrorMissedNotificationEvents)) {
+      // The connection has stopped servicing the subscription
+      synchronized (this) {
+        ManagedConnection connection = placements.remove(subscription.getId());
+        if (connection != null) {
+          connection.remove(subscription.getId());
+        }
+      }
+    }
+    fireSubscriptionError(args);
+  }
+
+  private void fireSubscriptionError(SubscriptionErrorEventArgs args) {
+    for (StreamingSubscriptionConnection.ISubscriptionErrorDelegate delegate : onSubscriptionError) {
+      delegate.subscriptionErrorDelegate(this, args);
+    }
+  }
+
+  /**
+   * A connection of the pool and its subscriptions. A new
+   * StreamingSubscriptionConnection is created each time it is opened.
+   */
+  private class ManagedConnection implements StreamingSubscriptionConnection.INotificationEventDelegate {
+
+    private final Map<String, StreamingSubscription> subscriptions =
+        new LinkedHashMap<String, StreamingSubscription>();
+
+    private StreamingSubscriptionConnection current;
+
+    private int attempt;
+
+    synchronized int size() {
+      return subscriptions.size();
+    }
+
+    synchronized boolean isConnected() {
+      return current != null;
+    }
+
+    synchronized void put(StreamingSubscription subscription) {
+      subscriptions.put(subscription.getId(), subscription);
+    }
+
+    synchronized void remove(String subscriptionId) {
+      subscriptions.remove(subscriptionId);
+    }
+
+    synchronized List<StreamingSubscription> removeAll() {
+      List<StreamingSubscription> removed = new ArrayList<StreamingSubscription>(subscriptions.values());
+      subscriptions.clear();
+      return removed;
+    }
+
+    /**
+     * Closes the current connection, if any, and opens a new one with the
+     * current subscriptions. On failure the next attempt is scheduled. The
+     * connection is opened without holding its lock, so that the manager is
+     * not blocked while the server answers.
+     */
+    void open() throws Exception {
+      StreamingSubscriptionConnection previous;
+      StreamingSubscriptionConnection connection = null;
+      Exception error = null;
+      int nextAttempt = 0;
+      synchronized (this) {
+        previous = current;
+        current = null;
+        if (!subscriptions.isEmpty() && !closed) {
+          try {
+            connection = createConnection();
+            current = connection;
+          } catch (Exception e) {
+            error = e;
+            nextAttempt = ++attempt;
+          }
+        }
+      }
+      closeConnection(previous);
+
+      if (connection != null) {
+        try {
+          connection.open();
+        } catch (Exception e) {
+          synchronized (this) {
+            // A connection opened since then, or a disconnect, takes care of the next attempt
+            if (connection != current) {
+              throw e;
+            }
+            current = null;
+            nextAttempt = ++attempt;
+          }
+          error = e;
+        }
+      }
+      if (error != null) {
+        fireSubscriptionError(new SubscriptionErrorEventArgs(null, error));
+        scheduleReopen(this, nextAttempt);
+        throw error;
+      }
+      if (connection == null) {
+        return;
+      }
+
+      boolean superseded;
+      synchronized (this) {
+        superseded = connection != current;
+        if (!superseded) {
+          attempt = 0;
+        }
+      }
+      if (superseded) {
+        closeConnection(connection);
+      }
+    }
+
+    private StreamingSubscriptionConnection createConnection() throws Exception {
+      final StreamingSubscriptionConnection connection =
+          new StreamingSubscriptionConnection(service, subscriptions.values(), lifetime);
+      connection.setNotificationDispatcher(notificationDispatcher);
+      connection.addOnNotificationEvent(this);
+      connection.addOnSubscriptionError(new StreamingSubscriptionConnection.ISubscriptionErrorDelegate() {
+        @Override
+        public void subscriptionErrorDelegate(Object sender, SubscriptionErrorEventArgs args) {
+          onSubscriptionError(args);
+        }
+      });
+      connection.addOnDisconnect(new StreamingSubscriptionConnection.ISubscriptionErrorDelegate() {
+        @Override
+        public void subscriptionErrorDelegate(Object sender, SubscriptionErrorEventArgs args) {
+          onDisconnect(connection, args.getException());
+        }
+      });
+      return connection;
+    }
+
+    /**
+     * Closes the current connection without opening it again.
+     */
+    void close() {
+      StreamingSubscriptionConnection connection;
+      synchronized (this) {
+        connection = current;
+        current = null;
+      }
+      closeConnection(connection);
+    }
+
+    private void closeConnection(StreamingSubscriptionConnection connection) {
+      if (connection != null) {
+        try {
+          if (connection.getIsOpen()) {
+            connection.close();
+          }
+        } catch (Exception e) {
+          LOG.debug("Could not close streaming connection", e);
+        }
+      }
+    }
+
+    private void onDisconnect(StreamingSubscriptionConnection connection, Exception exception) {
+      int nextAttempt;
+      synchronized (this) {
+        // Connections closed on purpose are no longer current
+        if (connection != current) {
+          return;
+        }
+        current = null;
+
+        // A connection whose lifetime ended is opened again right away
+        nextAttempt = exception != null ? ++attempt : 0;
+      }
+      if (exception != null) {
+        fireSubscriptionError(new SubscriptionErrorEventArgs(null, exception));
+      }
+      scheduleReopen(this, nextAttempt);
+    }
+
+    @Override
+    public void notificationEventDelegate(Object sender, NotificationEventArgs args) {
+      for (StreamingSubscriptionConnection.INotificationEventDelegate delegate : onNotificationEvent) {
+        delegate.notificationEventDelegate(StreamingSubscriptionManager.this, args);
+      }
+    }
+  }
+}
@@ -277,6 +277,16 @@ public final class FileAttachment extends Attachment {
     return this.contentStream;
   }
 
+  /**
+   * Gets a value indicating whether the content of this attachment is read
+   * from a stream, which can be read only once.
+   *
+   * @return true if the content is read from a stream
+   */
+  public boolean hasContentStream() {
+    return this.contentStream != null;
+  }
+
   /**
    * Sets the content stream.
    *
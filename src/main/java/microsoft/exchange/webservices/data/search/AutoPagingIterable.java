@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.search;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Iterates over all results of a paged search, requesting the pages as they
+ * are needed.
+ * <p>
+ * While the caller processes a page, the next pages are requested in the
+ * background, up to the prefetch depth, so that waiting for the server
+ * overlaps with processing. At most the current page and the prefetched
+ * pages are held in memory. Each call to {@link #iterator()} starts the
+ * search over. Errors are thrown from the methods of the iterator as a
+ * RuntimeException whose cause is the original exception.
+ * </p>
+ * <p>
+ * A search can be split into segments that do not overlap, for example
+ * ranges of DateTimeReceived. The pages of a segment are requested one
+ * after another, while up to the concurrency of segments are requested at
+ * the same time. Results are returned one page at a time, in the order the
+ * pages arrive.
+ * </p>
+ *
+ * @param <T> the type of the results
+ */
+public abstract class AutoPagingIterable<T> implements Iterable<T> {
+
+  /**
+   * The default number of pages requested ahead of the current page.
+   */
+  public static final int DefaultPrefetchDepth = 1;
+
+  private final Executor executor;
+
+  private final int offset;
+
+  private final int segmentCount;
+
+  private final int concurrency;
+
+  private final int prefetchDepth;
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param executor      the executor the pages are requested on
+   * @param offset        the offset of the first page
+   * @param prefetchDepth the number of pages requested ahead of the current
+   *                      page, 0 to request each page only when it is needed
+   */
+  protected AutoPagingIterable(Executor executor, int offset, int prefetchDepth) {
+    this(executor, offset, 1, 1, prefetchDepth);
+  }
+
+  /**
+   * Initializes a new instance for a search split into segments.
+   *
+   * @param executor      the executor the pages are requested on
+   * @param offset        the offset of the first page of each segment
+   * @param segmentCount  the number of segments
+   * @param concurrency   the maximum number of pages requested at the same time
+   * @param prefetchDepth the number of pages requested ahead of the current
+   *                      page, 0 to request each page only when it is needed
+   */
+  protected AutoPagingIterable(Executor executor, int offset, int segmentCount, int concurrency,
+      int prefetchDepth) {
+    if (segmentCount < 0) {
+      throw new IllegalArgumentException("segmentCount must be 0 or greater");
+    }
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be 1 or greater");
+    }
+    if (prefetchDepth < 0) {
+      throw new IllegalArgumentException("prefetchDepth must be 0 or greater");
+    }
+    this.executor = executor;
+    this.offset = offset;
+    this.segmentCount = segmentCount;
+    this.concurrency = concurrency;
+    this.prefetchDepth = prefetchDepth;
+  }
+
+  /**
+   * Requests one page of results. The pages of a segment are requested one
+   * at a time.
+   *
+   * @param segment the segment, 0 unless the search is split into segments
+   * @param offset  the offset of the page within the segment
+   * @return the page
+   * @throws Exception on error
+   */
+  protected abstract Page<T> findPage(int segment, int offset) throws Exception;
+
+  /**
+   * Returns an iterator that starts the search over.
+   *
+   * @return the iterator
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new PageIterator();
+  }
+
+
+  /**
+   * One page of results.
+   *
+   * @param <T> the type of the results
+   */
+  public static final class Page<T> {
+
+    private final List<T> results;
+
+    private final Integer nextPageOffset;
+
+    /**
+     * Initializes a new instance.
+     *
+     * @param results        the results on the page
+     * @param moreAvailable  whether more results are available after this page
+     * @param nextPageOffset the offset of the next page
+     */
+    public Page(List<T> results, boolean moreAvailable, Integer nextPageOffset) {
+      this.results = results;
+      this.nextPageOffset = moreAvailable ? nextPageOffset : null;
+    }
+  }
+
+
+  /**
+   * Iterates over the pages, keeping up to the prefetch depth of pages
+   * requested ahead of the current one.
+   */
+  private final class PageIterator implements Iterator<T> {
+
+    // Requested pages, or the exception that requesting one threw
+    private final BlockingQueue<Object> pages = new LinkedBlockingQueue<Object>();
+
+    // The segments whose next page can be requested
+    private final Deque<Integer> readySegments = new ArrayDeque<Integer>();
+
+    // The offset of the next page of each segment
+    private final int[] nextOffsets = new int[segmentCount];
+
+    private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+    // Whether no more pages are requested after an error
+    private boolean failed;
+
+    // Whether the caller got an error
+    private boolean stopped;
+
+    private int requesting;
+
+    // The number of pages requested but not yet taken
+    private int pagesAhead;
+
+    private PageIterator() {
+      for (int segment = 0; segment < segmentCount; segment++) {
+        readySegments.add(segment);
+        nextOffsets[segment] = offset;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (stopped) {
+          return false;
+        }
+        synchronized (this) {
+          if (pagesAhead == 0) {
+            if (failed || readySegments.isEmpty()) {
+              return false;
+            }
+            this.requestPages(true);
+          }
+        }
+
+        Object page;
+        try {
+          page = pages.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while waiting for the next page.", e);
+        }
+        synchronized (this) {
+          pagesAhead--;
+          if (page instanceof Exception) {
+            failed = true;
+          }
+          this.requestPages(false);
+        }
+
+        if (page instanceof Exception) {
+          stopped = true;
+          throw new RuntimeException("The search failed.", (Exception) page);
+        }
+        @SuppressWarnings("unchecked")
+        Page<T> results = (Page<T>) page;
+        current = results.results.iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Requests the next pages of the ready segments, up to the concurrency
+     * and, unless a page is needed now, the prefetch depth. Must be called
+     * while holding the lock of this iterator.
+     *
+     * @param needed whether the caller is waiting for a page
+     */
+    private void requestPages(boolean needed) {
+      while (!failed && requesting < concurrency && !readySegments.isEmpty()
+          && (pagesAhead < prefetchDepth || (needed && pagesAhead == 0))) {
+        final int segment = readySegments.poll();
+        final int pageOffset = nextOffsets[segment];
+        requesting++;
+        pagesAhead++;
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              requestPage(segment, pageOffset);
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          requesting--;
+          failed = true;
+          pages.add(e);
+        }
+      }
+    }
+
+    private void requestPage(int segment, int pageOffset) {
+      Object page;
+      Integer offset = null;
+      try {
+        Page<T> results = findPage(segment, pageOffset);
+        page = results;
+        offset = results.nextPageOffset;
+      } catch (Exception e) {
+        page = e;
+      }
+
+      synchronized (this) {
+        requesting--;
+        if (offset != null) {
+          // Finish started segments first
+          nextOffsets[segment] = offset;
+          readySegments.addFirst(segment);
+        }
+        pages.add(page);
+        this.requestPages(false);
+      }
+    }
+  }
+}
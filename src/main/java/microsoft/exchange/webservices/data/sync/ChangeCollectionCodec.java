@@ -0,0 +1,627 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.EwsServiceXmlReader;
+import microsoft.exchange.webservices.data.core.EwsServiceXmlWriter;
+import microsoft.exchange.webservices.data.core.EwsUtilities;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertyBag;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.core.service.ServiceObject;
+import microsoft.exchange.webservices.data.core.service.folder.Folder;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.misc.OutParam;
+import microsoft.exchange.webservices.data.property.complex.ServiceId;
+import microsoft.exchange.webservices.data.property.definition.ComplexPropertyDefinitionBase;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+import microsoft.exchange.webservices.data.security.XmlNodeType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes change collections returned by SyncFolderItems and SyncFolderHierarchy
+ * to a compact binary form and reads them back, so that large change sets can
+ * be spilled to disk and a crawl resumed without fetching them again.
+ * <p/>
+ * Ids, the sync state and property values of simple types (strings, numbers,
+ * dates, enumerations, byte arrays and service ids) are stored in binary. The
+ * remaining loaded property of an item or folder are stored in their EWS XML
+ * form and loaded back the way a response is.
+ * <p/>
+ * The format is versioned; a stream written by a different format version is
+ * rejected rather than misread.
+ */
+public final class ChangeCollectionCodec {
+
+  /**
+   * The first bytes of every stream, "EWSC".
+   */
+  private static final int Magic = 0x45575343;
+
+  /**
+   * The format version. Enumerations are stored by name.
+   */
+  private static final int Version = 1;
+
+  private static final int ItemChangeKind = 1;
+  private static final int FolderChangeKind = 2;
+
+  private static final int StringValue = 1;
+  private static final int BooleanValue = 2;
+  private static final int IntegerValue = 3;
+  private static final int LongValue = 4;
+  private static final int DoubleValue = 5;
+  private static final int DateValue = 6;
+  private static final int EnumValue = 7;
+  private static final int ByteArrayValue = 8;
+  private static final int ServiceIdValue = 9;
+
+  private static final String Encoding = "UTF-8";
+
+  private final ExchangeService service;
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param service the service the items and folders read back are bound to
+   */
+  public ChangeCollectionCodec(ExchangeService service) {
+    this.service = service;
+  }
+
+  /**
+   * Writes a change collection to a stream. The stream is not closed.
+   *
+   * @param changes the item or folder changes
+   * @param stream  the stream
+   * @throws Exception the exception
+   */
+  public void write(ChangeCollection<? extends Change> changes, OutputStream stream) throws Exception {
+    EwsUtilities.validateParam(changes, "changes");
+    Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(stream)));
+    writer.writeChanges(changes);
+    writer.output.flush();
+  }
+
+  /**
+   * Writes a change collection to a file, replacing it. The file is replaced
+   * by renaming a new file over it, so that a crash while writing leaves the
+   * previous content.
+   *
+   * @param changes the item or folder changes
+   * @param file    the file
+   * @throws Exception the exception
+   */
+  public void write(ChangeCollection<? extends Change> changes, File file) throws Exception {
+    File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    OutputStream stream = new FileOutputStream(temporary);
+    try {
+      this.write(changes, stream);
+    } finally {
+      stream.close();
+    }
+    if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  /**
+   * Writes a change collection to a buffer.
+   *
+   * @param changes the item or folder changes
+   * @return a buffer positioned at the start of the written bytes
+   * @throws Exception the exception
+   */
+  public ByteBuffer toByteBuffer(ChangeCollection<? extends Change> changes) throws Exception {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    this.write(changes, stream);
+    return ByteBuffer.wrap(stream.toByteArray());
+  }
+
+  /**
+   * Reads a change collection from a stream. The stream is not closed.
+   *
+   * @param <TChange>  the type of change
+   * @param stream     the stream
+   * @param changeType ItemChange or FolderChange
+   * @return the change collection
+   * @throws Exception the exception
+   */
+  public <TChange extends Change> ChangeCollection<TChange> read(InputStream stream, Class<TChange> changeType)
+      throws Exception {
+    EwsUtilities.validateParam(changeType, "changeType");
+    Reader reader = new Reader(new DataInputStream(stream));
+    return reader.readChanges(changeType);
+  }
+
+  /**
+   * Reads a change collection from a file.
+   *
+   * @param <TChange>  the type of change
+   * @param file       the file
+   * @param changeType ItemChange or FolderChange
+   * @return the change collection
+   * @throws Exception the exception
+   */
+  public <TChange extends Change> ChangeCollection<TChange> read(File file, Class<TChange> changeType)
+      throws Exception {
+    InputStream stream = new BufferedInputStream(new FileInputStream(file));
+    try {
+      return this.read(stream, changeType);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Reads a change collection from a buffer, advancing its position past the
+   * bytes read.
+   *
+   * @param <TChange>  the type of change
+   * @param buffer     the buffer
+   * @param changeType ItemChange or FolderChange
+   * @return the change collection
+   * @throws Exception the exception
+   */
+  public <TChange extends Change> ChangeCollection<TChange> read(final ByteBuffer buffer, Class<TChange> changeType)
+      throws Exception {
+    EwsUtilities.validateParam(changeType, "changeType");
+    Reader reader = new Reader(new DataInputStream(new InputStream() {
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) {
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        length = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, length);
+        return length;
+      }
+    }));
+    return reader.readChanges(changeType);
+  }
+
+  private static int getKind(Class<? extends Change> changeType) {
+    if (ItemChange.class.equals(changeType)) {
+      return ItemChangeKind;
+    } else if (FolderChange.class.equals(changeType)) {
+      return FolderChangeKind;
+    }
+    throw new IllegalArgumentException("Unsupported change type " + changeType.getName());
+  }
+
+  /**
+   * Writes the binary form. Strings that repeat, such as property and element
+   * names, are written once and referred to by index afterwards.
+   */
+  private class Writer {
+
+    private final DataOutputStream output;
+
+    private final Map<String, Integer> symbols = new HashMap<String, Integer>();
+
+    Writer(DataOutputStream output) {
+      this.output = output;
+    }
+
+    void writeChanges(ChangeCollection<? extends Change> changes) throws Exception {
+      int kind = 0;
+      for (Change change : changes) {
+        int changeKind = getKind(change.getClass());
+        if (kind != 0 && changeKind != kind) {
+          throw new IllegalArgumentException("A change collection can't mix item and folder changes.");
+        }
+        kind = changeKind;
+      }
+
+      output.writeInt(Magic);
+      writeVarInt(Version);
+      writeVarInt(kind);
+      writeString(changes.getSyncState());
+      output.writeBoolean(changes.getMoreChangesAvailable());
+      writeVarInt(changes.getCount());
+      for (Change change : changes) {
+        writeChange(change);
+      }
+    }
+
+    private void writeChange(Change change) throws Exception {
+      output.writeBoolean(change.getChangeType() != null);
+      if (change.getChangeType() != null) {
+        writeSymbol(change.getChangeType().name());
+      }
+      if (change instanceof ItemChange) {
+        output.writeBoolean(((ItemChange) change).getIsRead());
+      }
+
+      ServiceObject serviceObject = change.getServiceObject();
+      output.writeBoolean(serviceObject != null);
+      if (serviceObject != null) {
+        writeServiceObject(serviceObject);
+      } else {
+        writeServiceId(change.getId());
+      }
+    }
+
+    private void writeServiceObject(ServiceObject serviceObject) throws Exception {
+      writeSymbol(serviceObject.getXmlElementName());
+
+      PropertyBag propertyBag = serviceObject.getPropertyBag();
+      List<PropertyDefinition> xmlProperties = new ArrayList<PropertyDefinition>();
+      List<PropertyDefinition> binaryProperties = new ArrayList<PropertyDefinition>();
+      for (Map.Entry<PropertyDefinition, Object> property : propertyBag.getProperties().entrySet()) {
+        PropertyDefinition propertyDefinition = property.getKey();
+        Object value = property.getValue();
+        if (value == null || !isSchemaProperty(serviceObject, propertyDefinition)) {
+          continue;
+        }
+        if (getValueType(propertyDefinition, value) != 0) {
+          binaryProperties.add(propertyDefinition);
+        } else {
+          xmlProperties.add(propertyDefinition);
+        }
+      }
+
+      writeVarInt(binaryProperties.size());
+      for (PropertyDefinition propertyDefinition : binaryProperties) {
+        writeSymbol(propertyDefinition.getXmlElement());
+        writeValue(propertyDefinition, propertyBag.getProperties().get(propertyDefinition));
+      }
+
+      writeXmlProperties(serviceObject, xmlProperties);
+    }
+
+    private void writeValue(PropertyDefinition propertyDefinition, Object value) throws Exception {
+      int valueType = getValueType(propertyDefinition, value);
+      writeVarInt(valueType);
+      switch (valueType) {
+        case StringValue:
+          writeString((String) value);
+          break;
+        case BooleanValue:
+          output.writeBoolean((Boolean) value);
+          break;
+        case IntegerValue:
+          output.writeInt((Integer) value);
+          break;
+        case LongValue:
+          output.writeLong((Long) value);
+          break;
+        case DoubleValue:
+          output.writeDouble((Double) value);
+          break;
+        case DateValue:
+          output.writeLong(((Date) value).getTime());
+          break;
+        case EnumValue:
+          writeSymbol(((Enum<?>) value).name());
+          break;
+        case ByteArrayValue:
+          byte[] bytes = (byte[]) value;
+          writeVarInt(bytes.length);
+          output.write(bytes);
+          break;
+        case ServiceIdValue:
+          writeServiceId((ServiceId) value);
+          break;
+        default:
+          throw new IllegalStateException("Unexpected value type " + valueType);
+      }
+    }
+
+    /**
+     * Writes the property that have no binary form as the content of the
+     * service object's XML element, preceded by its length.
+     */
+    private void writeXmlProperties(ServiceObject serviceObject, List<PropertyDefinition> propertyDefinitions)
+        throws Exception {
+      if (propertyDefinitions.isEmpty()) {
+        writeVarInt(0);
+        return;
+      }
+
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      EwsServiceXmlWriter writer = new EwsServiceXmlWriter(service, stream);
+      writer.writeStartElement(XmlNamespace.Types, serviceObject.getXmlElementName());
+      writer.writeAttributeValue("xmlns", EwsUtilities.EwsTypesNamespacePrefix, EwsUtilities.EwsTypesNamespace);
+      writer.writeAttributeValue("xmlns", EwsUtilities.EwsMessagesNamespacePrefix,
+          EwsUtilities.EwsMessagesNamespace);
+      for (PropertyDefinition propertyDefinition : propertyDefinitions) {
+        propertyDefinition.writePropertyValueToXml(writer, serviceObject.getPropertyBag(), false);
+      }
+      writer.writeEndElement();
+      writer.flush();
+      writer.dispose();
+
+      writeVarInt(stream.size());
+      stream.writeTo(output);
+    }
+
+    private void writeServiceId(ServiceId id) throws IOException {
+      writeString(id != null ? id.getUniqueId() : null);
+      writeString(id != null ? id.getChangeKey() : null);
+    }
+
+    private void writeSymbol(String symbol) throws IOException {
+      Integer index = symbols.get(symbol);
+      if (index != null) {
+        writeVarInt(index + 1);
+      } else {
+        symbols.put(symbol, symbols.size());
+        writeVarInt(0);
+        writeString(symbol);
+      }
+    }
+
+    private void writeString(String value) throws IOException {
+      if (value == null) {
+        writeVarInt(0);
+      } else {
+        byte[] bytes = value.getBytes(Encoding);
+        writeVarInt(bytes.length + 1);
+        output.write(bytes);
+      }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        output.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      output.writeByte(value);
+    }
+  }
+
+  /**
+   * Reads the binary form written by {@link Writer}.
+   */
+  private class Reader {
+
+    private final DataInputStream input;
+
+    private final List<String> symbols = new ArrayList<String>();
+
+    Reader(DataInputStream input) {
+      this.input = input;
+    }
+
+    <TChange extends Change> ChangeCollection<TChange> readChanges(Class<TChange> changeType) throws Exception {
+      if (input.readInt() != Magic) {
+        throw new IOException("The stream doesn't contain a change collection.");
+      }
+      int version = readVarInt();
+      if (version != Version) {
+        throw new IOException(String.format("Unsupported change collection format version %d.", version));
+      }
+      int kind = readVarInt();
+      if (kind != 0 && kind != getKind(changeType)) {
+        throw new IOException("The stream contains changes of a different type than " + changeType.getName());
+      }
+
+      ChangeCollection<TChange> changes = new ChangeCollection<TChange>();
+      changes.setSyncState(readString());
+      changes.setMoreChangesAvailable(input.readBoolean());
+      int count = readVarInt();
+      for (int i = 0; i < count; i++) {
+        changes.add(readChange(changeType));
+      }
+      return changes;
+    }
+
+    private <TChange extends Change> TChange readChange(Class<TChange> changeType) throws Exception {
+      TChange change = changeType.newInstance();
+      if (input.readBoolean()) {
+        change.setChangeType(ChangeType.valueOf(readSymbol()));
+      }
+      if (change instanceof ItemChange) {
+        ((ItemChange) change).setIsRead(input.readBoolean());
+      }
+
+      if (input.readBoolean()) {
+        change.setServiceObject(readServiceObject(change instanceof ItemChange ? Item.class : Folder.class));
+      } else {
+        ServiceId id = change.createId();
+        readServiceId(id);
+        change.setId(id);
+      }
+      return change;
+    }
+
+    private ServiceObject readServiceObject(Class<?> serviceObjectClass) throws Exception {
+      ServiceObject serviceObject = EwsUtilities.createEwsObjectFromXmlElementName(
+          serviceObjectClass, service, readSymbol());
+
+      Map<PropertyDefinition, Object> values = new HashMap<PropertyDefinition, Object>();
+      int count = readVarInt();
+      for (int i = 0; i < count; i++) {
+        PropertyDefinition propertyDefinition = getPropertyDefinition(serviceObject, readSymbol());
+        values.put(propertyDefinition, readValue(serviceObject, propertyDefinition));
+      }
+
+      // Loading the XML form clears the property bag's change log, so the
+      // binary values are added afterwards.
+      readXmlProperties(serviceObject);
+      serviceObject.getPropertyBag().getProperties().putAll(values);
+      return serviceObject;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readValue(ServiceObject serviceObject, PropertyDefinition propertyDefinition) throws Exception {
+      int valueType = readVarInt();
+      switch (valueType) {
+        case StringValue:
+          return readString();
+        case BooleanValue:
+          return input.readBoolean();
+        case IntegerValue:
+          return input.readInt();
+        case LongValue:
+          return input.readLong();
+        case DoubleValue:
+          return input.readDouble();
+        case DateValue:
+          return new Date(input.readLong());
+        case EnumValue:
+          return Enum.valueOf((Class<? extends Enum>) propertyDefinition.getType(), readSymbol());
+        case ByteArrayValue:
+          byte[] bytes = new byte[readVarInt()];
+          input.readFully(bytes);
+          return bytes;
+        case ServiceIdValue:
+          ServiceId id = (ServiceId) ((ComplexPropertyDefinitionBase) propertyDefinition)
+              .createPropertyInstance(serviceObject);
+          readServiceId(id);
+          return id;
+        default:
+          throw new IOException("Unexpected value type " + valueType);
+      }
+    }
+
+    private void readXmlProperties(ServiceObject serviceObject) throws Exception {
+      int length = readVarInt();
+      if (length == 0) {
+        return;
+      }
+
+      byte[] bytes = new byte[length];
+      input.readFully(bytes);
+      EwsServiceXmlReader reader = new EwsServiceXmlReader(new ByteArrayInputStream(bytes), service);
+      reader.read(new XmlNodeType(XmlNodeType.START_DOCUMENT));
+      reader.readStartElement(XmlNamespace.Types, serviceObject.getXmlElementName());
+      serviceObject.getPropertyBag().loadFromXml(reader, false, null, false);
+    }
+
+    private void readServiceId(ServiceId id) throws IOException {
+      id.setUniqueId(readString());
+      id.setChangeKey(readString());
+    }
+
+    private String readSymbol() throws IOException {
+      int index = readVarInt();
+      if (index == 0) {
+        String symbol = readString();
+        symbols.add(symbol);
+        return symbol;
+      }
+      if (index > symbols.size()) {
+        throw new IOException("Unexpected symbol index " + index);
+      }
+      return symbols.get(index - 1);
+    }
+
+    private String readString() throws IOException {
+      int length = readVarInt();
+      if (length == 0) {
+        return null;
+      }
+      byte[] bytes = new byte[length - 1];
+      input.readFully(bytes);
+      return new String(bytes, Encoding);
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = input.readByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer.");
+    }
+  }
+
+  /**
+   * Gets the binary value type of a property value, or 0 if the value is
+   * written in its XML form.
+   */
+  private static int getValueType(PropertyDefinition propertyDefinition, Object value) {
+    if (value instanceof String) {
+      return StringValue;
+    } else if (value instanceof Boolean) {
+      return BooleanValue;
+    } else if (value instanceof Integer) {
+      return IntegerValue;
+    } else if (value instanceof Long) {
+      return LongValue;
+    } else if (value instanceof Double) {
+      return DoubleValue;
+    } else if (value instanceof Date) {
+      return DateValue;
+    } else if (value instanceof Enum && value.getClass().equals(propertyDefinition.getType())) {
+      return EnumValue;
+    } else if (value instanceof byte[]) {
+      return ByteArrayValue;
+    } else if (value instanceof ServiceId && propertyDefinition instanceof ComplexPropertyDefinitionBase
+        && value.getClass().equals(propertyDefinition.getType())) {
+      return ServiceIdValue;
+    }
+    return 0;
+  }
+
+  /**
+   * Checks that a property can be found again by its XML element name.
+   */
+  private static boolean isSchemaProperty(ServiceObject serviceObject, PropertyDefinition propertyDefinition) {
+    OutParam<PropertyDefinition> propertyDefinitionOut = new OutParam<PropertyDefinition>();
+    return propertyDefinition.getXmlElement() != null
+        && serviceObject.getSchema().tryGetPropertyDefinition(propertyDefinition.getXmlElement(),
+        propertyDefinitionOut)
+        && propertyDefinitionOut.getParam() == propertyDefinition;
+  }
+
+  private static PropertyDefinition getPropertyDefinition(ServiceObject serviceObject, String xmlElementName)
+      throws IOException {
+    OutParam<PropertyDefinition> propertyDefinitionOut = new OutParam<PropertyDefinition>();
+    if (!serviceObject.getSchema().tryGetPropertyDefinition(xmlElementName, propertyDefinitionOut)) {
+      throw new IOException(String.format("Unknown property %s for %s.", xmlElementName,
+          serviceObject.getXmlElementName()));
+    }
+    return propertyDefinitionOut.getParam();
+  }
+}
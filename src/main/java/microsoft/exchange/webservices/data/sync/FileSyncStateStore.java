@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Stores sync states in files, in a directory per mailbox with a file per
+ * folder. A file is replaced by renaming a new file over it, so that a
+ * crash while saving leaves the previous sync state.
+ */
+public class FileSyncStateStore implements ISyncStateStore {
+
+  private static final String Encoding = "UTF-8";
+
+  private static final String HierarchyFileName = "hierarchy.sync";
+
+  private static final String FolderFileExtension = ".state";
+
+  private final File directory;
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param directory the directory the sync states are stored in
+   */
+  public FileSyncStateStore(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getHierarchySyncState(String mailbox) throws IOException {
+    return read(new File(getMailboxDirectory(mailbox), HierarchyFileName));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setHierarchySyncState(String mailbox, String syncState) throws IOException {
+    write(new File(getMailboxDirectory(mailbox), HierarchyFileName), syncState);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<String> getFolderIds(String mailbox) throws IOException {
+    Collection<String> folderIds = new ArrayList<String>();
+    File[] files = getMailboxDirectory(mailbox).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.endsWith(FolderFileExtension)) {
+          folderIds.add(decode(name.substring(0, name.length() - FolderFileExtension.length())));
+        }
+      }
+    }
+    return folderIds;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getFolderSyncState(String mailbox, String folderId) throws IOException {
+    return read(getFolderFile(mailbox, folderId));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setFolderSyncState(String mailbox, String folderId, String syncState) throws IOException {
+    File file = getFolderFile(mailbox, folderId);
+    if (syncState == null) {
+      if (file.exists() && !file.delete()) {
+        throw new IOException("Could not delete " + file);
+      }
+    } else {
+      write(file, syncState);
+    }
+  }
+
+  private File getMailboxDirectory(String mailbox) throws IOException {
+    return new File(directory, encode(mailbox));
+  }
+
+  private File getFolderFile(String mailbox, String folderId) throws IOException {
+    return new File(getMailboxDirectory(mailbox), encode(folderId) + FolderFileExtension);
+  }
+
+  private static String read(File file) throws IOException {
+    return file.exists() ? FileUtils.readFileToString(file, Encoding) : null;
+  }
+
+  private static void write(File file, String content) throws IOException {
+    File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+    FileUtils.writeStringToFile(temporary, content, Encoding);
+    if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  /**
+   * Encodes a mailbox or folder Id into a valid file name.
+   */
+  private static String encode(String value) throws IOException {
+    return Base64.encodeBase64URLSafeString(value.getBytes(Encoding));
+  }
+
+  private static String decode(String fileName) throws IOException {
+    return new String(Base64.decodeBase64(fileName), Encoding);
+  }
+}
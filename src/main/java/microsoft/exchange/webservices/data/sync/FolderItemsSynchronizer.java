@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+
+import java.io.Closeable;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronizes the item of a folder in batches, requesting the next batch
+ * while the current one is processed.
+ * <p>
+ * As soon as a batch is returned by {@link #nextBatch()}, the next batch is
+ * requested with its sync state on the executor returned by
+ * {@link ExchangeService#getAsyncExecutor()}, if the server has more
+ * changes. No further batch is requested until that one has been taken, so
+ * at most one batch waits in memory. {@link #getSyncState()} returns the
+ * sync state of the last batch passed to {@link #acknowledge(ChangeCollection)},
+ * which is the state to save: synchronizing again from it returns every
+ * change that was not acknowledged.
+ * </p>
+ * <p>
+ * Every batch must be acknowledged once processed: the synchronizer keeps
+ * the batches that were not, and refuses to return more than
+ * {@link #MaximumUnacknowledgedBatches} of them.
+ * </p>
+ * <p>
+ * A synchronizer is used from one thread at a time.
+ * </p>
+ */
+public final class FolderItemsSynchronizer implements Closeable {
+
+  /**
+   * The maximum number of batches returned by {@link #nextBatch()} that may
+   * wait to be acknowledged.
+   */
+  public static final int MaximumUnacknowledgedBatches = 16;
+
+  private final ExchangeService service;
+
+  private final FolderId syncFolderId;
+
+  private final PropertySet propertySet;
+
+  private final Iterable<ItemId> ignoredItemIds;
+
+  private final int maxChangesReturned;
+
+  private final SyncFolderItemsScope syncScope;
+
+  // The sync state the next batch is requested with
+  private String requestSyncState;
+
+  // The sync state of the last acknowledged batch
+  private String syncState;
+
+  // The batches that were returned but not acknowledged, oldest first
+  private final Queue<ChangeCollection<ItemChange>> unacknowledged = new LinkedList<ChangeCollection<ItemChange>>();
+
+  private Future<ChangeCollection<ItemChange>> nextBatch;
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param service            the service
+   * @param syncFolderId       the Id of the folder containing the item to synchronize with
+   * @param propertySet        the set of property to retrieve for synchronized item
+   * @param ignoredItemIds     the optional list of item Ids that should be ignored
+   * @param maxChangesReturned the maximum number of changes per batch
+   * @param syncScope          the sync scope identifying item to include in the batches
+   * @param syncState          the optional sync state to start from
+   */
+  public FolderItemsSynchronizer(ExchangeService service, FolderId syncFolderId,
+      PropertySet propertySet, Iterable<ItemId> ignoredItemIds, int maxChangesReturned,
+      SyncFolderItemsScope syncScope, String syncState) {
+    this.service = service;
+    this.syncFolderId = syncFolderId;
+    this.propertySet = propertySet;
+    this.ignoredItemIds = ignoredItemIds;
+    this.maxChangesReturned = maxChangesReturned;
+    this.syncScope = syncScope;
+    this.requestSyncState = syncState;
+    this.syncState = syncState;
+  }
+
+  /**
+   * Gets the next batch of changes, waiting for it if it has not arrived
+   * yet. If the batch has more changes available, the batch after it is
+   * requested right away. If the batch has no more changes available,
+   * calling this again asks the server for new changes.
+   *
+   * @return the batch
+   * @throws IllegalStateException if {@link #MaximumUnacknowledgedBatches}
+   *                               batches have not been acknowledged
+   * @throws Exception on error; calling this again requests the same batch again
+   */
+  public ChangeCollection<ItemChange> nextBatch() throws Exception {
+    if (unacknowledged.size() >= MaximumUnacknowledgedBatches) {
+      throw new IllegalStateException(String.format(
+          "%d batches have not been acknowledged.", unacknowledged.size()));
+    }
+    if (nextBatch == null) {
+      nextBatch = this.requestBatch(requestSyncState);
+    }
+
+    ChangeCollection<ItemChange> batch;
+    try {
+      batch = nextBatch.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    } finally {
+      nextBatch = null;
+    }
+
+    requestSyncState = batch.getSyncState();
+    unacknowledged.add(batch);
+    if (batch.getMoreChangesAvailable()) {
+      nextBatch = this.requestBatch(requestSyncState);
+    }
+    return batch;
+  }
+
+  /**
+   * Acknowledges that a batch has been processed, so that its sync state
+   * becomes the one returned by {@link #getSyncState()}. Batches are
+   * acknowledged in the order they were returned.
+   *
+   * @param batch the batch
+   */
+  public void acknowledge(ChangeCollection<ItemChange> batch) {
+    if (unacknowledged.peek() != batch) {
+      throw new IllegalArgumentException("Batches must be acknowledged in the order they were returned.");
+    }
+    unacknowledged.remove();
+    syncState = batch.getSyncState();
+  }
+
+  /**
+   * Gets the sync state of the last acknowledged batch, or the sync state
+   * the synchronizer started from.
+   *
+   * @return the sync state
+   */
+  public String getSyncState() {
+    return syncState;
+  }
+
+  /**
+   * Stops requesting the next batch if it has not been sent yet.
+   */
+  @Override
+  public void close() {
+    if (nextBatch != null) {
+      nextBatch.cancel(false);
+      nextBatch = null;
+    }
+  }
+
+  private Future<ChangeCollection<ItemChange>> requestBatch(final String batchSyncState) {
+    return service.getAsyncExecutor().submit(new Callable<ChangeCollection<ItemChange>>() {
+      @Override
+      public ChangeCollection<ItemChange> call() throws Exception {
+        return service.syncFolderItems(syncFolderId, propertySet, ignoredItemIds,
+            maxChangesReturned, syncScope, batchSyncState);
+      }
+    });
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+
+/**
+ * Receives the changes found by a {@link SyncEngine}. Changes of different
+ * folder may be handled at the same time on different threads.
+ */
+public interface ISyncChangesHandler {
+
+  /**
+   * Handles changes of the folder hierarchy of a mailbox.
+   *
+   * @param mailbox the mailbox
+   * @param changes the changes
+   * @throws Exception on error; the changes are returned again by the next synchronization
+   */
+  void handleFolderChanges(String mailbox, ChangeCollection<FolderChange> changes) throws Exception;
+
+  /**
+   * Handles changes of the item of a folder.
+   *
+   * @param mailbox  the mailbox
+   * @param folderId the folder
+   * @param changes  the changes
+   * @throws Exception on error; the changes are returned again by the next synchronization
+   */
+  void handleItemChanges(String mailbox, FolderId folderId, ChangeCollection<ItemChange> changes)
+      throws Exception;
+}
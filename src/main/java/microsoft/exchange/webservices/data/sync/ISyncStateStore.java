@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import java.util.Collection;
+
+/**
+ * Stores the sync states of the folder hierarchy and of the folder of
+ * mailboxes, so that synchronization continues where it stopped.
+ */
+public interface ISyncStateStore {
+
+  /**
+   * Gets the sync state of the folder hierarchy of a mailbox.
+   *
+   * @param mailbox the mailbox
+   * @return the sync state, or null if none was saved
+   * @throws Exception on error
+   */
+  String getHierarchySyncState(String mailbox) throws Exception;
+
+  /**
+   * Saves the sync state of the folder hierarchy of a mailbox.
+   *
+   * @param mailbox   the mailbox
+   * @param syncState the sync state
+   * @throws Exception on error
+   */
+  void setHierarchySyncState(String mailbox, String syncState) throws Exception;
+
+  /**
+   * Gets the Ids of the folder of a mailbox that have been saved.
+   *
+   * @param mailbox the mailbox
+   * @return the unique Ids of the folder
+   * @throws Exception on error
+   */
+  Collection<String> getFolderIds(String mailbox) throws Exception;
+
+  /**
+   * Gets the sync state of the item of a folder.
+   *
+   * @param mailbox  the mailbox
+   * @param folderId the unique Id of the folder
+   * @return the sync state, an empty string if the folder was saved without
+   * one, or null if the folder was not saved
+   * @throws Exception on error
+   */
+  String getFolderSyncState(String mailbox, String folderId) throws Exception;
+
+  /**
+   * Saves the sync state of the item of a folder.
+   *
+   * @param mailbox   the mailbox
+   * @param folderId  the unique Id of the folder
+   * @param syncState the sync state, an empty string to save the folder
+   *                  without one, or null to remove the folder
+   * @throws Exception on error
+   */
+  void setFolderSyncState(String mailbox, String folderId, String syncState) throws Exception;
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.misc.AsyncExecutor;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Keeps the item of all folder of many mailboxes synchronized.
+ * <p>
+ * Each call to {@link #synchronize()} first discovers new and deleted
+ * folder of every mailbox with SyncFolderHierarchy, then synchronizes the
+ * item of every folder with SyncFolderItems until no more changes are
+ * available, on a bounded pool of threads. Folder with more recent changes
+ * are synchronized first, so that the folder that change often do not wait
+ * behind quiet ones. Changes are passed to an {@link ISyncChangesHandler},
+ * and sync states are saved to an {@link ISyncStateStore} after the handler
+ * returns, so a stopped engine continues where it left off.
+ * </p>
+ */
+public class SyncEngine implements Closeable {
+
+  /**
+   * The default maximum number of folder synchronized at the same time.
+   */
+  public static final int DefaultMaximumThreads = 10;
+
+  /**
+   * The default maximum number of changes per SyncFolderItems request.
+   */
+  public static final int DefaultMaximumChangesReturned = 512;
+
+  // The factor the activity of a folder is multiplied with on each synchronization
+  private static final double ActivityDecay = 0.5;
+
+  private final ISyncStateStore store;
+
+  private final ISyncChangesHandler handler;
+
+  private final ExecutorService executor;
+
+  private final int maximumThreads;
+
+  private final Map<String, MailboxState> mailboxes = new ConcurrentHashMap<String, MailboxState>();
+
+  private PropertySet propertySet = PropertySet.IdOnly;
+
+  private int maximumChangesReturned = DefaultMaximumChangesReturned;
+
+  /**
+   * Initializes a new instance with the default maximum number of threads.
+   *
+   * @param store   the store of the sync states
+   * @param handler the handler of the changes
+   */
+  public SyncEngine(ISyncStateStore store, ISyncChangesHandler handler) {
+    this(store, handler, DefaultMaximumThreads);
+  }
+
+  /**
+   * Initializes a new instance.
+   *
+   * @param store          the store of the sync states
+   * @param handler        the handler of the changes
+   * @param maximumThreads the maximum number of folder synchronized at the same time
+   */
+  public SyncEngine(ISyncStateStore store, ISyncChangesHandler handler, int maximumThreads) {
+    this.store = store;
+    this.handler = handler;
+    this.maximumThreads = maximumThreads;
+    this.executor = new AsyncExecutor(maximumThreads);
+  }
+
+  /**
+   * Adds a mailbox to synchronize.
+   *
+   * @param mailbox      the name of the mailbox, used as key in the store
+   * @param service      the service to synchronize the mailbox with
+   * @param rootFolderId the folder whose sub-folder are synchronized, or null
+   *                     for the whole mailbox
+   */
+  public void addMailbox(String mailbox, ExchangeService service, FolderId rootFolderId) {
+    mailboxes.put(mailbox, new MailboxState(mailbox, service, rootFolderId));
+  }
+
+  /**
+   * Stops synchronizing a mailbox. Its sync states stay in the store.
+   *
+   * @param mailbox the name of the mailbox
+   */
+  public void removeMailbox(String mailbox) {
+    mailboxes.remove(mailbox);
+  }
+
+  /**
+   * Sets the property to retrieve for synchronized item. Defaults to
+   * {@link PropertySet#IdOnly}.
+   *
+   * @param propertySet the property set
+   */
+  public void setPropertySet(PropertySet propertySet) {
+    this.propertySet = propertySet;
+  }
+
+  /**
+   * Sets the maximum number of changes per SyncFolderItems request.
+   *
+   * @param maximumChangesReturned the maximum number of changes
+   */
+  public void setMaximumChangesReturned(int maximumChangesReturned) {
+    this.maximumChangesReturned = maximumChangesReturned;
+  }
+
+  /**
+   * Synchronizes the folder hierarchy and the item of all folder of all
+   * mailboxes, until no more changes are available. An error in one
+   * mailbox or folder does not stop the others; the first error is thrown
+   * when the others are done.
+   *
+   * @throws Exception on error
+   */
+  public void synchronize() throws Exception {
+    List<Callable<Void>> hierarchyTasks = new ArrayList<Callable<Void>>();
+    for (final MailboxState mailbox : mailboxes.values()) {
+      hierarchyTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          synchronizeHierarchy(mailbox);
+          return null;
+        }
+      });
+    }
+    Exception error = waitForAll(executor.invokeAll(hierarchyTasks));
+
+    final PriorityBlockingQueue<FolderState> folders =
+        new PriorityBlockingQueue<FolderState>(11, new Comparator<FolderState>() {
+          @Override
+          public int compare(FolderState first, FolderState second) {
+            return Double.compare(second.activity, first.activity);
+          }
+        });
+    for (MailboxState mailbox : mailboxes.values()) {
+      if (mailbox.loaded) {
+        for (FolderState folder : mailbox.folders.values()) {
+          folder.activity *= ActivityDecay;
+          folders.add(folder);
+        }
+      }
+    }
+
+    // Each worker synchronizes folder until none are left. A folder with
+    // more changes goes back into the queue with its increased activity.
+    List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < Math.min(maximumThreads, folders.size()); i++) {
+      workers.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Exception error = null;
+          FolderState folder;
+          while ((folder = folders.poll()) != null) {
+            try {
+              if (synchronizeItems(folder)) {
+                folders.add(folder);
+              }
+            } catch (Exception e) {
+              if (error == null) {
+                error = e;
+              }
+            }
+          }
+          if (error != null) {
+            throw error;
+          }
+          return null;
+        }
+      });
+    }
+    Exception workerError = waitForAll(executor.invokeAll(workers));
+
+    if (error != null) {
+      throw error;
+    }
+    if (workerError != null) {
+      throw workerError;
+    }
+  }
+
+  /**
+   * Stops the threads of this engine.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Applies the changes of the folder hierarchy of a mailbox.
+   */
+  private void synchronizeHierarchy(MailboxState mailbox) throws Exception {
+    if (!mailbox.loaded) {
+      for (String folderId : store.getFolderIds(mailbox.name)) {
+        String syncState = store.getFolderSyncState(mailbox.name, folderId);
+        mailbox.folders.put(folderId, new FolderState(mailbox, folderId, emptyToNull(syncState)));
+      }
+      mailbox.hierarchySyncState = store.getHierarchySyncState(mailbox.name);
+      mailbox.loaded = true;
+    }
+
+    ChangeCollection<FolderChange> changes;
+    do {
+      changes = mailbox.service.syncFolderHierarchy(mailbox.rootFolderId, PropertySet.IdOnly,
+          mailbox.hierarchySyncState);
+      handler.handleFolderChanges(mailbox.name, changes);
+
+      for (FolderChange change : changes) {
+        String folderId = change.getFolderId().getUniqueId();
+        if (change.getChangeType() == ChangeType.Delete) {
+          mailbox.folders.remove(folderId);
+          store.setFolderSyncState(mailbox.name, folderId, null);
+        } else if (!mailbox.folders.containsKey(folderId)) {
+          // Save the folder right away, so that it is known after a restart
+          mailbox.folders.put(folderId, new FolderState(mailbox, folderId, null));
+          store.setFolderSyncState(mailbox.name, folderId, "");
+        }
+      }
+
+      mailbox.hierarchySyncState = changes.getSyncState();
+      store.setHierarchySyncState(mailbox.name, changes.getSyncState());
+    } while (changes.getMoreChangesAvailable());
+  }
+
+  /**
+   * Synchronizes one batch of changes of the item of a folder.
+   *
+   * @return whether more changes are available
+   */
+  private boolean synchronizeItems(FolderState folder) throws Exception {
+    FolderId folderId = new FolderId(folder.folderId);
+    ChangeCollection<ItemChange> changes = folder.mailbox.service.syncFolderItems(folderId, propertySet,
+        null, maximumChangesReturned, SyncFolderItemsScope.NormalItems, folder.syncState);
+    handler.handleItemChanges(folder.mailbox.name, folderId, changes);
+
+    folder.syncState = changes.getSyncState();
+    folder.activity += changes.getCount();
+    if (folder.mailbox.folders.containsKey(folder.folderId)) {
+      store.setFolderSyncState(folder.mailbox.name, folder.folderId, changes.getSyncState());
+    }
+    return changes.getMoreChangesAvailable();
+  }
+
+  /**
+   * Waits for tasks to complete.
+   *
+   * @return the first error thrown by a task, or null
+   */
+  private static Exception waitForAll(List<Future<Void>> futures) throws InterruptedException {
+    Exception error = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (error == null) {
+          error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    }
+    return error;
+  }
+
+  private static String emptyToNull(String syncState) {
+    return syncState == null || syncState.length() == 0 ? null : syncState;
+  }
+
+
+  /**
+   * The state of a mailbox.
+   */
+  private static final class MailboxState {
+
+    private final String name;
+
+    private final ExchangeService service;
+
+    private final FolderId rootFolderId;
+
+    // The folder by unique Id
+    private final Map<String, FolderState> folders = new ConcurrentHashMap<String, FolderState>();
+
+    private String hierarchySyncState;
+
+    // Whether the folder and sync states have been read from the store
+    private volatile boolean loaded;
+
+    private MailboxState(String name, ExchangeService service, FolderId rootFolderId) {
+      this.name = name;
+      this.service = service;
+      this.rootFolderId = rootFolderId;
+    }
+  }
+
+
+  /**
+   * The state of a folder.
+   */
+  private static final class FolderState {
+
+    private final MailboxState mailbox;
+
+    private final String folderId;
+
+    private volatile String syncState;
+
+    // The number of recent changes, decaying with each synchronization
+    private volatile double activity;
+
+    private FolderState(MailboxState mailbox, String folderId, String syncState) {
+      this.mailbox = mailbox;
+      this.folderId = folderId;
+      this.syncState = syncState;
+    }
+  }
+}
@@ -27,6 +27,7 @@ import org.junit.Assert;
 import org.junit.Ignore;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 
@@ -66,4 +67,20 @@ public final class TestUtils {
     Assert.fail();
   }
 
+  /**
+   * Sets a field that has no setter, e.g. the result of a service response.
+   *
+   * @param declaringClass the class that declares the field
+   * @param target         the object whose field is set
+   * @param name           the name of the field
+   * @param value          the value
+   * @throws Exception if the field does not exist
+   */
+  public static void setField(Class<?> declaringClass, Object target, String name, Object value)
+      throws Exception {
+    Field field = declaringClass.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ConcurrencyLimiterTest {
+
+  @Test
+  public void testLimitAdapts() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 100);
+    Assert.assertEquals(2, limiter.getMailboxLimit("user"));
+
+    for (int i = 0; i < 100; i++) {
+      ConcurrencyLimiter.Permit permit = limiter.acquire("user", "cas");
+      Thread.sleep(2);
+      permit.succeeded();
+    }
+    int grown = limiter.getMailboxLimit("user");
+    Assert.assertTrue(grown > 2);
+
+    limiter.acquire("user", "cas").throttled();
+    Assert.assertTrue(limiter.getMailboxLimit("user") < grown);
+    Assert.assertEquals(2, limiter.getMailboxLimit("other"));
+  }
+
+  @Test
+  public void testIdleLimitsAreDropped() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 100, TimeUnit.MILLISECONDS.toNanos(1));
+    ConcurrencyLimiter.Permit held = limiter.acquire("held", "cas");
+    for (int i = 0; i < 1022; i++) {
+      limiter.acquire("user" + i, "cas").succeeded();
+    }
+    Assert.assertEquals(1024, limiter.getLimitCount());
+
+    Thread.sleep(10);
+    limiter.acquire("user", "cas").succeeded();
+
+    // Only the limits in use remain
+    Assert.assertEquals(3, limiter.getLimitCount());
+    held.succeeded();
+  }
+
+  @Test
+  public void testAcquireWaitsForLimit() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 100);
+    ConcurrencyLimiter.Permit first = limiter.acquire("user", "cas");
+    ConcurrencyLimiter.Permit second = limiter.acquire("user", "cas");
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          limiter.acquire("user", "cas").failed();
+          acquired.countDown();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    });
+    thread.start();
+
+    Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    first.failed();
+    Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    second.failed();
+  }
+}
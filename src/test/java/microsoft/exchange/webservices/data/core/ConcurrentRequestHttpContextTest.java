@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.net.URI;
+
+@RunWith(JUnit4.class)
+public class ConcurrentRequestHttpContextTest {
+
+  @Test
+  public void testCookiesAndUserTokenAreSharedCredentialsAreNot() {
+    HttpClientContext serviceContext = HttpClientContext.create();
+    BasicCookieStore cookieStore = new BasicCookieStore();
+    serviceContext.setCookieStore(cookieStore);
+
+    HttpClientContext first = HttpClientContext.adapt(new ConcurrentRequestHttpContext(serviceContext));
+    HttpClientContext second = HttpClientContext.adapt(new ConcurrentRequestHttpContext(serviceContext));
+    Assert.assertSame(cookieStore, first.getCookieStore());
+    Assert.assertSame(cookieStore, second.getCookieStore());
+
+    BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+    first.setCredentialsProvider(credentials);
+    Assert.assertSame(credentials, first.getCredentialsProvider());
+    Assert.assertNull(second.getCredentialsProvider());
+    Assert.assertNull(serviceContext.getCredentialsProvider());
+
+    Object userToken = new Object();
+    first.setUserToken(userToken);
+    Assert.assertSame(userToken, second.getUserToken());
+    Assert.assertSame(userToken,
+        HttpClientContext.adapt(new ConcurrentRequestHttpContext(serviceContext)).getUserToken());
+  }
+
+  @Test
+  public void testServiceCreatesContextPerRequest() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+    service.setCredentials(new WebCredentials("u", "p"));
+    service.setConcurrentRequestsEnabled(true);
+    try {
+      service.prepareHttpWebRequest();
+      service.prepareHttpWebRequest();
+      Assert.assertNull(service.httpContext.getCredentialsProvider());
+    } finally {
+      service.close();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import org.apache.http.config.Registry;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class EwsConnectionPoolTest {
+
+  @Test
+  public void testMaximumConnectionsPerRoute() throws Exception {
+    EwsConnectionPool pool = new EwsConnectionPool(50, 5, 1000);
+    try {
+      URI cas = new URI("https://cas.example.com/EWS/Exchange.asmx");
+      pool.setMaximumConnectionsPerRoute(cas, 12);
+
+      Assert.assertEquals(12, pool.getMaximumConnectionsPerRoute(new URI("https://cas.example.com:443/")));
+      Assert.assertEquals(5, pool.getMaximumConnectionsPerRoute(new URI("http://cas.example.com/")));
+      Assert.assertEquals(5, pool.getMaximumConnectionsPerRoute(new URI("https://other.example.com/")));
+      Assert.assertEquals(50, pool.getTotalStats().getMax());
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testServicesShareThePool() throws Exception {
+    EwsConnectionPool pool = new EwsConnectionPool();
+    try {
+      ExchangeService first = new ExchangeService();
+      ExchangeService second = new ExchangeService();
+      first.setConnectionPool(pool);
+      second.setConnectionPool(pool);
+      first.close();
+
+      Assert.assertSame(pool, second.getConnectionPool());
+      Assert.assertEquals(0, pool.getTotalStats().getLeased());
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testPoolUsesSocketFactoriesOfService() throws Exception {
+    final AtomicInteger registries = new AtomicInteger();
+    ExchangeService service = new ExchangeService() {
+      @Override
+      protected Registry<ConnectionSocketFactory> createConnectionSocketFactoryRegistry() {
+        registries.incrementAndGet();
+        return super.createConnectionSocketFactoryRegistry();
+      }
+    };
+    int created = registries.get();
+
+    EwsConnectionPool pool = new EwsConnectionPool(service, 10, 5, 1000);
+    try {
+      Assert.assertEquals(created + 1, registries.get());
+      Assert.assertEquals(10, pool.getTotalStats().getMax());
+    } finally {
+      pool.close();
+      service.close();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package microsoft.exchange.webservices.data.core;
+
+import static org.junit.Assert.assertEquals;
+
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class EwsServiceXmlWriterTest {
+
+  private static final int[] CONTENT_LENGTHS = {0, 1, 2, 3, 4, 3071, 3072, 3073, 10000};
+
+  /**
+   * The byte array overload must produce the same text as a one-shot encoding.
+   */
+  @Test
+  public void testWriteBase64ElementValueFromByteArray() throws Exception {
+    for (int length : CONTENT_LENGTHS) {
+      byte[] content = createContent(length);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      EwsServiceXmlWriter writer = new EwsServiceXmlWriter(new ExchangeService(), output);
+      writer.writeStartElement(XmlNamespace.Types, XmlElementNames.Content);
+      writer.writeBase64ElementValue(content);
+      writer.writeEndElement();
+      writer.flush();
+
+      assertEquals(expectedXml(content), output.toString("UTF-8"));
+    }
+  }
+
+  /**
+   * The stream overload must produce the same text, even if the stream returns
+   * fewer bytes than requested on each read.
+   */
+  @Test
+  public void testWriteBase64ElementValueFromStream() throws Exception {
+    for (int length : CONTENT_LENGTHS) {
+      byte[] content = createContent(length);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      EwsServiceXmlWriter writer = new EwsServiceXmlWriter(new ExchangeService(), output);
+      writer.writeStartElement(XmlNamespace.Types, XmlElementNames.Content);
+      writer.writeBase64ElementValue(new TricklingInputStream(content));
+      writer.writeEndElement();
+      writer.flush();
+
+      assertEquals(expectedXml(content), output.toString("UTF-8"));
+    }
+  }
+
+  private static String expectedXml(byte[] content) {
+    return "<t:Content>" + Base64.encodeBase64String(content) + "</t:Content>";
+  }
+
+  private static byte[] createContent(int length) {
+    byte[] content = new byte[length];
+    new Random(length).nextBytes(content);
+    return content;
+  }
+
+  /**
+   * Input stream that returns at most 1000 bytes per read.
+   */
+  private static class TricklingInputStream extends ByteArrayInputStream {
+
+    TricklingInputStream(byte[] content) {
+      super(content);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1000));
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlReaderMode;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Runs the same reads against both parsing modes of {@link EwsXmlReader}.
+ */
+@RunWith(JUnit4.class)
+public class EwsXmlReaderCursorModeTest {
+
+  private static final String TYPES = "http://schemas.microsoft.com/exchange/services/2006/types";
+
+  private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<t:Items xmlns:t=\"" + TYPES + "\">\n"
+      + "  <t:Message>\n"
+      + "    <t:ItemId Id=\"AAMk=\" ChangeKey=\"CQAA\"/>\n"
+      + "    <t:Subject> Hello &amp; welcome </t:Subject>\n"
+      + "    <t:Body BodyType=\"HTML\"><![CDATA[<p>x</p>]]></t:Body>\n"
+      + "    <t:Content>SGVs\nbG8=</t:Content>\n"
+      + "    <t:Extended><t:Value a=\"1\">v</t:Value><t:Empty/></t:Extended>\n"
+      + "    <t:IsRead>true</t:IsRead>\n"
+      + "  </t:Message>\n"
+      + "</t:Items>";
+
+  private static EwsXmlReader createReader(XmlReaderMode mode) throws Exception {
+    return new EwsXmlReader(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), mode);
+  }
+
+  @Test
+  public void testDefaultModeIsEvent() {
+    Assert.assertEquals(XmlReaderMode.Event, new ExchangeService().getXmlReaderMode());
+  }
+
+  @Test
+  public void testBothModesReadTheSameValues() throws Exception {
+    Assert.assertEquals(readDocument(XmlReaderMode.Event, false),
+        readDocument(XmlReaderMode.Cursor, false));
+  }
+
+  @Test
+  public void testCursorModeReadsDocument() throws Exception {
+    Assert.assertEquals("Items|Message|true|AAMk=|CQAA|null| Hello & welcome |HTML|<p>x</p>|Hello"
+        + "|<t:Value xmlns:t=\"" + TYPES + "\" a=\"1\">v</t:Value><t:Empty xmlns:t=\"" + TYPES
+        + "\"></t:Empty>|true|Items", readDocument(XmlReaderMode.Cursor, true));
+  }
+
+  private static String readDocument(XmlReaderMode mode, boolean readInnerXml) throws Exception {
+    EwsXmlReader reader = createReader(mode);
+    StringBuilder result = new StringBuilder();
+
+    reader.read();
+    reader.readStartElement(XmlNamespace.Types, "Items");
+    result.append(reader.getLocalName());
+
+    reader.readStartElement(XmlNamespace.Types, "Message");
+    result.append('|').append(reader.getLocalName());
+
+    reader.readStartElement(XmlNamespace.Types, "ItemId");
+    result.append('|').append(reader.isEmptyElement());
+    result.append('|').append(reader.readAttributeValue("Id"));
+    result.append('|').append(reader.readAttributeValue("ChangeKey"));
+    result.append('|').append(reader.readAttributeValue("Missing"));
+    reader.read();
+
+    result.append('|').append(reader.readElementValue(XmlNamespace.Types, "Subject"));
+
+    reader.readStartElement(XmlNamespace.Types, "Body");
+    result.append('|').append(reader.readAttributeValue("BodyType"));
+    result.append('|').append(reader.readValue());
+
+    reader.readStartElement(XmlNamespace.Types, "Content");
+    result.append('|').append(new String(reader.readBase64ElementValue(), "UTF-8"));
+
+    reader.readStartElement(XmlNamespace.Types, "Extended");
+    if (readInnerXml) {
+      result.append('|').append(reader.readInnerXml().replace('\'', '"'));
+    } else {
+      reader.skipCurrentElement();
+    }
+
+    result.append('|').append(reader.readElementValue(XmlNamespace.Types, "IsRead"));
+
+    reader.readEndElement(XmlNamespace.Types, "Message");
+    reader.read();
+    result.append('|').append(reader.getLocalName());
+    return result.toString();
+  }
+}
@@ -25,7 +25,9 @@ package microsoft.exchange.webservices.data.core;
 
 import static org.mockito.Mockito.doReturn;
 
+import microsoft.exchange.webservices.data.core.enumeration.misc.XmlNamespace;
 import microsoft.exchange.webservices.data.security.XmlNodeType;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +41,8 @@ import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
 
 public class EwsXmlReaderTest {
 
@@ -99,4 +103,47 @@ public class EwsXmlReaderTest {
     Assert.assertNull(character.getData());
   }
 
+  @Test
+  public void testReadBase64ElementValueToStream() throws Exception {
+    byte[] content = new byte[100000];
+    new Random(1).nextBytes(content);
+
+    // Line-wrapped, as some servers send it
+    String base64 = Base64.encodeBase64String(content);
+    StringBuilder wrapped = new StringBuilder();
+    for (int i = 0; i < base64.length(); i += 76) {
+      wrapped.append(base64, i, Math.min(base64.length(), i + 76)).append("\r\n");
+    }
+
+    EwsXmlReader reader = new EwsXmlReader(new ByteArrayInputStream(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<t:Attachment xmlns:t=\"" + EwsUtilities.EwsTypesNamespace + "\">"
+        + "<t:Content>" + wrapped + "</t:Content><t:Name>file.bin</t:Name>"
+        + "</t:Attachment>").getBytes("UTF-8")));
+    reader.read(new XmlNodeType(XmlNodeType.START_DOCUMENT));
+    reader.readStartElement(XmlNamespace.Types, "Attachment");
+    reader.readStartElement(XmlNamespace.Types, "Content");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    reader.readBase64ElementValue(output);
+
+    Assert.assertArrayEquals(content, output.toByteArray());
+    Assert.assertTrue(reader.isEndElement(XmlNamespace.Types, "Content"));
+    Assert.assertEquals("file.bin", reader.readElementValue(XmlNamespace.Types, "Name"));
+  }
+
+  @Test
+  public void testReadBase64ElementValueWithPadding() throws Exception {
+    for (int length = 0; length < 8; length++) {
+      byte[] content = new byte[length];
+      new Random(length).nextBytes(content);
+
+      EwsXmlReader reader = new EwsXmlReader(new ByteArrayInputStream(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<Content>" + Base64.encodeBase64String(content) + "</Content>").getBytes("UTF-8")));
+      reader.read(new XmlNodeType(XmlNodeType.START_DOCUMENT));
+      reader.read(new XmlNodeType(XmlNodeType.START_ELEMENT));
+
+      Assert.assertArrayEquals(content, reader.readBase64ElementValue());
+    }
+  }
+
 }
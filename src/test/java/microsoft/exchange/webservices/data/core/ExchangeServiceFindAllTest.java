@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.service.folder.Folder;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.search.FindFoldersResults;
+import microsoft.exchange.webservices.data.search.FindItemsResults;
+import microsoft.exchange.webservices.data.search.FolderView;
+import microsoft.exchange.webservices.data.search.ItemView;
+import microsoft.exchange.webservices.data.search.filter.SearchFilter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ExchangeServiceFindAllTest {
+
+  /**
+   * Answers FindItem and FindFolder with pages of a fixed number of results,
+   * recording the views of the requests.
+   */
+  private static class PagingService extends ExchangeService {
+
+    final int count;
+
+    final List<Object> views = Collections.synchronizedList(new ArrayList<Object>());
+
+    PagingService(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public FindItemsResults<Item> findItems(FolderId parentFolderId, SearchFilter searchFilter,
+        ItemView view) throws Exception {
+      views.add(view);
+      FindItemsResults<Item> results = new FindItemsResults<Item>();
+      int end = Math.min(count, view.getOffset() + view.getPageSize());
+      for (int i = view.getOffset(); i < end; i++) {
+        results.getItems().add(new EmailMessage(this));
+      }
+      results.setMoreAvailable(end < count);
+      results.setNextPageOffset(end < count ? end : null);
+      return results;
+    }
+
+    @Override
+    public FindFoldersResults findFolders(FolderId parentFolderId, SearchFilter searchFilter,
+        FolderView view) throws Exception {
+      views.add(view);
+      FindFoldersResults results = new FindFoldersResults();
+      int end = Math.min(count, view.getOffset() + view.getPageSize());
+      for (int i = view.getOffset(); i < end; i++) {
+        results.getFolders().add(new Folder(this));
+      }
+      results.setMoreAvailable(end < count);
+      results.setNextPageOffset(end < count ? end : null);
+      return results;
+    }
+  }
+
+  @Test
+  public void testFindAllItemsCopiesView() throws Exception {
+    PagingService service = new PagingService(10);
+    ItemView view = new ItemView(3, 1);
+    try {
+      int found = 0;
+      for (Item ignored : service.findAllItems(new FolderId("folder"), null, view)) {
+        found++;
+      }
+
+      Assert.assertEquals(9, found);
+      Assert.assertEquals(3, service.views.size());
+      Assert.assertFalse(service.views.contains(view));
+      Assert.assertEquals(1, view.getOffset());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testFindAllFoldersCopiesView() throws Exception {
+    PagingService service = new PagingService(10);
+    FolderView view = new FolderView(4);
+    try {
+      int found = 0;
+      for (Folder ignored : service.findAllFolders(new FolderId("folder"), null, view)) {
+        found++;
+      }
+
+      Assert.assertEquals(10, found);
+      Assert.assertEquals(3, service.views.size());
+      Assert.assertFalse(service.views.contains(view));
+      Assert.assertEquals(0, view.getOffset());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testSegmentsWithinOneSecond() {
+    List<SearchFilter> filters = ExchangeService.getSegmentFilters(null, new Date(10200), new Date(10900), 4);
+
+    // All boundaries fall on the same second, so there is one unbounded segment
+    Assert.assertEquals(1, filters.size());
+    Assert.assertNull(filters.get(0));
+  }
+
+  @Test
+  public void testSegmentsOfNarrowRange() {
+    List<SearchFilter> filters = ExchangeService.getSegmentFilters(null, new Date(1000000), new Date(1001500), 5);
+
+    // The range covers two whole seconds, so the duplicate boundaries are left out
+    Assert.assertEquals(2, filters.size());
+    assertSegment(filters.get(0), null, null, 1001000L);
+    assertSegment(filters.get(1), null, 1001000L, null);
+  }
+
+  @Test
+  public void testSegmentsOfWideRange() {
+    SearchFilter searchFilter = new SearchFilter.IsEqualTo(ItemSchema.Importance, "High");
+    List<SearchFilter> filters = ExchangeService.getSegmentFilters(searchFilter, new Date(400), new Date(99999),
+        4);
+
+    Assert.assertEquals(4, filters.size());
+    assertSegment(filters.get(0), searchFilter, null, 25000L);
+    assertSegment(filters.get(1), searchFilter, 25000L, 50000L);
+    assertSegment(filters.get(2), searchFilter, 50000L, 75000L);
+    assertSegment(filters.get(3), searchFilter, 75000L, null);
+  }
+
+  /**
+   * Asserts the filters of a segment, in the order they are added.
+   *
+   * @param filter       the filter of the segment
+   * @param searchFilter the search filter expected first, or null
+   * @param from         the expected inclusive lower boundary in milliseconds, or null
+   * @param to           the expected exclusive upper boundary in milliseconds, or null
+   */
+  private static void assertSegment(SearchFilter filter, SearchFilter searchFilter, Long from, Long to) {
+    SearchFilter.SearchFilterCollection collection = (SearchFilter.SearchFilterCollection) filter;
+    int index = 0;
+    if (searchFilter != null) {
+      Assert.assertSame(searchFilter, collection.getSearchFilter(index++));
+    }
+    if (from != null) {
+      SearchFilter.IsGreaterThanOrEqualTo lower =
+          (SearchFilter.IsGreaterThanOrEqualTo) collection.getSearchFilter(index++);
+      Assert.assertSame(ItemSchema.DateTimeReceived, lower.getPropertyDefinition());
+      Assert.assertEquals(new Date(from), lower.getValue());
+    }
+    if (to != null) {
+      SearchFilter.IsLessThan upper = (SearchFilter.IsLessThan) collection.getSearchFilter(index++);
+      Assert.assertSame(ItemSchema.DateTimeReceived, upper.getPropertyDefinition());
+      Assert.assertEquals(new Date(to), upper.getValue());
+    }
+    Assert.assertEquals(index, collection.getCount());
+  }
+}
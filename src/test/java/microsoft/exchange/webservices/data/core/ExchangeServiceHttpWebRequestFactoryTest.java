@@ -0,0 +1,291 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.enumeration.service.error.ServiceErrorHandling;
+import microsoft.exchange.webservices.data.core.request.DeleteItemRequest;
+import microsoft.exchange.webservices.data.core.request.HttpClientWebRequest;
+import microsoft.exchange.webservices.data.core.request.HttpWebRequest;
+import microsoft.exchange.webservices.data.core.request.IHttpWebRequestFactory;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.search.FindFoldersResults;
+import microsoft.exchange.webservices.data.search.FolderView;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+@RunWith(JUnit4.class)
+public class ExchangeServiceHttpWebRequestFactoryTest {
+
+  private final List<String> created = new ArrayList<String>();
+
+  private final IHttpWebRequestFactory factory = new IHttpWebRequestFactory() {
+    @Override
+    public HttpWebRequest createHttpWebRequest(URI url, boolean subscription) {
+      created.add(url + (subscription ? " subscription" : ""));
+      return new HttpClientWebRequest(null, HttpClientContext.create());
+    }
+  };
+
+  @Test
+  public void testRequestsComeFromFactory() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+    service.setCredentials(new WebCredentials("user", "password"));
+    service.setHttpWebRequestFactory(factory);
+
+    HttpWebRequest request = service.prepareHttpWebRequest();
+    HttpWebRequest subscriptionRequest = service.prepareHttpPoolingWebRequest();
+
+    Assert.assertEquals("https://mail.example.com/EWS/Exchange.asmx", request.getUrl().toString());
+    Assert.assertEquals("user", request.getUsername());
+    Assert.assertTrue(request.getRequestProperty().containsKey("User-Agent"));
+    Assert.assertNotNull(subscriptionRequest);
+    Assert.assertEquals(2, created.size());
+    Assert.assertEquals("https://mail.example.com/EWS/Exchange.asmx", created.get(0));
+    Assert.assertEquals("https://mail.example.com/EWS/Exchange.asmx subscription", created.get(1));
+  }
+
+  /**
+   * Keeps many requests in flight on a transport that does not block, with
+   * only two async threads, then completes them all from one I/O thread.
+   */
+  @Test
+  public void testAsyncRequestsDoNotHoldThreads() throws Exception {
+    final int count = 1000;
+    final BlockingQueue<Runnable> inFlight = new LinkedBlockingQueue<Runnable>();
+    ExchangeService service = new ExchangeService();
+    service.setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+    service.setMaximumAsyncThreads(2);
+    service.setHttpWebRequestFactory(new IHttpWebRequestFactory() {
+      @Override
+      public HttpWebRequest createHttpWebRequest(URI url, boolean subscription) {
+        return new NonBlockingWebRequest(inFlight, NonBlockingWebRequest.DeleteItemResponse);
+      }
+    });
+
+    try {
+      List<Future<ServiceResponseCollection<ServiceResponse>>> futures =
+          new ArrayList<Future<ServiceResponseCollection<ServiceResponse>>>();
+      for (int i = 0; i < count; i++) {
+        DeleteItemRequest request = new DeleteItemRequest(service, ServiceErrorHandling.ThrowOnError);
+        request.setDeleteMode(DeleteMode.HardDelete);
+        request.getItemIds().addRange(Collections.singletonList(new ItemId("item" + i)));
+        futures.add(request.executeAsync());
+      }
+      Assert.assertEquals(count, inFlight.size());
+
+      Thread ioThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (Runnable completion; (completion = inFlight.poll()) != null; ) {
+            completion.run();
+          }
+        }
+      });
+      ioThread.start();
+      for (Future<ServiceResponseCollection<ServiceResponse>> future : futures) {
+        Assert.assertEquals(ServiceResult.Success, future.get().getResponseAtIndex(0).getResult());
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  /**
+   * Searches folders with the async methods of the service on a transport
+   * that does not block, which keeps all searches in flight with only two
+   * async threads.
+   */
+  @Test
+  public void testAsyncMethodsDoNotHoldThreads() throws Exception {
+    final int count = 100;
+    final BlockingQueue<Runnable> inFlight = new LinkedBlockingQueue<Runnable>();
+    ExchangeService service = new ExchangeService();
+    service.setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+    service.setMaximumAsyncThreads(2);
+    service.setHttpWebRequestFactory(new IHttpWebRequestFactory() {
+      @Override
+      public HttpWebRequest createHttpWebRequest(URI url, boolean subscription) {
+        return new NonBlockingWebRequest(inFlight, NonBlockingWebRequest.FindFolderResponse);
+      }
+    });
+
+    try {
+      List<Future<FindFoldersResults>> futures = new ArrayList<Future<FindFoldersResults>>();
+      for (int i = 0; i < count; i++) {
+        futures.add(service.findFoldersAsync(new FolderId(WellKnownFolderName.Inbox), new FolderView(10)));
+      }
+      Assert.assertEquals(count, inFlight.size());
+
+      for (Runnable completion; (completion = inFlight.poll()) != null; ) {
+        completion.run();
+      }
+      for (Future<FindFoldersResults> future : futures) {
+        Assert.assertEquals(0, future.get().getTotalCount());
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+
+  /**
+   * A transport that queues its requests instead of sending them, and answers
+   * them with a successful response when they are completed.
+   */
+  private static class NonBlockingWebRequest extends HttpWebRequest {
+
+    static final String FindFolderResponse = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+        + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Header>"
+        + "<h:ServerVersionInfo MajorVersion=\"15\" MinorVersion=\"0\" MajorBuildNumber=\"1\""
+        + " MinorBuildNumber=\"0\" xmlns:h=\"http://schemas.microsoft.com/exchange/services/2006/types\"/>"
+        + "</s:Header><s:Body>"
+        + "<m:FindFolderResponse xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\""
+        + " xmlns:t=\"http://schemas.microsoft.com/exchange/services/2006/types\">"
+        + "<m:ResponseMessages><m:FindFolderResponseMessage ResponseClass=\"Success\">"
+        + "<m:ResponseCode>NoError</m:ResponseCode>"
+        + "<m:RootFolder TotalItemsInView=\"0\" IncludesLastItemInRange=\"true\"><t:Folders/></m:RootFolder>"
+        + "</m:FindFolderResponseMessage></m:ResponseMessages>"
+        + "</m:FindFolderResponse></s:Body></s:Envelope>";
+
+    static final String DeleteItemResponse = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+        + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Header>"
+        + "<h:ServerVersionInfo MajorVersion=\"15\" MinorVersion=\"0\" MajorBuildNumber=\"1\""
+        + " MinorBuildNumber=\"0\" xmlns:h=\"http://schemas.microsoft.com/exchange/services/2006/types\"/>"
+        + "</s:Header><s:Body>"
+        + "<m:DeleteItemResponse xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\">"
+        + "<m:ResponseMessages><m:DeleteItemResponseMessage ResponseClass=\"Success\">"
+        + "<m:ResponseCode>NoError</m:ResponseCode></m:DeleteItemResponseMessage></m:ResponseMessages>"
+        + "</m:DeleteItemResponse></s:Body></s:Envelope>";
+
+    private final BlockingQueue<Runnable> inFlight;
+
+    private final String responseBody;
+
+    private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+
+    NonBlockingWebRequest(BlockingQueue<Runnable> inFlight, String responseBody) {
+      this.inFlight = inFlight;
+      this.responseBody = responseBody;
+    }
+
+    @Override
+    public void executeRequestAsync(Executor executor, final IResponseCallback callback) {
+      inFlight.add(new Runnable() {
+        @Override
+        public void run() {
+          callback.completed(NonBlockingWebRequest.this);
+        }
+      });
+    }
+
+    @Override
+    public int executeRequest() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InputStream getInputStream() throws java.io.IOException {
+      return new ByteArrayInputStream(responseBody.getBytes("UTF-8"));
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return requestBody;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void prepareConnection() {
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders() {
+      return new HashMap<String, String>();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public String getResponseContentType() {
+      return "text/xml; charset=utf-8";
+    }
+
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public String getResponseText() {
+      return "OK";
+    }
+
+    @Override
+    public String getResponseHeaderField(String headerName) {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getRequestProperty() {
+      return new HashMap<String, String>();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package microsoft.exchange.webservices.data.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+import microsoft.exchange.webservices.data.property.complex.Attachment;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends requests to a local HTTP server to check when request bodies are
+ * streamed with chunked transfer-encoding and when they are buffered.
+ */
+@RunWith(JUnit4.class)
+public class ExchangeServiceRequestStreamingTest {
+
+  private static final String DeleteItemResponse = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+      + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Header>"
+      + "<h:ServerVersionInfo MajorVersion=\"15\" MinorVersion=\"0\" MajorBuildNumber=\"1\""
+      + " MinorBuildNumber=\"0\" xmlns:h=\"http://schemas.microsoft.com/exchange/services/2006/types\"/>"
+      + "</s:Header><s:Body>"
+      + "<m:DeleteItemResponse xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\">"
+      + "<m:ResponseMessages><m:DeleteItemResponseMessage ResponseClass=\"Success\">"
+      + "<m:ResponseCode>NoError</m:ResponseCode></m:DeleteItemResponseMessage></m:ResponseMessages>"
+      + "</m:DeleteItemResponse></s:Body></s:Envelope>";
+
+  private static final String CreateAttachmentResponse = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+      + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Header>"
+      + "<h:ServerVersionInfo MajorVersion=\"15\" MinorVersion=\"0\" MajorBuildNumber=\"1\""
+      + " MinorBuildNumber=\"0\" xmlns:h=\"http://schemas.microsoft.com/exchange/services/2006/types\"/>"
+      + "</s:Header><s:Body>"
+      + "<m:CreateAttachmentResponse xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\""
+      + " xmlns:t=\"http://schemas.microsoft.com/exchange/services/2006/types\">"
+      + "<m:ResponseMessages><m:CreateAttachmentResponseMessage ResponseClass=\"Success\">"
+      + "<m:ResponseCode>NoError</m:ResponseCode><m:Attachments><t:FileAttachment>"
+      + "<t:AttachmentId Id=\"attachment\"/>"
+      + "</t:FileAttachment></m:Attachments></m:CreateAttachmentResponseMessage></m:ResponseMessages>"
+      + "</m:CreateAttachmentResponse></s:Body></s:Envelope>";
+
+  private final List<RecordedRequest> requests =
+      Collections.synchronizedList(new ArrayList<RecordedRequest>());
+
+  private HttpServer server;
+
+  private ExchangeService service;
+
+  private String response = DeleteItemResponse;
+
+  private boolean challenge;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/EWS/Exchange.asmx", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        RecordedRequest request = new RecordedRequest(exchange);
+        requests.add(request);
+        if (challenge && request.authorization == null) {
+          exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"EWS\"");
+          exchange.sendResponseHeaders(401, -1);
+        } else {
+          byte[] body = response.getBytes("UTF-8");
+          exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+
+    service = new ExchangeService();
+    service.setUrl(new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/EWS/Exchange.asmx"));
+    service.setCredentials(new WebCredentials("user", "password"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    service.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testBodyIsBufferedByDefault() throws Exception {
+    service.deleteItem(new ItemId("item"), DeleteMode.HardDelete, null, null);
+
+    Assert.assertEquals(1, requests.size());
+    RecordedRequest request = requests.get(0);
+    Assert.assertNull(request.transferEncoding);
+    Assert.assertEquals(String.valueOf(request.body.length), request.contentLength);
+    Assert.assertTrue(request.text().contains("<m:DeleteItem "));
+  }
+
+  @Test
+  public void testBodyIsStreamedWhenEnabled() throws Exception {
+    service.setRequestStreamingEnabled(true);
+
+    service.deleteItem(new ItemId("item"), DeleteMode.HardDelete, null, null);
+
+    Assert.assertEquals(1, requests.size());
+    RecordedRequest request = requests.get(0);
+    Assert.assertEquals("chunked", request.transferEncoding);
+    Assert.assertNull(request.contentLength);
+    Assert.assertTrue(request.text().contains("<t:ItemId Id=\"item\""));
+    Assert.assertTrue(request.text().endsWith("</soap:Envelope>"));
+  }
+
+  /**
+   * The server asks for credentials after reading the first attempt, so the
+   * streamed body has to be written again for the authenticated attempt.
+   */
+  @Test
+  public void testStreamedBodyIsWrittenAgainForAuthentication() throws Exception {
+    service.setRequestStreamingEnabled(true);
+    challenge = true;
+
+    service.deleteItem(new ItemId("item"), DeleteMode.HardDelete, null, null);
+
+    Assert.assertEquals(2, requests.size());
+    RecordedRequest first = requests.get(0);
+    RecordedRequest second = requests.get(1);
+    Assert.assertNull(first.authorization);
+    Assert.assertNotNull(second.authorization);
+    Assert.assertEquals("chunked", first.transferEncoding);
+    Assert.assertEquals("chunked", second.transferEncoding);
+    Assert.assertTrue(second.text().contains("<t:ItemId Id=\"item\""));
+    Assert.assertTrue(second.text().endsWith("</soap:Envelope>"));
+    Assert.assertEquals(first.text(), second.text());
+  }
+
+  /**
+   * An attachment read from a stream can be written only once, so its request
+   * is buffered even when streaming is enabled, and can still be sent again
+   * when the server asks for credentials.
+   */
+  @Test
+  public void testStreamBackedAttachmentIsBuffered() throws Exception {
+    service.setRequestStreamingEnabled(true);
+    challenge = true;
+    response = CreateAttachmentResponse;
+    EmailMessage message = new EmailMessage(service);
+    Attachment attachment = message.getAttachments().addFileAttachment("notes.txt",
+        new ByteArrayInputStream("attachment content".getBytes("UTF-8")));
+
+    service.createAttachments("item", Collections.singletonList(attachment));
+
+    Assert.assertEquals(2, requests.size());
+    RecordedRequest second = requests.get(1);
+    Assert.assertNotNull(second.authorization);
+    Assert.assertNull(second.transferEncoding);
+    Assert.assertEquals(String.valueOf(second.body.length), second.contentLength);
+    // "attachment content" in base64.
+    Assert.assertTrue(second.text().contains("YXR0YWNobWVudCBjb250ZW50"));
+  }
+
+
+  /**
+   * The headers and body of a request received by the server.
+   */
+  private static class RecordedRequest {
+
+    private final String transferEncoding;
+
+    private final String contentLength;
+
+    private final String authorization;
+
+    private final byte[] body;
+
+    RecordedRequest(HttpExchange exchange) throws IOException {
+      transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+      contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+      InputStream in = exchange.getRequestBody();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read; (read = in.read(buffer)) != -1; ) {
+        out.write(buffer, 0, read);
+      }
+      body = out.toByteArray();
+    }
+
+    String text() throws IOException {
+      return new String(body, "UTF-8");
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.base.util.TestUtils;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ItemBindCoalescerTest {
+
+  /**
+   * Answers GetItem with one message per id and records the batches.
+   */
+  private static class RecordingService extends ExchangeService {
+
+    final List<List<ItemId>> batches = new ArrayList<List<ItemId>>();
+
+    @Override
+    public synchronized ServiceResponseCollection<GetItemResponse> bindToItems(
+        Iterable<ItemId> itemIds, PropertySet propertySet) throws Exception {
+      List<ItemId> batch = new ArrayList<ItemId>();
+      ServiceResponseCollection<GetItemResponse> responses = new ServiceResponseCollection<GetItemResponse>();
+      for (ItemId itemId : itemIds) {
+        batch.add(itemId);
+        GetItemResponse response = new GetItemResponse(new EmailMessage(this), propertySet);
+        TestUtils.setField(ServiceResponse.class, response, "result", ServiceResult.Success);
+        responses.add(response);
+      }
+      batches.add(batch);
+      return responses;
+    }
+  }
+
+  @Test
+  public void testConcurrentBindsShareOneRequest() throws Exception {
+    final RecordingService service = new RecordingService();
+    final ItemBindCoalescer coalescer = new ItemBindCoalescer(service, 10000, 8);
+    final PropertySet propertySet = new PropertySet();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Item>> results = new ArrayList<Future<Item>>();
+      for (int i = 0; i < 8; i++) {
+        final ItemId itemId = new ItemId("id" + i);
+        results.add(executor.submit(new Callable<Item>() {
+          @Override
+          public Item call() throws Exception {
+            return coalescer.bindToItem(itemId, propertySet);
+          }
+        }));
+      }
+      for (Future<Item> result : results) {
+        Assert.assertNotNull(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(1, service.batches.size());
+    Assert.assertEquals(8, service.batches.get(0).size());
+  }
+
+  @Test
+  public void testBatchIsSentAfterWindow() throws Exception {
+    RecordingService service = new RecordingService();
+    ItemBindCoalescer coalescer = new ItemBindCoalescer(service, 1, 50);
+    PropertySet propertySet = new PropertySet();
+
+    Assert.assertNotNull(coalescer.bindToItem(new ItemId("a"), propertySet));
+    Assert.assertNotNull(coalescer.bindToItem(new ItemId("b"), new PropertySet()));
+    Assert.assertEquals(2, service.batches.size());
+  }
+
+  @Test
+  public void testErrorReachesEveryCaller() throws Exception {
+    final ExchangeService service = new ExchangeService() {
+      @Override
+      public ServiceResponseCollection<GetItemResponse> bindToItems(
+          Iterable<ItemId> itemIds, PropertySet propertySet) throws Exception {
+        throw new IllegalStateException("unreachable");
+      }
+    };
+    ItemBindCoalescer coalescer = new ItemBindCoalescer(service, 0, 1);
+    try {
+      coalescer.bindToItem(new ItemId("a"), new PropertySet());
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("unreachable", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testErrorThrownByServiceReachesWaitingCallers() throws Exception {
+    ExchangeService service = new ExchangeService() {
+      @Override
+      public ServiceResponseCollection<GetItemResponse> bindToItems(
+          Iterable<ItemId> itemIds, PropertySet propertySet) throws Exception {
+        throw new NoClassDefFoundError("missing");
+      }
+    };
+    final ItemBindCoalescer coalescer = new ItemBindCoalescer(service, 10000, 2);
+    final PropertySet propertySet = new PropertySet();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<Item>> results = new ArrayList<Future<Item>>();
+      for (int i = 0; i < 2; i++) {
+        final ItemId itemId = new ItemId("id" + i);
+        results.add(executor.submit(new Callable<Item>() {
+          @Override
+          public Item call() throws Exception {
+            return coalescer.bindToItem(itemId, propertySet);
+          }
+        }));
+      }
+      for (Future<Item> result : results) {
+        try {
+          result.get(5, TimeUnit.SECONDS);
+          Assert.fail();
+        } catch (ExecutionException e) {
+          Assert.assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core;
+
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ThrottlingRetryPolicyTest {
+
+  @Test
+  public void testDelayBounds() {
+    ThrottlingRetryPolicy policy = new ThrottlingRetryPolicy(5, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      long first = policy.getDelay(0, 0);
+      Assert.assertTrue(first >= 50 && first <= 100);
+      long capped = policy.getDelay(10, 0);
+      Assert.assertTrue(capped >= 500 && capped <= 1000);
+    }
+    Assert.assertEquals(5000, policy.getDelay(0, 5000));
+  }
+
+  @Test
+  public void testIsThrottled() {
+    Assert.assertTrue(ThrottlingRetryPolicy.isThrottled(
+        new ServiceRequestException("failed", new HttpErrorException("busy", 503))));
+    Assert.assertFalse(ThrottlingRetryPolicy.isThrottled(
+        new ServiceRequestException("failed", new HttpErrorException("unauthorized", 401))));
+    Assert.assertFalse(ThrottlingRetryPolicy.isThrottled(new Exception("failed")));
+  }
+
+  @Test
+  public void testMailboxBackOff() throws InterruptedException {
+    ThrottlingRetryPolicy policy = new ThrottlingRetryPolicy(3, 50, 50);
+    policy.onThrottled("user@example.com", 0, 200);
+
+    long start = System.currentTimeMillis();
+    policy.waitForMailbox("other@example.com");
+    Assert.assertTrue(System.currentTimeMillis() - start < 100);
+
+    policy.waitForMailbox("user@example.com");
+    Assert.assertTrue(System.currentTimeMillis() - start >= 150);
+  }
+
+  @Test
+  public void testMailboxBudget() throws InterruptedException {
+    ThrottlingRetryPolicy policy = new ThrottlingRetryPolicy(3, 50, 50, 20, 2);
+
+    long start = System.currentTimeMillis();
+    policy.waitForMailbox("user@example.com");
+    policy.waitForMailbox("user@example.com");
+    policy.waitForMailbox("other@example.com");
+    Assert.assertTrue(System.currentTimeMillis() - start < 40);
+
+    // The burst is used up, so the next requests are spaced 50 ms apart
+    for (int i = 0; i < 4; i++) {
+      policy.waitForMailbox("user@example.com");
+    }
+    Assert.assertTrue(System.currentTimeMillis() - start >= 180);
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core.request;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.HangingRequestDisconnectReason;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class HangingServiceRequestBaseTest {
+
+  /**
+   * Disconnects a user and the reader thread at the same time, many times;
+   * the disconnect events are raised once each time.
+   */
+  @Test
+  public void testConcurrentDisconnectsRaiseOneEvent() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      ExecutorService readerExecutor = Executors.newSingleThreadExecutor();
+      FakeHangingService service = new FakeHangingService(readerExecutor);
+      final GetStreamingEventsRequest request = createRequest(service);
+      List<HangingRequestDisconnectEventArgs> disconnects = recordDisconnects(request);
+      request.internalExecute();
+      Assert.assertTrue(request.isConnected());
+
+      final FakeHangingRequest transport = service.request.get();
+      final CyclicBarrier start = new CyclicBarrier(2);
+      Thread user = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          request.disconnect();
+        }
+      });
+      Thread server = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          // Ends the read in progress, so the reader thread disconnects
+          transport.close();
+        }
+      });
+      user.start();
+      server.start();
+      user.join(5000);
+      server.join(5000);
+      readerExecutor.shutdown();
+      Assert.assertTrue(readerExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+      Assert.assertFalse(request.isConnected());
+      Assert.assertEquals(1, disconnects.size());
+    }
+  }
+
+  /**
+   * Connects while the executor rejects the reader; the request is
+   * disconnected and the rejection is thrown.
+   */
+  @Test
+  public void testRejectedReaderDisconnects() throws Exception {
+    ExecutorService readerExecutor = Executors.newSingleThreadExecutor();
+    readerExecutor.shutdown();
+    FakeHangingService service = new FakeHangingService(readerExecutor);
+    GetStreamingEventsRequest request = createRequest(service);
+    List<HangingRequestDisconnectEventArgs> disconnects = recordDisconnects(request);
+
+    try {
+      request.internalExecute();
+      Assert.fail("The rejection was not thrown");
+    } catch (RejectedExecutionException e) {
+      // Expected
+    }
+
+    Assert.assertFalse(request.isConnected());
+    Assert.assertTrue(service.request.get().closed);
+    Assert.assertEquals(1, disconnects.size());
+    Assert.assertEquals(HangingRequestDisconnectReason.Exception, disconnects.get(0).getReason());
+    Assert.assertTrue(disconnects.get(0).getException() instanceof RejectedExecutionException);
+  }
+
+  /**
+   * Runs a task on the shared executor, which uses a virtual thread when the
+   * Java version has them.
+   */
+  @Test
+  public void testSharedExecutorUsesVirtualThreadsWhenAvailable() throws Exception {
+    boolean virtualThreads;
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      virtualThreads = true;
+    } catch (NoSuchMethodException e) {
+      virtualThreads = false;
+    }
+
+    ExecutorService executor = HangingServiceRequestBase.createSharedReaderExecutor();
+    try {
+      final AtomicReference<Thread> reader = new AtomicReference<Thread>();
+      final CountDownLatch done = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          reader.set(Thread.currentThread());
+          done.countDown();
+        }
+      });
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      if (virtualThreads) {
+        Assert.assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(reader.get()));
+      } else {
+        Assert.assertTrue(reader.get().getName().startsWith("ews-hanging-request-"));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static GetStreamingEventsRequest createRequest(ExchangeService service) throws Exception {
+    return new GetStreamingEventsRequest(service, new HangingServiceRequestBase.IHandleResponseObject() {
+      @Override
+      public void handleResponseObject(Object response) {
+      }
+    }, Collections.singletonList("subscription"), 30);
+  }
+
+  private static List<HangingRequestDisconnectEventArgs> recordDisconnects(HangingServiceRequestBase<?> request) {
+    final List<HangingRequestDisconnectEventArgs> disconnects =
+        new CopyOnWriteArrayList<HangingRequestDisconnectEventArgs>();
+    request.addOnDisconnectEvent(new HangingServiceRequestBase.IHangingRequestDisconnectHandler() {
+      @Override
+      public void hangingRequestDisconnectHandler(Object sender, HangingRequestDisconnectEventArgs args) {
+        disconnects.add(args);
+      }
+    });
+    return disconnects;
+  }
+
+  private static void awaitQuietly(CyclicBarrier barrier) {
+    try {
+      barrier.await(5, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  /**
+   * A service whose hanging requests are read on the given executor and
+   * answered with a response that never ends.
+   */
+  private static class FakeHangingService extends ExchangeService {
+
+    final AtomicReference<FakeHangingRequest> request = new AtomicReference<FakeHangingRequest>();
+
+    FakeHangingService(ExecutorService readerExecutor) throws Exception {
+      setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+      setHangingRequestExecutor(readerExecutor);
+      setHttpWebRequestFactory(new IHttpWebRequestFactory() {
+        @Override
+        public HttpWebRequest createHttpWebRequest(URI url, boolean subscription) {
+          FakeHangingRequest created = new FakeHangingRequest();
+          request.set(created);
+          return created;
+        }
+      });
+    }
+  }
+
+
+  /**
+   * A request whose response blocks reads until it is closed.
+   */
+  private static class FakeHangingRequest extends HttpWebRequest {
+
+    private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    volatile boolean closed;
+
+    private final InputStream responseBody = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        try {
+          closing.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new IOException("The connection was reset.");
+      }
+    };
+
+    @Override
+    public int executeRequest() {
+      return 200;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return requestBody;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      closing.countDown();
+    }
+
+    @Override
+    public void prepareConnection() {
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders() {
+      return new HashMap<String, String>();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public String getResponseContentType() {
+      return "text/xml; charset=utf-8";
+    }
+
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public String getResponseText() {
+      return "OK";
+    }
+
+    @Override
+    public String getResponseHeaderField(String headerName) {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getRequestProperty() {
+      return new HashMap<String, String>();
+    }
+  }
+}
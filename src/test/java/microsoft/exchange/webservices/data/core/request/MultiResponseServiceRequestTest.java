@@ -0,0 +1,452 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core.request;
+
+import microsoft.exchange.webservices.base.util.TestUtils;
+import microsoft.exchange.webservices.data.core.ConcurrencyLimiter;
+import microsoft.exchange.webservices.data.core.EwsServiceXmlWriter;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.ThrottlingRetryPolicy;
+import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.enumeration.service.error.ServiceErrorHandling;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class MultiResponseServiceRequestTest {
+
+  @Test
+  public void testSplitRequest() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumItemsPerRequest(4);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    ServiceResponseCollection<ItemResponse> responses = new FakeRequest(service, range(10), sizes).execute();
+
+    Assert.assertEquals(10, responses.getCount());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+    }
+    Assert.assertEquals(3, sizes.size());
+    Assert.assertEquals(10, sizes.get(0) + sizes.get(1) + sizes.get(2));
+  }
+
+  @Test
+  public void testSplitRequestInParallel() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumItemsPerRequest(3);
+    service.setConcurrentRequestsEnabled(true);
+    service.setSplitRequestsInParallel(true);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    try {
+      ServiceResponseCollection<ItemResponse> responses = new FakeRequest(service, range(10), sizes).execute();
+
+      Assert.assertEquals(10, responses.getCount());
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+      }
+      Assert.assertEquals(4, sizes.size());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testBusyResponseShrinksConcurrencyLimit() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 100);
+    ServiceResponseCollection<ItemResponse> responses = new ServiceResponseCollection<ItemResponse>();
+    responses.add(new ItemResponse(0));
+    ItemResponse busy = new ItemResponse(1);
+    TestUtils.setField(ServiceResponse.class, busy, "result", ServiceResult.Error);
+    TestUtils.setField(ServiceResponse.class, busy, "errorCode", ServiceError.ErrorServerBusy);
+    responses.add(busy);
+
+    ServiceRequestBase.releaseConcurrencyPermit(limiter.acquire("user", "cas"), responses, null);
+
+    Assert.assertEquals(1, limiter.getMailboxLimit("user"));
+    Assert.assertEquals(12, limiter.getEndpointLimit("cas"));
+  }
+
+  @Test
+  public void testThrottledItemIsSentOncePerRetry() throws Exception {
+    ExchangeService service = new ExchangeService();
+    CountingRetryPolicy retryPolicy = new CountingRetryPolicy(3);
+    service.setRetryPolicy(retryPolicy);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(4), sizes);
+    request.busyAnswers.put(2, 10);
+
+    ServiceResponseCollection<ItemResponse> responses = request.execute();
+
+    // The first request, then one partial request per retry
+    Assert.assertEquals(Arrays.asList(4, 1, 1, 1), sizes);
+    Assert.assertEquals(4, retryPolicy.budgetTakes.get());
+    Assert.assertTrue(ThrottlingRetryPolicy.isThrottled(responses.getResponseAtIndex(2)));
+    Assert.assertFalse(ThrottlingRetryPolicy.isThrottled(responses.getResponseAtIndex(3)));
+  }
+
+  @Test
+  public void testThrottledRequestIsSentOncePerRetry() throws Exception {
+    ExchangeService service = new ExchangeService();
+    CountingRetryPolicy retryPolicy = new CountingRetryPolicy(3);
+    service.setRetryPolicy(retryPolicy);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(4), sizes);
+    request.busyRequests.set(10);
+
+    try {
+      request.execute();
+      Assert.fail("The throttled request did not fail");
+    } catch (ServiceRequestException e) {
+      Assert.assertTrue(ThrottlingRetryPolicy.isThrottled(e));
+    }
+    Assert.assertEquals(Arrays.asList(4, 4, 4, 4), sizes);
+    Assert.assertEquals(4, retryPolicy.budgetTakes.get());
+  }
+
+  @Test
+  public void testRetriesOfRequestAndItemsShareOneCount() throws Exception {
+    ExchangeService service = new ExchangeService();
+    CountingRetryPolicy retryPolicy = new CountingRetryPolicy(3);
+    service.setRetryPolicy(retryPolicy);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(4), sizes);
+    request.busyRequests.set(1);
+    request.busyAnswers.put(1, 1);
+
+    ServiceResponseCollection<ItemResponse> responses = request.execute();
+
+    Assert.assertEquals(Arrays.asList(4, 4, 1), sizes);
+    Assert.assertEquals(3, retryPolicy.budgetTakes.get());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+      Assert.assertFalse(ThrottlingRetryPolicy.isThrottled(responses.getResponseAtIndex(i)));
+    }
+  }
+
+  @Test
+  public void testSplitRequestAsync() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumItemsPerRequest(4);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    try {
+      ServiceResponseCollection<ItemResponse> responses =
+          new FakeRequest(service, range(10), sizes).executeAsync().get();
+
+      Assert.assertEquals(10, responses.getCount());
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+      }
+      // Each part is sent once the previous one has been answered
+      Assert.assertEquals(Arrays.asList(4, 4, 2), sizes);
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testSplitRequestInParallelAsync() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumItemsPerRequest(3);
+    service.setConcurrentRequestsEnabled(true);
+    service.setSplitRequestsInParallel(true);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    try {
+      ServiceResponseCollection<ItemResponse> responses =
+          new FakeRequest(service, range(10), sizes).executeAsync().get();
+
+      Assert.assertEquals(10, responses.getCount());
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+      }
+      Assert.assertEquals(4, sizes.size());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testThrottledItemIsRetriedAsync() throws Exception {
+    ExchangeService service = new ExchangeService();
+    CountingRetryPolicy retryPolicy = new CountingRetryPolicy(3);
+    service.setRetryPolicy(retryPolicy);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(4), sizes);
+    request.busyAnswers.put(2, 2);
+
+    try {
+      ServiceResponseCollection<ItemResponse> responses = request.executeAsync().get();
+
+      Assert.assertEquals(Arrays.asList(4, 1, 1), sizes);
+      Assert.assertEquals(3, retryPolicy.budgetTakes.get());
+      for (int i = 0; i < 4; i++) {
+        Assert.assertEquals(i, responses.getResponseAtIndex(i).item);
+        Assert.assertFalse(ThrottlingRetryPolicy.isThrottled(responses.getResponseAtIndex(i)));
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testThrottledRequestFailsAsyncAfterRetries() throws Exception {
+    ExchangeService service = new ExchangeService();
+    CountingRetryPolicy retryPolicy = new CountingRetryPolicy(3);
+    service.setRetryPolicy(retryPolicy);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(4), sizes);
+    request.busyRequests.set(10);
+
+    try {
+      request.executeAsync().get();
+      Assert.fail("The throttled request did not fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof ServiceRequestException);
+      Assert.assertTrue(ThrottlingRetryPolicy.isThrottled((ServiceRequestException) e.getCause()));
+    } finally {
+      service.close();
+    }
+    Assert.assertEquals(Arrays.asList(4, 4, 4, 4), sizes);
+    Assert.assertEquals(4, retryPolicy.budgetTakes.get());
+  }
+
+  @Test
+  public void testFailedPartEndsSplitRequestAsync() throws Exception {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumItemsPerRequest(4);
+    List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    FakeRequest request = new FakeRequest(service, range(10), sizes);
+    request.failingItem = 4;
+
+    try {
+      request.executeAsync().get();
+      Assert.fail("The failed part did not fail the request");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof ServiceRequestException);
+    } finally {
+      service.close();
+    }
+    // The part after the failed one is not sent
+    Assert.assertEquals(Arrays.asList(4, 4), sizes);
+  }
+
+  private static List<Integer> range(int count) {
+    List<Integer> items = new ArrayList<Integer>();
+    for (int i = 0; i < count; i++) {
+      items.add(i);
+    }
+    return items;
+  }
+
+
+  private static class ItemResponse extends ServiceResponse {
+
+    private final int item;
+
+    ItemResponse(int item) throws Exception {
+      this.item = item;
+      TestUtils.setField(ServiceResponse.class, this, "result", ServiceResult.Success);
+    }
+
+    static ItemResponse busy(int item) throws Exception {
+      ItemResponse response = new ItemResponse(item);
+      TestUtils.setField(ServiceResponse.class, response, "result", ServiceResult.Error);
+      TestUtils.setField(ServiceResponse.class, response, "errorCode", ServiceError.ErrorServerBusy);
+      return response;
+    }
+  }
+
+
+  /**
+   * A retry policy that does not wait, counting the requests that take from
+   * the budget of a mailbox.
+   */
+  private static class CountingRetryPolicy extends ThrottlingRetryPolicy {
+
+    final AtomicInteger budgetTakes = new AtomicInteger();
+
+    CountingRetryPolicy(int maximumRetries) {
+      super(maximumRetries, 1, 1);
+    }
+
+    @Override
+    protected long getDelay(int attempt, long serverBackOff) {
+      return 0;
+    }
+
+    @Override
+    public void waitForMailbox(String mailbox) throws InterruptedException {
+      budgetTakes.incrementAndGet();
+      super.waitForMailbox(mailbox);
+    }
+  }
+
+
+  /**
+   * A request that answers locally, recording the number of items per request.
+   */
+  private static class FakeRequest extends MultiResponseServiceRequest<ItemResponse> {
+
+    private final List<Integer> items;
+
+    private final List<Integer> sizes;
+
+    // The number of times the whole request is answered as throttled
+    final AtomicInteger busyRequests;
+
+    // The number of times each item is answered as throttled, by item
+    final Map<Integer, Integer> busyAnswers;
+
+    // An item whose requests fail, or -1
+    volatile int failingItem = -1;
+
+    FakeRequest(ExchangeService service, List<Integer> items, List<Integer> sizes) throws Exception {
+      this(service, items, sizes, new AtomicInteger(), new ConcurrentHashMap<Integer, Integer>());
+    }
+
+    private FakeRequest(ExchangeService service, List<Integer> items, List<Integer> sizes,
+        AtomicInteger busyRequests, Map<Integer, Integer> busyAnswers) throws Exception {
+      super(service, ServiceErrorHandling.ReturnErrors);
+      this.items = items;
+      this.sizes = sizes;
+      this.busyRequests = busyRequests;
+      this.busyAnswers = busyAnswers;
+    }
+
+    @Override
+    protected ServiceResponseCollection<ItemResponse> internalExecuteOnce() throws Exception {
+      return answer();
+    }
+
+    /**
+     * Answers on a thread of the async executor, as a request whose response
+     * has been read there.
+     */
+    @Override
+    protected void internalExecuteAsync(
+        final IResponseHandler<ServiceResponseCollection<ItemResponse>> handler) {
+      getService().getAsyncExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          ServiceResponseCollection<ItemResponse> responses;
+          try {
+            responses = answer();
+          } catch (Exception e) {
+            handler.failed(e);
+            return;
+          }
+          handler.completed(responses);
+        }
+      });
+    }
+
+    private ServiceResponseCollection<ItemResponse> answer() throws Exception {
+      sizes.add(items.size());
+      if (items.contains(failingItem)) {
+        throw new ServiceRequestException("The request failed.", new IllegalStateException());
+      }
+      if (busyRequests.getAndDecrement() > 0) {
+        throw new ServiceRequestException("The request failed.",
+            new ServiceResponseException(ItemResponse.busy(items.get(0))));
+      }
+      ServiceResponseCollection<ItemResponse> responses = new ServiceResponseCollection<ItemResponse>();
+      for (int item : items) {
+        Integer busy = busyAnswers.get(item);
+        if (busy != null && busy > 0) {
+          busyAnswers.put(item, busy - 1);
+          responses.add(ItemResponse.busy(item));
+        } else {
+          responses.add(new ItemResponse(item));
+        }
+      }
+      return responses;
+    }
+
+    @Override
+    protected FakeRequest createPartialRequest(List<Integer> responseIndexes) throws Exception {
+      List<Integer> partItems = new ArrayList<Integer>();
+      for (int index : responseIndexes) {
+        partItems.add(items.get(index));
+      }
+      FakeRequest part = new FakeRequest(this.getService(), partItems, sizes, busyRequests, busyAnswers);
+      part.failingItem = failingItem;
+      return part;
+    }
+
+    @Override
+    protected ItemResponse createServiceResponse(ExchangeService service, int responseIndex)
+        throws Exception {
+      return new ItemResponse(items.get(responseIndex));
+    }
+
+    @Override
+    protected String getResponseMessageXmlElementName() {
+      return "FakeResponseMessage";
+    }
+
+    @Override
+    protected int getExpectedResponseMessageCount() {
+      return items.size();
+    }
+
+    @Override
+    public String getXmlElementName() {
+      return "Fake";
+    }
+
+    @Override
+    protected String getResponseXmlElementName() {
+      return "FakeResponse";
+    }
+
+    @Override
+    protected ExchangeVersion getMinimumRequiredServerVersion() {
+      return ExchangeVersion.Exchange2007_SP1;
+    }
+
+    @Override
+    protected void writeElementsToXml(EwsServiceXmlWriter writer) {
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package microsoft.exchange.webservices.data.core.request;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@RunWith(JUnit4.class)
+public class StreamingRequestEntityTest {
+
+  private int writes;
+
+  private final IRequestContentWriter writer = new IRequestContentWriter() {
+    @Override
+    public void writeTo(OutputStream stream) throws Exception {
+      writes++;
+      stream.write("<soap:Envelope/>".getBytes("UTF-8"));
+    }
+  };
+
+  @Test
+  public void testEntityIsChunkedAndRepeatable() {
+    StreamingRequestEntity entity = new StreamingRequestEntity(writer);
+
+    Assert.assertTrue(entity.isChunked());
+    Assert.assertTrue(entity.isRepeatable());
+    Assert.assertFalse(entity.isStreaming());
+    Assert.assertEquals(-1, entity.getContentLength());
+    Assert.assertEquals("text/xml; charset=utf-8", entity.getContentType().getValue());
+    Assert.assertEquals(0, writes);
+  }
+
+  @Test
+  public void testBodyIsWrittenAgainOnEachWrite() throws Exception {
+    StreamingRequestEntity entity = new StreamingRequestEntity(writer);
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+    entity.writeTo(first);
+    entity.writeTo(second);
+
+    Assert.assertEquals(2, writes);
+    Assert.assertEquals("<soap:Envelope/>", first.toString("UTF-8"));
+    Assert.assertEquals("<soap:Envelope/>", second.toString("UTF-8"));
+  }
+
+  @Test
+  public void testContentIsBuffered() throws Exception {
+    StreamingRequestEntity entity = new StreamingRequestEntity(writer);
+
+    InputStream content = entity.getContent();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (int b; (b = content.read()) != -1; ) {
+      body.write(b);
+    }
+
+    Assert.assertEquals(1, writes);
+    Assert.assertEquals("<soap:Envelope/>", body.toString("UTF-8"));
+  }
+
+  @Test
+  public void testWriterErrorsAreIOExceptions() throws Exception {
+    final IllegalStateException error = new IllegalStateException("no body");
+    StreamingRequestEntity entity = new StreamingRequestEntity(new IRequestContentWriter() {
+      @Override
+      public void writeTo(OutputStream stream) throws Exception {
+        throw error;
+      }
+    });
+
+    try {
+      entity.writeTo(new ByteArrayOutputStream());
+      Assert.fail("Expected an IOException");
+    } catch (IOException e) {
+      Assert.assertSame(error, e.getCause());
+      Assert.assertEquals("no body", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.core.response;
+
+import microsoft.exchange.webservices.data.core.EwsServiceXmlReader;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.XmlElementNames;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.search.IFindItemsHandler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class FindItemResponseTest {
+
+  private static final String RESPONSE_MESSAGE =
+      "<m:FindItemResponseMessage"
+      + " xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\""
+      + " xmlns:t=\"http://schemas.microsoft.com/exchange/services/2006/types\" ResponseClass=\"Success\">"
+      + "<m:ResponseCode>NoError</m:ResponseCode>"
+      + "<m:RootFolder TotalItemsInView=\"5\" IncludesLastItemInRange=\"false\" IndexedPagingOffset=\"2\">"
+      + "<t:Items>"
+      + "<t:Message><t:ItemId Id=\"first\" ChangeKey=\"a\"/><t:Subject>First</t:Subject></t:Message>"
+      + "<t:Message><t:ItemId Id=\"second\" ChangeKey=\"b\"/><t:Subject>Second</t:Subject></t:Message>"
+      + "</t:Items>"
+      + "</m:RootFolder>"
+      + "</m:FindItemResponseMessage>";
+
+  @Test
+  public void testItemHandler() throws Exception {
+    ExchangeService service = new ExchangeService();
+    EwsServiceXmlReader reader =
+        new EwsServiceXmlReader(new ByteArrayInputStream(RESPONSE_MESSAGE.getBytes("UTF-8")), service);
+    final List<String> subjects = new ArrayList<String>();
+
+    FindItemResponse<Item> response = new FindItemResponse<Item>(PropertySet.FirstClassProperties,
+        new IFindItemsHandler<Item>() {
+          @Override
+          public void handleItem(Item item) throws Exception {
+            subjects.add(item.getSubject());
+          }
+        });
+    reader.read();
+    response.loadFromXml(reader, XmlElementNames.FindItemResponseMessage);
+
+    Assert.assertEquals(2, subjects.size());
+    Assert.assertEquals("First", subjects.get(0));
+    Assert.assertEquals("Second", subjects.get(1));
+    Assert.assertTrue(response.getResults().getItems().isEmpty());
+    Assert.assertEquals(5, response.getResults().getTotalCount());
+    Assert.assertEquals(Integer.valueOf(2), response.getResults().getNextPageOffset());
+  }
+}
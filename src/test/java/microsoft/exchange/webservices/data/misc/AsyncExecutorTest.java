@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.misc;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class AsyncExecutorTest {
+
+  @Test
+  public void testCallbackForEveryTaskWithinThreadBound() throws Exception {
+    final int taskCount = 20;
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch callbacks = new CountDownLatch(taskCount);
+    AsyncExecutor executor = new AsyncExecutor(2);
+    try {
+      for (int i = 0; i < taskCount; i++) {
+        final int value = i;
+        Future<Integer> task = executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int now = running.incrementAndGet();
+            while (true) {
+              int max = maxRunning.get();
+              if (now <= max || maxRunning.compareAndSet(max, now)) {
+                break;
+              }
+            }
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return value;
+          }
+        }, new AsyncCallback() {
+          @Override
+          public Object processMe(Future<?> task) {
+            Assert.assertTrue(task.isDone());
+            callbacks.countDown();
+            return null;
+          }
+        });
+        Assert.assertNotNull(task);
+      }
+      Assert.assertTrue(callbacks.await(10, TimeUnit.SECONDS));
+      Assert.assertTrue(maxRunning.get() <= 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testServiceOwnsDefaultExecutor() {
+    ExchangeService service = new ExchangeService();
+    ExecutorService executor = service.getAsyncExecutor();
+    Assert.assertSame(executor, service.getAsyncExecutor());
+    service.close();
+    Assert.assertTrue(executor.isShutdown());
+  }
+
+  @Test
+  public void testServiceDoesNotShutDownSharedExecutor() {
+    ExecutorService shared = Executors.newSingleThreadExecutor();
+    try {
+      ExchangeService service = new ExchangeService();
+      service.setAsyncExecutor(shared);
+      Assert.assertSame(shared, service.getAsyncExecutor());
+      service.close();
+      Assert.assertFalse(shared.isShutdown());
+    } finally {
+      shared.shutdown();
+    }
+  }
+
+  @Test
+  public void testDefaultExecutorUsesVirtualThreadsWhenAvailable() throws Exception {
+    boolean virtualThreads;
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      virtualThreads = true;
+    } catch (NoSuchMethodException e) {
+      virtualThreads = false;
+    }
+
+    ExchangeService service = new ExchangeService();
+    try {
+      Thread thread = service.getAsyncExecutor().submit(new Callable<Thread>() {
+        @Override
+        public Thread call() {
+          return Thread.currentThread();
+        }
+      }).get(5, TimeUnit.SECONDS);
+      if (virtualThreads) {
+        Assert.assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+      } else {
+        Assert.assertTrue(service.getAsyncExecutor() instanceof AsyncExecutor);
+        Assert.assertTrue(thread.getName().startsWith("ews-async-"));
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testMaximumAsyncThreadsSelectsBoundedExecutor() {
+    ExchangeService service = new ExchangeService();
+    service.setMaximumAsyncThreads(3);
+    try {
+      ExecutorService executor = service.getAsyncExecutor();
+      Assert.assertTrue(executor instanceof AsyncExecutor);
+      Assert.assertEquals(3, ((AsyncExecutor) executor).getMaximumPoolSize());
+    } finally {
+      service.close();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.enumeration.notification.NotificationOverflowPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class NotificationDispatcherTest {
+
+  @Test
+  public void testOrderPerSubscription() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    NotificationDispatcher dispatcher = new NotificationDispatcher(executor, 1000,
+        NotificationOverflowPolicy.Block);
+    final List<Integer> first = new CopyOnWriteArrayList<Integer>();
+    final List<Integer> second = new CopyOnWriteArrayList<Integer>();
+    try {
+      for (int i = 0; i < 500; i++) {
+        final int value = i;
+        dispatcher.dispatch("first", new Runnable() {
+          @Override
+          public void run() {
+            first.add(value);
+          }
+        });
+        dispatcher.dispatch("second", new Runnable() {
+          @Override
+          public void run() {
+            second.add(value);
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    for (int i = 0; i < 500; i++) {
+      Assert.assertEquals(i, first.get(i).intValue());
+      Assert.assertEquals(i, second.get(i).intValue());
+    }
+    Assert.assertEquals(1000, dispatcher.getDispatchedCount());
+    Assert.assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test
+  public void testDiscardWhenFull() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    NotificationDispatcher dispatcher = new NotificationDispatcher(executor, 2,
+        NotificationOverflowPolicy.Discard);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    try {
+      Assert.assertTrue(dispatcher.dispatch("subscription", blocked));
+      Assert.assertTrue(dispatcher.dispatch("subscription", blocked));
+      Assert.assertFalse(dispatcher.dispatch("subscription", blocked));
+      Assert.assertEquals(2, dispatcher.getQueueDepth());
+      Assert.assertEquals(1, dispatcher.getDiscardedCount());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    Assert.assertEquals(2, dispatcher.getDispatchedCount());
+    Assert.assertTrue(dispatcher.getMaximumHandlerLatency() >= dispatcher.getAverageHandlerLatency());
+  }
+
+  @Test
+  public void testNotificationsRunAfterDelegateError() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    NotificationDispatcher dispatcher = new NotificationDispatcher(executor, 1,
+        NotificationOverflowPolicy.Block);
+    final CountDownLatch delivered = new CountDownLatch(1);
+    try {
+      dispatcher.dispatch("subscription", new Runnable() {
+        @Override
+        public void run() {
+          throw new Error("Delegate failed");
+        }
+      });
+      dispatcher.dispatch("subscription", new Runnable() {
+        @Override
+        public void run() {
+          delivered.countDown();
+        }
+      });
+      Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    Assert.assertEquals(2, dispatcher.getDispatchedCount());
+    Assert.assertEquals(0, dispatcher.getQueueDepth());
+  }
+}
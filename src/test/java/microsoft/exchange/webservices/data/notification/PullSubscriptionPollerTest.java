@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.base.util.TestUtils;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(JUnit4.class)
+public class PullSubscriptionPollerTest {
+
+  @Test
+  public void testResubscribeFromLastWatermark() throws Exception {
+    FakePullService service = new FakePullService();
+    RecordingHandler handler = new RecordingHandler();
+    PullSubscriptionPoller poller = new PullSubscriptionPoller(handler, 2, 10);
+    try {
+      poller.setMinimumPollInterval(100);
+      poller.setMaximumPollInterval(200);
+      PullSubscriptionPoller.Registration registration =
+          poller.add(service, null, 30, "w0", "user@example.com", EventType.Created);
+
+      for (int i = 0; i < 100 && !"w2".equals(registration.getWatermark()); i++) {
+        Thread.sleep(50);
+      }
+
+      Assert.assertTrue(handler.errors.isEmpty());
+      Assert.assertEquals(2, handler.batches.size());
+      Assert.assertEquals("w2", registration.getWatermark());
+      Assert.assertEquals("user@example.com", registration.getContext());
+
+      // The expired subscription is created again from the last watermark
+      Assert.assertEquals("w0", service.subscribeWatermarks.get(0));
+      Assert.assertEquals("w1", service.subscribeWatermarks.get(1));
+      Assert.assertEquals("s2", registration.getSubscription().getId());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void testDeliveryContinuesAfterHandlerError() throws Exception {
+    FakePullService service = new FakePullService();
+    RecordingHandler handler = new RecordingHandler() {
+      private boolean failed;
+
+      @Override
+      public void handleEvents(PullSubscriptionPoller.Registration registration,
+          Collection<NotificationEvent> events) {
+        if (!failed) {
+          failed = true;
+          throw new Error("Handler failed");
+        }
+        super.handleEvents(registration, events);
+      }
+    };
+    PullSubscriptionPoller poller = new PullSubscriptionPoller(handler, 2, 10);
+    try {
+      poller.setMinimumPollInterval(100);
+      poller.setMaximumPollInterval(200);
+      PullSubscriptionPoller.Registration registration =
+          poller.add(service, null, 30, "w0", "user@example.com", EventType.Created);
+
+      for (int i = 0; i < 100 && !"w2".equals(registration.getWatermark()); i++) {
+        Thread.sleep(50);
+      }
+
+      // The failed batch is dropped, and the dispatcher delivers the next one
+      Assert.assertEquals(1, handler.batches.size());
+      Assert.assertEquals("w2", registration.getWatermark());
+    } finally {
+      poller.close();
+    }
+  }
+
+  private static class RecordingHandler implements IPullNotificationHandler {
+
+    final List<Collection<NotificationEvent>> batches = new CopyOnWriteArrayList<Collection<NotificationEvent>>();
+
+    final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+
+    @Override
+    public void handleEvents(PullSubscriptionPoller.Registration registration,
+        Collection<NotificationEvent> events) {
+      batches.add(events);
+    }
+
+    @Override
+    public void handleError(PullSubscriptionPoller.Registration registration, Exception exception) {
+      errors.add(exception);
+    }
+  }
+
+  /**
+   * Returns an event with more available, then loses the subscription, then
+   * returns one more event and nothing afterwards.
+   */
+  private static class FakePullService extends ExchangeService {
+
+    final List<String> subscribeWatermarks = new CopyOnWriteArrayList<String>();
+
+    private int getEventsCount;
+
+    @Override
+    public PullSubscription subscribeToPullNotificationsOnAllFolders(int timeout, String watermark,
+        EventType... eventTypes) throws Exception {
+      subscribeWatermarks.add(watermark);
+      PullSubscription subscription = new PullSubscription(this);
+      subscription.setId("s" + subscribeWatermarks.size());
+      subscription.setWaterMark(watermark);
+      return subscription;
+    }
+
+    @Override
+    public synchronized GetEventsResults getEvents(String subscriptionId, String waterMark) throws Exception {
+      switch (++getEventsCount) {
+        case 1:
+          return createResults("w1", true, 1);
+        case 2:
+          ServiceResponse response = new ServiceResponse();
+          TestUtils.setField(ServiceResponse.class, response, "errorCode", ServiceError.ErrorExpiredSubscription);
+          throw new ServiceResponseException(response);
+        case 3:
+          return createResults("w2", false, 1);
+        default:
+          return createResults(waterMark, false, 0);
+      }
+    }
+
+    private static GetEventsResults createResults(String watermark, boolean moreEventsAvailable, int count)
+        throws Exception {
+      GetEventsResults results = new GetEventsResults();
+      TestUtils.setField(GetEventsResults.class, results, "newWatermark", watermark);
+      TestUtils.setField(GetEventsResults.class, results, "moreEventsAvailable", moreEventsAvailable);
+      for (int i = 0; i < count; i++) {
+        results.getAllEvents().add(new ItemEvent(EventType.Created, new Date()));
+      }
+      return results;
+    }
+  }
+}
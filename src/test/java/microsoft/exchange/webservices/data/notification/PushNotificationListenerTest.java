@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class PushNotificationListenerTest {
+
+  private static final Log LOG = LogFactory.getLog(PushNotificationListenerTest.class);
+
+  private static final String Notification = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+      + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\""
+      + " xmlns:t=\"http://schemas.microsoft.com/exchange/services/2006/types\""
+      + " xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\">"
+      + "<soap:Header><t:RequestServerVersion Version=\"Exchange2010_SP2\"/></soap:Header>"
+      + "<soap:Body><m:SendNotification><m:ResponseMessages>"
+      + "<m:SendNotificationResponseMessage ResponseClass=\"Success\">"
+      + "<m:ResponseCode>NoError</m:ResponseCode>"
+      + "<m:Notification>"
+      + "<t:SubscriptionId>subscription1</t:SubscriptionId>"
+      + "<t:PreviousWatermark>AAAA</t:PreviousWatermark>"
+      + "<t:MoreEvents>false</t:MoreEvents>"
+      + "<t:CreatedEvent>"
+      + "<t:Watermark>AAAB</t:Watermark>"
+      + "<t:TimeStamp>2014-05-13T10:00:00Z</t:TimeStamp>"
+      + "<t:ItemId Id=\"item1\" ChangeKey=\"CQAA\"/>"
+      + "<t:ParentFolderId Id=\"inbox\" ChangeKey=\"AQAA\"/>"
+      + "</t:CreatedEvent>"
+      + "</m:Notification>"
+      + "</m:SendNotificationResponseMessage>"
+      + "</m:ResponseMessages></m:SendNotification></soap:Body></soap:Envelope>";
+
+  @Test
+  public void testNotificationIsHandledAndAcknowledged() throws Exception {
+    final List<String> subscriptions = new ArrayList<String>();
+    final List<NotificationEvent> received = new ArrayList<NotificationEvent>();
+    final boolean[] keepSubscription = {true};
+    PushNotificationListener listener = new PushNotificationListener(new ExchangeService(),
+        new InetSocketAddress("127.0.0.1", 0), new IPushNotificationHandler() {
+          @Override
+          public synchronized boolean handleNotification(String subscriptionId, String watermark,
+              Collection<NotificationEvent> events) {
+            subscriptions.add(subscriptionId + "@" + watermark);
+            received.addAll(events);
+            return keepSubscription[0];
+          }
+        });
+    try {
+      Assert.assertTrue(post(listener, Notification).contains("<SubscriptionStatus>OK</SubscriptionStatus>"));
+      Assert.assertEquals("subscription1@AAAB", subscriptions.get(0));
+      Assert.assertEquals(1, received.size());
+      ItemEvent event = (ItemEvent) received.get(0);
+      Assert.assertEquals(EventType.Created, event.getEventType());
+      Assert.assertEquals("item1", event.getItemId().getUniqueId());
+      Assert.assertEquals("inbox", event.getParentFolderId().getUniqueId());
+
+      keepSubscription[0] = false;
+      Assert.assertTrue(post(listener, Notification)
+          .contains("<SubscriptionStatus>Unsubscribe</SubscriptionStatus>"));
+    } finally {
+      listener.close();
+    }
+  }
+
+  @Test
+  public void testUnreadableNotificationIsRejected() throws Exception {
+    PushNotificationListener listener = new PushNotificationListener(new ExchangeService(),
+        new InetSocketAddress("127.0.0.1", 0), new IPushNotificationHandler() {
+          @Override
+          public boolean handleNotification(String subscriptionId, String watermark,
+              Collection<NotificationEvent> events) {
+            Assert.fail();
+            return true;
+          }
+        });
+    try {
+      Assert.assertEquals(400, connect(listener, "<soap:Envelope").getResponseCode());
+    } finally {
+      listener.close();
+    }
+  }
+
+  @Test
+  public void testFailedHandlerIsAnsweredWithServerError() throws Exception {
+    PushNotificationListener listener = new PushNotificationListener(new ExchangeService(),
+        new InetSocketAddress("127.0.0.1", 0), new IPushNotificationHandler() {
+          @Override
+          public boolean handleNotification(String subscriptionId, String watermark,
+              Collection<NotificationEvent> events) {
+            throw new IllegalStateException("handler failed");
+          }
+        });
+    try {
+      Assert.assertEquals(500, connect(listener, Notification).getResponseCode());
+    } finally {
+      listener.close();
+    }
+  }
+
+  @Test
+  public void testCloseAnswersNotificationBeingHandled() throws Exception {
+    final CountDownLatch handling = new CountDownLatch(1);
+    final CountDownLatch handled = new CountDownLatch(1);
+    final PushNotificationListener listener = new PushNotificationListener(new ExchangeService(),
+        new InetSocketAddress("127.0.0.1", 0), new IPushNotificationHandler() {
+          @Override
+          public boolean handleNotification(String subscriptionId, String watermark,
+              Collection<NotificationEvent> events) throws Exception {
+            handling.countDown();
+            Thread.sleep(200);
+            handled.countDown();
+            return true;
+          }
+        });
+    final String[] result = new String[1];
+    Thread poster = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result[0] = post(listener, Notification);
+        } catch (Exception e) {
+          result[0] = e.toString();
+        }
+      }
+    });
+    poster.start();
+
+    Assert.assertTrue(handling.await(5, TimeUnit.SECONDS));
+    listener.close();
+
+    // close waited for the handler instead of dropping its connection
+    Assert.assertEquals(0, handled.getCount());
+    poster.join(5000);
+    Assert.assertTrue(result[0], result[0].contains("<SubscriptionStatus>OK</SubscriptionStatus>"));
+  }
+
+  /**
+   * Posts notifications from several local clients at once, and logs the
+   * rate at which they are handled and acknowledged.
+   */
+  @Test
+  public void testThroughputUnderConcurrentLoad() throws Exception {
+    final int clientCount = 16;
+    final int notificationsPerClient = 250;
+    final AtomicInteger handledCount = new AtomicInteger();
+    final PushNotificationListener listener = new PushNotificationListener(new ExchangeService(),
+        new InetSocketAddress("127.0.0.1", 0), new IPushNotificationHandler() {
+          @Override
+          public boolean handleNotification(String subscriptionId, String watermark,
+              Collection<NotificationEvent> events) {
+            handledCount.addAndGet(events.size());
+            return true;
+          }
+        });
+    final AtomicInteger acknowledged = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> clients = new ArrayList<Thread>();
+    try {
+      for (int i = 0; i < clientCount; i++) {
+        Thread client = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              for (int j = 0; j < notificationsPerClient; j++) {
+                HttpURLConnection connection = connect(listener, Notification);
+                InputStream response = connection.getInputStream();
+                try {
+                  if (IOUtils.toString(response, "UTF-8").contains("<SubscriptionStatus>OK</SubscriptionStatus>")) {
+                    acknowledged.incrementAndGet();
+                  }
+                } finally {
+                  response.close();
+                }
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        });
+        client.start();
+        clients.add(client);
+      }
+
+      long startTime = System.nanoTime();
+      start.countDown();
+      for (Thread client : clients) {
+        client.join(60000);
+      }
+      long elapsed = System.nanoTime() - startTime;
+
+      if (failure.get() != null) {
+        throw new AssertionError(failure.get());
+      }
+      int total = clientCount * notificationsPerClient;
+      Assert.assertEquals(total, acknowledged.get());
+      Assert.assertEquals(total, handledCount.get());
+      LOG.info(String.format("Handled %d notifications from %d clients in %d ms (%.0f notifications/s)",
+          total, clientCount, TimeUnit.NANOSECONDS.toMillis(elapsed), total * 1e9 / elapsed));
+    } finally {
+      listener.close();
+    }
+  }
+
+  private static String post(PushNotificationListener listener, String body) throws Exception {
+    HttpURLConnection connection = connect(listener, body);
+    Assert.assertEquals(200, connection.getResponseCode());
+    return IOUtils.toString(connection.getInputStream(), "UTF-8");
+  }
+
+  private static HttpURLConnection connect(PushNotificationListener listener, String body) throws Exception {
+    URL url = new URL("http", "127.0.0.1", listener.getAddress().getPort(), "/notifications");
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+    OutputStream output = connection.getOutputStream();
+    output.write(body.getBytes("UTF-8"));
+    output.close();
+    return connection;
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.base.util.TestUtils;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.NotificationOverflowPolicy;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.response.GetStreamingEventsResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class StreamingSubscriptionConnectionTest {
+
+  private static final Log LOG = LogFactory.getLog(StreamingSubscriptionConnectionTest.class);
+
+  private static final int ReaderCount = 4;
+
+  private static final int ResponsesPerReader = 5000;
+
+  /**
+   * Delivers notifications from several threads while subscriptions and
+   * delegates are added and removed, and logs the delivery rate.
+   */
+  @Test
+  public void testNotificationsDuringChurn() throws Throwable {
+    ExchangeService service = new ExchangeService();
+    final StreamingSubscriptionConnection connection = new StreamingSubscriptionConnection(service, 30);
+    final StreamingSubscription stable = createSubscription(service, "stable");
+    connection.addSubscription(stable);
+
+    final AtomicLong stableNotifications = new AtomicLong();
+    connection.addOnNotificationEvent(new StreamingSubscriptionConnection.INotificationEventDelegate() {
+      @Override
+      public void notificationEventDelegate(Object sender, NotificationEventArgs args) {
+        if (args.getSubscription() == stable) {
+          stableNotifications.incrementAndGet();
+        }
+      }
+    });
+
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+
+    // Churns subscriptions and delegates until the readers are done
+    for (int i = 0; i < 2; i++) {
+      final int churner = i;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            StreamingSubscriptionConnection.INotificationEventDelegate delegate =
+                new StreamingSubscriptionConnection.INotificationEventDelegate() {
+                  @Override
+                  public void notificationEventDelegate(Object sender, NotificationEventArgs args) {
+                  }
+                };
+            ExchangeService service = new ExchangeService();
+            start.await();
+            for (int n = 0; !done.get(); n++) {
+              StreamingSubscription subscription = createSubscription(service, "churn" + churner + "-" + (n % 50));
+              connection.addSubscription(subscription);
+              connection.addOnNotificationEvent(delegate);
+              connection.removeSubscription(subscription);
+              connection.removeNotificationEvent(delegate);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      }));
+    }
+
+    final List<Thread> readers = new ArrayList<Thread>();
+    for (int i = 0; i < ReaderCount; i++) {
+      readers.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int n = 0; n < ResponsesPerReader; n++) {
+              connection.handleResponseObject(createResponse("stable", "churn0-" + (n % 50), "churn1-" + (n % 50)));
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      }));
+    }
+    threads.addAll(readers);
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long startTime = System.nanoTime();
+    start.countDown();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    long elapsed = System.nanoTime() - startTime;
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    Assert.assertEquals(ReaderCount * ResponsesPerReader, stableNotifications.get());
+    LOG.info(String.format("Delivered %d responses in %d ms (%.0f responses/s) during churn",
+        ReaderCount * ResponsesPerReader, elapsed / 1000000,
+        ReaderCount * ResponsesPerReader * 1e9 / elapsed));
+  }
+
+  /**
+   * Reports a subscription error while the queue of a discarding dispatcher
+   * is full; the error waits for room instead of being discarded.
+   */
+  @Test
+  public void testSubscriptionErrorIsNotDiscarded() throws Exception {
+    ExchangeService service = new ExchangeService();
+    final StreamingSubscriptionConnection connection = new StreamingSubscriptionConnection(service, 30);
+    connection.addSubscription(createSubscription(service, "failing"));
+    final BlockingQueue<SubscriptionErrorEventArgs> errors = new LinkedBlockingQueue<SubscriptionErrorEventArgs>();
+    connection.addOnSubscriptionError(new StreamingSubscriptionConnection.ISubscriptionErrorDelegate() {
+      @Override
+      public void subscriptionErrorDelegate(Object sender, SubscriptionErrorEventArgs args) {
+        errors.add(args);
+      }
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    NotificationDispatcher dispatcher = new NotificationDispatcher(executor, 1, NotificationOverflowPolicy.Discard);
+    connection.setNotificationDispatcher(dispatcher);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      dispatcher.dispatch("other", new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+
+      final GetStreamingEventsResponse response = new GetStreamingEventsResponse(null);
+      TestUtils.setField(ServiceResponse.class, response, "result", ServiceResult.Error);
+      TestUtils.setField(ServiceResponse.class, response, "errorCode", ServiceError.ErrorSubscriptionNotFound);
+      response.getErrorSubscriptionIds().add("failing");
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connection.handleResponseObject(response);
+          } catch (Exception e) {
+            LOG.error(e);
+          }
+        }
+      });
+      reader.start();
+
+      Assert.assertNull(errors.poll(100, TimeUnit.MILLISECONDS));
+      Assert.assertTrue(reader.isAlive());
+      release.countDown();
+
+      SubscriptionErrorEventArgs error = errors.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(error);
+      Assert.assertEquals("failing", error.getSubscription().getId());
+      reader.join(5000);
+      Assert.assertEquals(0, dispatcher.getDiscardedCount());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private static StreamingSubscription createSubscription(ExchangeService service, String id) throws Exception {
+    StreamingSubscription subscription = new StreamingSubscription(service);
+    subscription.setId(id);
+    return subscription;
+  }
+
+  private static GetStreamingEventsResponse createResponse(String... subscriptionIds) throws Exception {
+    GetStreamingEventsResponse response = new GetStreamingEventsResponse(null);
+    TestUtils.setField(ServiceResponse.class, response, "result", ServiceResult.Success);
+    for (String id : subscriptionIds) {
+      GetStreamingEventsResults.NotificationGroup group = new GetStreamingEventsResults.NotificationGroup();
+      group.subscriptionId = id;
+      group.events = new ArrayList<NotificationEvent>();
+      response.getResults().getNotifications().add(group);
+    }
+    return response;
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.notification;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.request.HttpWebRequest;
+import microsoft.exchange.webservices.data.core.request.IHttpWebRequestFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class StreamingSubscriptionManagerTest {
+
+  @Test
+  public void testSubscriptionsFillConnections() throws Exception {
+    ExchangeService service = new ExchangeService();
+    StreamingSubscriptionManager manager = new StreamingSubscriptionManager(service, 30, 3);
+    try {
+      List<StreamingSubscription> first = createSubscriptions(service, 0, 450);
+      manager.addSubscriptions(first);
+      Assert.assertEquals(3, manager.getConnectionCount());
+      Assert.assertEquals(450, manager.getSubscriptionCount());
+
+      // The room left by a removed subscription is filled before a new connection is created
+      manager.removeSubscription(first.get(0));
+      manager.addSubscriptions(createSubscriptions(service, 450, 151));
+      Assert.assertEquals(3, manager.getConnectionCount());
+      Assert.assertEquals(600, manager.getSubscriptionCount());
+
+      try {
+        manager.addSubscriptions(createSubscriptions(service, 601, 1));
+        Assert.fail();
+      } catch (ServiceLocalException expected) {
+      }
+    } finally {
+      manager.close();
+    }
+  }
+
+  @Test
+  public void testFullConnectionsAddNothing() throws Exception {
+    ExchangeService service = new ExchangeService();
+    StreamingSubscriptionManager manager = new StreamingSubscriptionManager(service, 30, 2);
+    try {
+      manager.addSubscriptions(createSubscriptions(service, 0, 350));
+      try {
+        manager.addSubscriptions(createSubscriptions(service, 350, 51));
+        Assert.fail();
+      } catch (ServiceLocalException expected) {
+      }
+      Assert.assertEquals(350, manager.getSubscriptionCount());
+    } finally {
+      manager.close();
+    }
+  }
+
+  @Test
+  public void testReconnectBacksOff() throws Exception {
+    FakeStreamingService service = new FakeStreamingService();
+    BlockingQueue<SubscriptionErrorEventArgs> errors = new LinkedBlockingQueue<SubscriptionErrorEventArgs>();
+    StreamingSubscriptionManager manager = createManager(service, 3, 40, errors);
+    service.failures.set(3);
+    try {
+      manager.addSubscriptions(createSubscriptions(service, 0, 2));
+      try {
+        manager.open();
+        Assert.fail();
+      } catch (Exception expected) {
+      }
+
+      Assert.assertNotNull(service.awaitOpened());
+      Assert.assertEquals(4, service.attempts.size());
+      for (int i = 1; i < 4; i++) {
+        // The delay before attempt i is at least half of the initial delay doubled i - 1 times
+        long delay = TimeUnit.NANOSECONDS.toMillis(service.attempts.get(i) - service.attempts.get(i - 1));
+        Assert.assertTrue("delay " + delay, delay >= 20L << (i - 1));
+      }
+      Assert.assertEquals(3, errors.size());
+      for (SubscriptionErrorEventArgs error : errors) {
+        Assert.assertNull(error.getSubscription());
+      }
+    } finally {
+      manager.close();
+      service.close();
+    }
+  }
+
+  @Test
+  public void testConnectionIsReopenedWhenLifetimeEnds() throws Exception {
+    FakeStreamingService service = new FakeStreamingService();
+    BlockingQueue<SubscriptionErrorEventArgs> errors = new LinkedBlockingQueue<SubscriptionErrorEventArgs>();
+    StreamingSubscriptionManager manager = createManager(service, 3, 60000, errors);
+    try {
+      manager.addSubscriptions(createSubscriptions(service, 0, 2));
+      manager.open();
+      service.awaitOpened().send(ClosedMessage);
+
+      // Opened again right away, not after the reconnect delay
+      FakeStreamingRequest reopened = service.awaitOpened();
+      Assert.assertNotNull(reopened);
+      Assert.assertTrue(reopened.subscribesTo(0));
+      Assert.assertTrue(reopened.subscribesTo(1));
+      Assert.assertTrue(errors.isEmpty());
+    } finally {
+      manager.close();
+      service.close();
+    }
+  }
+
+  @Test
+  public void testConnectionsAreMergedAfterMassDisconnect() throws Exception {
+    FakeStreamingService service = new FakeStreamingService();
+    BlockingQueue<SubscriptionErrorEventArgs> errors = new LinkedBlockingQueue<SubscriptionErrorEventArgs>();
+    StreamingSubscriptionManager manager = createManager(service, 3, 200, errors);
+    try {
+      // Three connections with 50 subscriptions each
+      List<StreamingSubscription> subscriptions = createSubscriptions(service, 0, 600);
+      manager.addSubscriptions(subscriptions);
+      for (int i = 0; i < 600; i++) {
+        if (i % 200 >= 50) {
+          manager.removeSubscription(subscriptions.get(i));
+        }
+      }
+      Assert.assertEquals(3, manager.getConnectionCount());
+      manager.open();
+      List<FakeStreamingRequest> requests = new ArrayList<FakeStreamingRequest>();
+      for (int i = 0; i < 3; i++) {
+        requests.add(service.awaitOpened());
+      }
+
+      // The server restarts
+      for (FakeStreamingRequest request : requests) {
+        request.close();
+      }
+
+      FakeStreamingRequest merged = service.awaitOpened();
+      Assert.assertNotNull(merged);
+      Assert.assertEquals(1, manager.getConnectionCount());
+      Assert.assertEquals(150, manager.getSubscriptionCount());
+      for (int i = 0; i < 600; i++) {
+        Assert.assertEquals(i % 200 < 50, merged.subscribesTo(i));
+      }
+      Assert.assertNull(service.opened.poll(500, TimeUnit.MILLISECONDS));
+      Assert.assertEquals(3, errors.size());
+    } finally {
+      manager.close();
+      service.close();
+    }
+  }
+
+  @Test
+  public void testSubscriptionIsRemovedOnServerError() throws Exception {
+    FakeStreamingService service = new FakeStreamingService();
+    BlockingQueue<SubscriptionErrorEventArgs> errors = new LinkedBlockingQueue<SubscriptionErrorEventArgs>();
+    StreamingSubscriptionManager manager = createManager(service, 3, 60000, errors);
+    try {
+      manager.addSubscriptions(createSubscriptions(service, 0, 2));
+      manager.open();
+      service.awaitOpened().send(errorMessage("subscription1"));
+
+      SubscriptionErrorEventArgs error = errors.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(error);
+      Assert.assertEquals("subscription1", error.getSubscription().getId());
+      Assert.assertEquals(ServiceError.ErrorSubscriptionNotFound,
+          ((ServiceResponseException) error.getException()).getErrorCode());
+      Assert.assertEquals(1, manager.getSubscriptionCount());
+    } finally {
+      manager.close();
+      service.close();
+    }
+  }
+
+  private static StreamingSubscriptionManager createManager(ExchangeService service, int maximumConnections,
+      int initialReconnectDelay, final BlockingQueue<SubscriptionErrorEventArgs> errors) {
+    StreamingSubscriptionManager manager = new StreamingSubscriptionManager(service, 30, maximumConnections);
+    manager.setInitialReconnectDelay(initialReconnectDelay);
+    manager.setMaximumReconnectDelay(60000);
+    manager.addOnSubscriptionError(new StreamingSubscriptionConnection.ISubscriptionErrorDelegate() {
+      @Override
+      public void subscriptionErrorDelegate(Object sender, SubscriptionErrorEventArgs args) {
+        errors.add(args);
+      }
+    });
+    return manager;
+  }
+
+  private static List<StreamingSubscription> createSubscriptions(ExchangeService service, int first, int count)
+      throws Exception {
+    List<StreamingSubscription> subscriptions = new ArrayList<StreamingSubscription>();
+    for (int i = first; i < first + count; i++) {
+      StreamingSubscription subscription = new StreamingSubscription(service);
+      subscription.setId("subscription" + i);
+      subscriptions.add(subscription);
+    }
+    return subscriptions;
+  }
+
+
+  private static final String ClosedMessage = "<m:GetStreamingEventsResponseMessage ResponseClass=\"Success\">"
+      + "<m:ResponseCode>NoError</m:ResponseCode><m:ConnectionStatus>Closed</m:ConnectionStatus>"
+      + "</m:GetStreamingEventsResponseMessage>";
+
+  private static String errorMessage(String subscriptionId) {
+    return "<m:GetStreamingEventsResponseMessage ResponseClass=\"Error\">"
+        + "<m:MessageText>The subscription was not found.</m:MessageText>"
+        + "<m:ResponseCode>ErrorSubscriptionNotFound</m:ResponseCode>"
+        + "<m:DescriptiveLinkKey>0</m:DescriptiveLinkKey>"
+        + "<m:ErrorSubscriptionIds><m:SubscriptionId>" + subscriptionId + "</m:SubscriptionId>"
+        + "</m:ErrorSubscriptionIds></m:GetStreamingEventsResponseMessage>";
+  }
+
+
+  /**
+   * A service whose streaming connections are answered by the test.
+   */
+  private static class FakeStreamingService extends ExchangeService {
+
+    // The number of attempts to connect that fail before one succeeds
+    final AtomicInteger failures = new AtomicInteger();
+
+    // The time of each attempt to connect
+    final List<Long> attempts = Collections.synchronizedList(new ArrayList<Long>());
+
+    final BlockingQueue<FakeStreamingRequest> opened = new LinkedBlockingQueue<FakeStreamingRequest>();
+
+    FakeStreamingService() throws Exception {
+      setUrl(new URI("https://mail.example.com/EWS/Exchange.asmx"));
+      setHttpWebRequestFactory(new IHttpWebRequestFactory() {
+        @Override
+        public HttpWebRequest createHttpWebRequest(URI url, boolean subscription) {
+          return new FakeStreamingRequest(FakeStreamingService.this);
+        }
+      });
+    }
+
+    FakeStreamingRequest awaitOpened() throws InterruptedException {
+      return opened.poll(5, TimeUnit.SECONDS);
+    }
+  }
+
+
+  /**
+   * A GetStreamingEvents request whose response is written by the test,
+   * until it is closed.
+   */
+  private static class FakeStreamingRequest extends HttpWebRequest {
+
+    private final FakeStreamingService service;
+
+    private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+
+    private volatile boolean closed;
+
+    private final InputStream responseBody = new InputStream() {
+      private byte[] chunk = new byte[0];
+      private int position;
+
+      @Override
+      public int read() throws IOException {
+        byte[] buffer = new byte[1];
+        return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        while (position == chunk.length) {
+          if (closed) {
+            throw new IOException("The connection was reset.");
+          }
+          try {
+            chunk = chunks.take();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+          position = 0;
+        }
+        int count = Math.min(length, chunk.length - position);
+        System.arraycopy(chunk, position, buffer, offset, count);
+        position += count;
+        return count;
+      }
+    };
+
+    FakeStreamingRequest(FakeStreamingService service) {
+      this.service = service;
+    }
+
+    void send(String message) throws IOException {
+      chunks.add(("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+          + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Header>"
+          + "<h:ServerVersionInfo MajorVersion=\"15\" MinorVersion=\"0\" MajorBuildNumber=\"1\""
+          + " MinorBuildNumber=\"0\" xmlns:h=\"http://schemas.microsoft.com/exchange/services/2006/types\"/>"
+          + "</s:Header><s:Body>"
+          + "<m:GetStreamingEventsResponse"
+          + " xmlns:m=\"http://schemas.microsoft.com/exchange/services/2006/messages\""
+          + " xmlns:t=\"http://schemas.microsoft.com/exchange/services/2006/types\"><m:ResponseMessages>"
+          + message
+          + "</m:ResponseMessages></m:GetStreamingEventsResponse></s:Body></s:Envelope>").getBytes("UTF-8"));
+    }
+
+    boolean subscribesTo(int subscription) throws IOException {
+      return requestBody.toString("UTF-8").contains(">subscription" + subscription + "<");
+    }
+
+    @Override
+    public int executeRequest() throws IOException {
+      service.attempts.add(System.nanoTime());
+      if (service.failures.getAndDecrement() > 0) {
+        throw new IOException("Connection refused");
+      }
+      service.opened.add(this);
+      return 200;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return requestBody;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      chunks.add(new byte[0]);
+    }
+
+    @Override
+    public void prepareConnection() {
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders() {
+      return new HashMap<String, String>();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public String getResponseContentType() {
+      return "text/xml; charset=utf-8";
+    }
+
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public String getResponseText() {
+      return "OK";
+    }
+
+    @Override
+    public String getResponseHeaderField(String headerName) {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getRequestProperty() {
+      return new HashMap<String, String>();
+    }
+  }
+}
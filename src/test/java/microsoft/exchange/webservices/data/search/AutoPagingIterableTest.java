@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.search;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class AutoPagingIterableTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testIteratesAllPages() {
+    NumberSearch search = new NumberSearch(10, 4, 1);
+    List<Integer> results = new ArrayList<Integer>();
+    for (int result : search) {
+      results.add(result);
+    }
+
+    Assert.assertEquals(10, results.size());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(Integer.valueOf(i), results.get(i));
+    }
+    Assert.assertEquals(3, search.requests.get());
+  }
+
+  @Test
+  public void testPrefetchDepth() throws InterruptedException {
+    NumberSearch search = new NumberSearch(100, 10, 2);
+    Iterator<Integer> iterator = search.iterator();
+    Assert.assertEquals(Integer.valueOf(0), iterator.next());
+
+    // The current page and two more, but no further while the first is processed
+    Thread.sleep(200);
+    Assert.assertEquals(3, search.requests.get());
+  }
+
+  @Test
+  public void testSegments() {
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    final AtomicInteger requesting = new AtomicInteger();
+    final AtomicInteger mostRequesting = new AtomicInteger();
+    try {
+      AutoPagingIterable<Integer> search = new AutoPagingIterable<Integer>(pool, 0, 5, 2, 2) {
+        @Override
+        protected Page<Integer> findPage(int segment, int offset) throws Exception {
+          int now = requesting.incrementAndGet();
+          mostRequesting.set(Math.max(mostRequesting.get(), now));
+          Thread.sleep(5);
+          requesting.decrementAndGet();
+
+          // Segment n holds 100 * n up to 100 * n + 9, three per page
+          List<Integer> results = new ArrayList<Integer>();
+          for (int i = offset; i < Math.min(10, offset + 3); i++) {
+            results.add(100 * segment + i);
+          }
+          return new Page<Integer>(results, offset + 3 < 10, offset + 3);
+        }
+      };
+
+      Set<Integer> results = new HashSet<Integer>();
+      for (int result : search) {
+        Assert.assertTrue(results.add(result));
+      }
+      Assert.assertEquals(50, results.size());
+      Assert.assertTrue(mostRequesting.get() <= 2);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testErrorIsThrownFromIterator() {
+    Iterator<Integer> iterator = new AutoPagingIterable<Integer>(executor, 0, 1) {
+      @Override
+      protected Page<Integer> findPage(int segment, int offset) throws Exception {
+        throw new Exception("failed");
+      }
+    }.iterator();
+
+    try {
+      iterator.hasNext();
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertEquals("failed", e.getCause().getMessage());
+    }
+    Assert.assertFalse(iterator.hasNext());
+  }
+
+
+  /**
+   * Searches the numbers from 0 up to a count.
+   */
+  private class NumberSearch extends AutoPagingIterable<Integer> {
+
+    private final int count;
+
+    private final int pageSize;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    NumberSearch(int count, int pageSize, int prefetchDepth) {
+      super(executor, 0, prefetchDepth);
+      this.count = count;
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    protected Page<Integer> findPage(int segment, int offset) {
+      requests.incrementAndGet();
+      List<Integer> results = new ArrayList<Integer>();
+      for (int i = offset; i < Math.min(count, offset + pageSize); i++) {
+        results.add(i);
+      }
+      return new Page<Integer>(results, offset + pageSize < count, offset + results.size());
+    }
+  }
+}
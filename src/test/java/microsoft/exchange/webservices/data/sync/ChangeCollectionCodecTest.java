@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.property.BodyType;
+import microsoft.exchange.webservices.data.core.enumeration.property.Importance;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.property.complex.MessageBody;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ChangeCollectionCodecTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    ExchangeService service = new ExchangeService();
+    ChangeCollectionCodec codec = new ChangeCollectionCodec(service);
+
+    EmailMessage message = new EmailMessage(service);
+    ItemId messageId = new ItemId("AAMk");
+    messageId.setChangeKey("CQAA");
+    Map<PropertyDefinition, Object> properties = message.getPropertyBag().getProperties();
+    properties.put(ItemSchema.Id, messageId);
+    properties.put(ItemSchema.Subject, "Quarterly report");
+    properties.put(ItemSchema.Importance, Importance.High);
+    properties.put(ItemSchema.DateTimeReceived, new Date(1400000000000L));
+    properties.put(ItemSchema.Body, new MessageBody(BodyType.Text, "See attached."));
+
+    ItemChange created = new ItemChange();
+    created.setChangeType(ChangeType.Create);
+    created.setServiceObject(message);
+
+    ItemChange deleted = new ItemChange();
+    deleted.setChangeType(ChangeType.Delete);
+    deleted.setId(new ItemId("AAMl"));
+
+    ChangeCollection<ItemChange> changes = new ChangeCollection<ItemChange>();
+    changes.add(created);
+    changes.add(deleted);
+    changes.setSyncState("H4sIAAAAAAAEAO29B2AcSZYl");
+    changes.setMoreChangesAvailable(true);
+
+    ByteBuffer buffer = codec.toByteBuffer(changes);
+    ChangeCollection<ItemChange> read = codec.read(buffer, ItemChange.class);
+    Assert.assertFalse(buffer.hasRemaining());
+
+    Assert.assertEquals(changes.getSyncState(), read.getSyncState());
+    Assert.assertTrue(read.getMoreChangesAvailable());
+    Assert.assertEquals(2, read.getCount());
+
+    ItemChange item = read.getChangeAtIndex(0);
+    Assert.assertEquals(ChangeType.Create, item.getChangeType());
+    EmailMessage readMessage = (EmailMessage) item.getItem();
+    Assert.assertEquals("AAMk", readMessage.getId().getUniqueId());
+    Assert.assertEquals("CQAA", readMessage.getId().getChangeKey());
+    Assert.assertEquals("Quarterly report", readMessage.getSubject());
+    Assert.assertEquals(Importance.High, readMessage.getImportance());
+    Assert.assertEquals(new Date(1400000000000L), readMessage.getDateTimeReceived());
+    Assert.assertEquals(BodyType.Text, readMessage.getBody().getBodyType());
+    Assert.assertEquals("See attached.", MessageBody.getStringFromMessageBody(readMessage.getBody()));
+    Assert.assertFalse(readMessage.isDirty());
+
+    ItemChange delete = read.getChangeAtIndex(1);
+    Assert.assertEquals(ChangeType.Delete, delete.getChangeType());
+    Assert.assertNull(delete.getItem());
+    Assert.assertEquals("AAMl", delete.getItemId().getUniqueId());
+
+    try {
+      codec.read(codec.toByteBuffer(changes), FolderChange.class);
+      Assert.fail();
+    } catch (IOException expected) {
+    }
+  }
+}
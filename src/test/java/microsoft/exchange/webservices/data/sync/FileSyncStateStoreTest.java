@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+@RunWith(JUnit4.class)
+public class FileSyncStateStoreTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("sync", "");
+    Assert.assertTrue(directory.delete());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testFileSyncStateStore() throws Exception {
+    FileSyncStateStore store = new FileSyncStateStore(directory);
+    Assert.assertNull(store.getHierarchySyncState("user@example.com"));
+
+    store.setHierarchySyncState("user@example.com", "hierarchy");
+    store.setFolderSyncState("user@example.com", "AAMk/+=", "state");
+    store.setFolderSyncState("user@example.com", "other", "");
+    Assert.assertEquals("hierarchy", store.getHierarchySyncState("user@example.com"));
+    Assert.assertEquals("state", store.getFolderSyncState("user@example.com", "AAMk/+="));
+    Assert.assertEquals(new HashSet<String>(Arrays.asList("AAMk/+=", "other")),
+        new HashSet<String>(store.getFolderIds("user@example.com")));
+
+    store.setFolderSyncState("user@example.com", "other", null);
+    Assert.assertEquals(Arrays.asList("AAMk/+="), store.getFolderIds("user@example.com"));
+  }
+}
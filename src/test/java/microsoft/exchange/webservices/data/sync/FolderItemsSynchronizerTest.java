@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(JUnit4.class)
+public class FolderItemsSynchronizerTest {
+
+  @Test
+  public void testPipelinedBatches() throws Exception {
+    FakeSyncService service = new FakeSyncService(3);
+    try {
+      FolderItemsSynchronizer synchronizer = new FolderItemsSynchronizer(service,
+          new FolderId(WellKnownFolderName.Inbox), PropertySet.IdOnly, null, 100,
+          SyncFolderItemsScope.NormalItems, null);
+
+      ChangeCollection<ItemChange> first = synchronizer.nextBatch();
+      Assert.assertEquals("1", first.getSyncState());
+
+      // The second batch is requested before the first is acknowledged
+      for (int i = 0; i < 100 && service.requests.size() < 2; i++) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals("1", service.requests.get(1));
+      Assert.assertNull(synchronizer.getSyncState());
+
+      synchronizer.acknowledge(first);
+      Assert.assertEquals("1", synchronizer.getSyncState());
+
+      ChangeCollection<ItemChange> second = synchronizer.nextBatch();
+      ChangeCollection<ItemChange> third = synchronizer.nextBatch();
+      Assert.assertFalse(third.getMoreChangesAvailable());
+      try {
+        synchronizer.acknowledge(third);
+        Assert.fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      synchronizer.acknowledge(second);
+      synchronizer.acknowledge(third);
+      Assert.assertEquals("3", synchronizer.getSyncState());
+
+      // Nothing is requested after the last batch until asked for
+      Thread.sleep(50);
+      Assert.assertEquals(3, service.requests.size());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testUnacknowledgedBatchesAreLimited() throws Exception {
+    FakeSyncService service = new FakeSyncService(100);
+    try {
+      FolderItemsSynchronizer synchronizer = new FolderItemsSynchronizer(service,
+          new FolderId(WellKnownFolderName.Inbox), PropertySet.IdOnly, null, 100,
+          SyncFolderItemsScope.NormalItems, null);
+
+      ChangeCollection<ItemChange> first = synchronizer.nextBatch();
+      for (int i = 1; i < FolderItemsSynchronizer.MaximumUnacknowledgedBatches; i++) {
+        synchronizer.nextBatch();
+      }
+      try {
+        synchronizer.nextBatch();
+        Assert.fail();
+      } catch (IllegalStateException expected) {
+      }
+
+      synchronizer.acknowledge(first);
+      Assert.assertEquals(String.valueOf(FolderItemsSynchronizer.MaximumUnacknowledgedBatches + 1),
+          synchronizer.nextBatch().getSyncState());
+      synchronizer.close();
+    } finally {
+      service.close();
+    }
+  }
+
+
+  /**
+   * Returns a number of empty batches whose sync states count up.
+   */
+  private static class FakeSyncService extends ExchangeService {
+
+    private final int batches;
+
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    FakeSyncService(int batches) {
+      this.batches = batches;
+    }
+
+    @Override
+    public ChangeCollection<ItemChange> syncFolderItems(FolderId syncFolderId, PropertySet propertySet,
+        Iterable<ItemId> ignoredItemIds, int maxChangesReturned, SyncFolderItemsScope syncScope,
+        String syncState) {
+      requests.add(String.valueOf(syncState));
+      int batch = syncState == null ? 1 : Integer.parseInt(syncState) + 1;
+      ChangeCollection<ItemChange> changes = new ChangeCollection<ItemChange>();
+      changes.setSyncState(String.valueOf(batch));
+      changes.setMoreChangesAvailable(batch < batches);
+      return changes;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ * Copyright (c) 2012 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package microsoft.exchange.webservices.data.sync;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(JUnit4.class)
+public class SyncEngineTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("sync", "");
+    Assert.assertTrue(directory.delete());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testSynchronize() throws Exception {
+    final List<String> handled = new CopyOnWriteArrayList<String>();
+    ISyncChangesHandler handler = new ISyncChangesHandler() {
+      @Override
+      public void handleFolderChanges(String mailbox, ChangeCollection<FolderChange> changes) {
+      }
+
+      @Override
+      public void handleItemChanges(String mailbox, FolderId folderId, ChangeCollection<ItemChange> changes) {
+        handled.add(folderId.getUniqueId() + ":" + changes.getSyncState());
+      }
+    };
+    FileSyncStateStore store = new FileSyncStateStore(directory);
+    FakeSyncService service = new FakeSyncService();
+
+    SyncEngine engine = new SyncEngine(store, handler, 2);
+    try {
+      engine.addMailbox("user", service, null);
+      engine.synchronize();
+    } finally {
+      engine.close();
+    }
+    Assert.assertEquals(new HashSet<String>(Arrays.asList("inbox:1", "inbox:2", "inbox:3", "archive:1")),
+        new HashSet<String>(handled));
+    Assert.assertEquals("3", store.getFolderSyncState("user", "inbox"));
+    Assert.assertEquals("h", store.getHierarchySyncState("user"));
+
+    // A new engine continues from the stored sync states
+    handled.clear();
+    engine = new SyncEngine(store, handler, 2);
+    try {
+      engine.addMailbox("user", service, null);
+      engine.synchronize();
+    } finally {
+      engine.close();
+    }
+    Assert.assertEquals(new HashSet<String>(Arrays.asList("inbox:3", "archive:1")),
+        new HashSet<String>(handled));
+    Assert.assertEquals("h", service.hierarchyRequests.get(1));
+  }
+
+  @Test
+  public void testFolderWithMoreChangesIsSynchronizedFirst() throws Exception {
+    ScriptedSyncService service = new ScriptedSyncService("a", "inbox", "b");
+    SyncEngine engine = new SyncEngine(new FileSyncStateStore(directory), service.handler, 1);
+    try {
+      engine.addMailbox("user", service, null);
+      service.script("a", 8).script("inbox", 2).script("b", 0);
+      engine.synchronize();
+
+      // Activities are now a 4, inbox 1 and b 0. The inbox has a second
+      // batch, and goes back into the queue ahead of b with its new changes.
+      service.script("a", 0).script("inbox", 10, 10).script("b", 0);
+      service.handled.clear();
+      engine.synchronize();
+      Assert.assertEquals(Arrays.asList("a", "inbox", "inbox", "b"), service.handled);
+    } finally {
+      engine.close();
+    }
+  }
+
+  @Test
+  public void testActivityDecays() throws Exception {
+    ScriptedSyncService service = new ScriptedSyncService("busy", "medium", "quiet");
+    SyncEngine engine = new SyncEngine(new FileSyncStateStore(directory), service.handler, 1);
+    try {
+      engine.addMailbox("user", service, null);
+      service.script("busy", 10).script("medium", 3).script("quiet", 0);
+      engine.synchronize();
+
+      // Activities are now busy 5, medium 1.5 and quiet 0
+      service.script("busy", 0).script("medium", 4).script("quiet", 0);
+      service.handled.clear();
+      engine.synchronize();
+      Assert.assertEquals(Arrays.asList("busy", "medium", "quiet"), service.handled);
+
+      // The older changes of busy count half as much as the recent changes
+      // of medium: busy 2.5, medium 2.75
+      service.script("busy", 0).script("medium", 0).script("quiet", 0);
+      service.handled.clear();
+      engine.synchronize();
+      Assert.assertEquals(Arrays.asList("medium", "busy", "quiet"), service.handled);
+    } finally {
+      engine.close();
+    }
+  }
+
+
+  /**
+   * A mailbox whose folders return the numbers of changes scripted by the
+   * test, one batch per number, recording the order the folders are
+   * synchronized in.
+   */
+  private static class ScriptedSyncService extends ExchangeService {
+
+    private final List<String> folderIds;
+
+    private final Map<String, LinkedList<Integer>> batches = new ConcurrentHashMap<String, LinkedList<Integer>>();
+
+    private final List<String> handled = new CopyOnWriteArrayList<String>();
+
+    private final ISyncChangesHandler handler = new ISyncChangesHandler() {
+      @Override
+      public void handleFolderChanges(String mailbox, ChangeCollection<FolderChange> changes) {
+      }
+
+      @Override
+      public void handleItemChanges(String mailbox, FolderId folderId, ChangeCollection<ItemChange> changes) {
+        handled.add(folderId.getUniqueId());
+      }
+    };
+
+    ScriptedSyncService(String... folderIds) {
+      this.folderIds = Arrays.asList(folderIds);
+    }
+
+    ScriptedSyncService script(String folderId, Integer... changeCounts) {
+      batches.put(folderId, new LinkedList<Integer>(Arrays.asList(changeCounts)));
+      return this;
+    }
+
+    @Override
+    public ChangeCollection<FolderChange> syncFolderHierarchy(FolderId syncFolderId, PropertySet propertySet,
+        String syncState) throws Exception {
+      ChangeCollection<FolderChange> changes = new ChangeCollection<FolderChange>();
+      if (syncState == null) {
+        for (String folderId : folderIds) {
+          FolderChange change = new FolderChange();
+          change.setChangeType(ChangeType.Create);
+          change.setId(new FolderId(folderId));
+          changes.add(change);
+        }
+      }
+      changes.setSyncState("h");
+      return changes;
+    }
+
+    @Override
+    public ChangeCollection<ItemChange> syncFolderItems(FolderId syncFolderId, PropertySet propertySet,
+        Iterable<ItemId> ignoredItemIds, int maxChangesReturned, SyncFolderItemsScope syncScope,
+        String syncState) throws Exception {
+      LinkedList<Integer> folderBatches = batches.get(syncFolderId.getUniqueId());
+      int count = folderBatches.removeFirst();
+      ChangeCollection<ItemChange> changes = new ChangeCollection<ItemChange>();
+      for (int i = 0; i < count; i++) {
+        ItemChange change = new ItemChange();
+        change.setChangeType(ChangeType.Create);
+        change.setId(new ItemId("item" + i));
+        changes.add(change);
+      }
+      changes.setSyncState(String.valueOf(syncState) + "+");
+      changes.setMoreChangesAvailable(!folderBatches.isEmpty());
+      return changes;
+    }
+  }
+
+  /**
+   * A mailbox with an inbox holding three batches of changes and an archive
+   * holding one; the sync state is the number of batches returned.
+   */
+  private static class FakeSyncService extends ExchangeService {
+
+    private final List<String> hierarchyRequests = new CopyOnWriteArrayList<String>();
+
+    private final Map<String, Integer> batches = new ConcurrentHashMap<String, Integer>();
+
+    FakeSyncService() {
+      batches.put("inbox", 3);
+      batches.put("archive", 1);
+    }
+
+    @Override
+    public ChangeCollection<FolderChange> syncFolderHierarchy(FolderId syncFolderId, PropertySet propertySet,
+        String syncState) throws Exception {
+      hierarchyRequests.add(String.valueOf(syncState));
+      ChangeCollection<FolderChange> changes = new ChangeCollection<FolderChange>();
+      if (syncState == null) {
+        for (String folderId : batches.keySet()) {
+          FolderChange change = new FolderChange();
+          change.setChangeType(ChangeType.Create);
+          change.setId(new FolderId(folderId));
+          changes.add(change);
+        }
+      }
+      changes.setSyncState("h");
+      return changes;
+    }
+
+    @Override
+    public ChangeCollection<ItemChange> syncFolderItems(FolderId syncFolderId, PropertySet propertySet,
+        Iterable<ItemId> ignoredItemIds, int maxChangesReturned, SyncFolderItemsScope syncScope,
+        String syncState) {
+      int count = batches.get(syncFolderId.getUniqueId());
+      int batch = Math.min(count, syncState == null ? 1 : Integer.parseInt(syncState) + 1);
+      ChangeCollection<ItemChange> changes = new ChangeCollection<ItemChange>();
+      changes.setSyncState(String.valueOf(batch));
+      changes.setMoreChangesAvailable(batch < count);
+      return changes;
+    }
+  }
+}